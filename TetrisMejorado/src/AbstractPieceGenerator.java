@@ -0,0 +1,197 @@
+
+/**
+ * The {@code AbstractPieceGenerator} class implements the parts every
+ * {@code PieceGenerator} shares: a seedable random number generator and a
+ * fixed size ring of upcoming pieces. Subclasses only decide which piece
+ * comes next. Nothing is allocated after construction.
+ */
+public abstract class AbstractPieceGenerator implements PieceGenerator {
+
+	/**
+	 * The set the pieces are dealt from.
+	 */
+	private final PieceSet pstPieces;
+
+	/**
+	 * The pieces of the set, cached so that picking a piece never allocates.
+	 */
+	protected final TileType[] tltarrTypes;
+
+	/**
+	 * The number of pieces in the set.
+	 */
+	protected final int iTypeCount;
+
+	/**
+	 * The upcoming pieces, stored as a ring.
+	 */
+	private final TileType[] tltarrQueue;
+
+	/**
+	 * The position of the first upcoming piece in the ring.
+	 */
+	private int iHead;
+
+	/**
+	 * The seed the current sequence was started from.
+	 */
+	private long lSeed;
+
+	/**
+	 * The state of the random number generator.
+	 */
+	private long lState;
+
+	/**
+	 * Creates a new generator.
+	 * @param pstPieces The set to deal pieces from.
+	 * @param lSeed The seed.
+	 * @param iPreviewSize The number of upcoming pieces to keep, at least 1.
+	 */
+	protected AbstractPieceGenerator(PieceSet pstPieces, long lSeed,
+                int iPreviewSize) {
+		if(iPreviewSize < 1) {
+			throw new IllegalArgumentException("Invalid preview size: "
+                                + iPreviewSize);
+		}
+		this.pstPieces = pstPieces;
+		this.tltarrTypes = pstPieces.getTypes();
+		this.iTypeCount = tltarrTypes.length;
+		this.tltarrQueue = new TileType[iPreviewSize];
+		this.lSeed = lSeed;
+	}
+
+	/**
+	 * Fills the queue for the first time. Subclasses call this at the end of
+	 * their constructor, once their own state is ready.
+	 */
+	protected final void start() {
+		reset(lSeed);
+	}
+
+	@Override
+	public void reset(long lSeed) {
+		this.lSeed = lSeed;
+		this.lState = lSeed;
+		this.iHead = 0;
+		restart();
+		for(int iIndex = 0; iIndex < tltarrQueue.length; iIndex++) {
+			tltarrQueue[iIndex] = tltarrTypes[generate()];
+		}
+	}
+
+	@Override
+	public TileType next() {
+		TileType tltNext = tltarrQueue[iHead];
+		tltarrQueue[iHead] = tltarrTypes[generate()];
+		iHead = (iHead + 1 == tltarrQueue.length) ? 0 : iHead + 1;
+		return tltNext;
+	}
+
+	@Override
+	public TileType peek(int iIndex) {
+		int iSlot = iHead + iIndex;
+		if(iSlot >= tltarrQueue.length) {
+			iSlot -= tltarrQueue.length;
+		}
+		return tltarrQueue[iSlot];
+	}
+
+	@Override
+	public int getPreviewSize() {
+		return tltarrQueue.length;
+	}
+
+	@Override
+	public PieceSet getPieceSet() {
+		return pstPieces;
+	}
+
+	@Override
+	public long getSeed() {
+		return lSeed;
+	}
+
+	@Override
+	public int getStateSize() {
+		return 5 + tltarrQueue.length + getExtraStateSize();
+	}
+
+	@Override
+	public void saveState(int[] iarrState, int iOffset) {
+		GameSnapshot.putLong(iarrState, iOffset, lSeed);
+		GameSnapshot.putLong(iarrState, iOffset + 2, lState);
+		iarrState[iOffset + 4] = iHead;
+		iOffset += 5;
+		for(int iIndex = 0; iIndex < tltarrQueue.length; iIndex++) {
+			iarrState[iOffset++] = tltarrQueue[iIndex].getType();
+		}
+		saveExtraState(iarrState, iOffset);
+	}
+
+	@Override
+	public void loadState(int[] iarrState, int iOffset) {
+		this.lSeed = GameSnapshot.getLong(iarrState, iOffset);
+		this.lState = GameSnapshot.getLong(iarrState, iOffset + 2);
+		this.iHead = iarrState[iOffset + 4];
+		iOffset += 5;
+		for(int iIndex = 0; iIndex < tltarrQueue.length; iIndex++) {
+			tltarrQueue[iIndex] = tltarrTypes[iarrState[iOffset++]];
+		}
+		loadExtraState(iarrState, iOffset);
+	}
+
+	/**
+	 * Gets the number of ints the subclass needs for it's own state.
+	 * @return The number of ints.
+	 */
+	protected int getExtraStateSize() {
+		return 0;
+	}
+
+	/**
+	 * Copies the state the subclass keeps into a buffer.
+	 * @param iarrState The buffer.
+	 * @param iOffset Where to start writing.
+	 */
+	protected void saveExtraState(int[] iarrState, int iOffset) {
+	}
+
+	/**
+	 * Replaces the state the subclass keeps with one copied by
+	 * {@code saveExtraState}.
+	 * @param iarrState The buffer.
+	 * @param iOffset Where to start reading.
+	 */
+	protected void loadExtraState(int[] iarrState, int iOffset) {
+	}
+
+	/**
+	 * Returns a uniformly distributed random number.
+	 * @param iBound The upper bound (exclusive).
+	 * @return A number between 0 and {@code iBound - 1}.
+	 */
+	protected final int nextInt(int iBound) {
+		/*
+		 * SplitMix64. The whole state is a single long, so a sequence can be
+		 * reproduced from it's seed alone.
+		 */
+		long lZ = (lState += 0x9E3779B97F4A7C15L);
+		lZ = (lZ ^ (lZ >>> 30)) * 0xBF58476D1CE4E5B9L;
+		lZ = (lZ ^ (lZ >>> 27)) * 0x94D049BB133111EBL;
+		lZ = lZ ^ (lZ >>> 31);
+		return (int)(((lZ >>> 32) * iBound) >>> 32);
+	}
+
+	/**
+	 * Resets any state the subclass keeps, when the sequence is restarted.
+	 */
+	protected abstract void restart();
+
+	/**
+	 * Picks the next piece to add to the back of the queue.
+	 * @return The type number of the piece within the set.
+	 */
+	protected abstract int generate();
+
+}
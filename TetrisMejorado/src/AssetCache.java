@@ -0,0 +1,352 @@
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import org.w3c.dom.Node;
+
+/**
+ * The {@code AssetCache} class keeps an image asset decoded and ready to be
+ * drawn, so that drawing it every frame costs a single unscaled copy.
+ *
+ * The image is decoded once, when the cache is created. Every frame of an
+ * animated GIF is decoded up front into a full picture of it's own, with the
+ * frames before it already composed in. Whenever the size to draw at or the
+ * display changes, every frame is scaled to that size at once, into images
+ * that are compatible with the display, and those copies are drawn from then
+ * on. Drawing a frame never scales it.
+ */
+public class AssetCache {
+
+	/**
+	 * The format of the metadata of each GIF frame.
+	 */
+	private static final String sGIF_IMAGE_FORMAT =
+                "javax_imageio_gif_image_1.0";
+
+	/**
+	 * The format of the metadata of the whole GIF.
+	 */
+	private static final String sGIF_STREAM_FORMAT =
+                "javax_imageio_gif_stream_1.0";
+
+	/**
+	 * The time, in milliseconds, that a frame with no delay of it's own is
+	 * shown for, the same as most browsers.
+	 */
+	private static final int iDEFAULT_DELAY = 100;
+
+	/**
+	 * The decoded frames, at their original size.
+	 */
+	private BufferedImage[] imgarrFrames;
+
+	/**
+	 * The time each frame ends at, in milliseconds from the start of the
+	 * animation.
+	 */
+	private int[] iarrFrameEnds;
+
+	/**
+	 * The copies of the frames scaled to the current size.
+	 */
+	private Image[] imgarrScaled;
+
+	/**
+	 * The width the scaled copies were made at.
+	 */
+	private int iScaledWidth;
+
+	/**
+	 * The height the scaled copies were made at.
+	 */
+	private int iScaledHeight;
+
+	/**
+	 * The display the scaled copies were made for.
+	 */
+	private GraphicsConfiguration grcScaled;
+
+	/**
+	 * Decodes an image found next to this class. If it can't be decoded,
+	 * the cache is left empty and draws nothing.
+	 * @param sResource The name of the image.
+	 */
+	public AssetCache(String sResource) {
+		this.imgarrFrames = new BufferedImage[0];
+		this.iarrFrameEnds = new int[0];
+		InputStream istInput = AssetCache.class.getResourceAsStream(sResource);
+		if(istInput == null) {
+			System.out.println("Error en " + sResource + ": not found");
+			return;
+		}
+		try {
+			decode(istInput);
+		} catch(IOException e) {
+			System.out.println("Error en " + e.toString());
+		} finally {
+			try {
+				istInput.close();
+			} catch(IOException e) {
+				System.out.println("Error en " + e.toString());
+			}
+		}
+		this.imgarrScaled = new Image[imgarrFrames.length];
+	}
+
+	/**
+	 * Decodes every frame of the image.
+	 * @param istInput The encoded image.
+	 * @throws IOException If the image can't be read.
+	 */
+	private void decode(InputStream istInput) throws IOException {
+		ImageInputStream iisInput = ImageIO.createImageInputStream(istInput);
+		Iterator<ImageReader> itrReaders = ImageIO.getImageReaders(iisInput);
+		if(!itrReaders.hasNext()) {
+			throw new IOException("Unknown image format");
+		}
+		ImageReader irdReader = itrReaders.next();
+		try {
+			irdReader.setInput(iisInput, false);
+			int iCount = irdReader.getNumImages(true);
+			BufferedImage[] imgarrDecoded = new BufferedImage[iCount];
+			int[] iarrEnds = new int[iCount];
+
+			/*
+			 * GIF frames can be smaller than the whole picture and are drawn
+			 * on top of what came before, so they are composed onto a
+			 * canvas the size of the whole picture.
+			 */
+			int iWidth = irdReader.getWidth(0);
+			int iHeight = irdReader.getHeight(0);
+			Node nodScreen = findNode(irdReader.getStreamMetadata(),
+                                sGIF_STREAM_FORMAT, "LogicalScreenDescriptor");
+			if(nodScreen != null) {
+				iWidth = Math.max(iWidth, intAttribute(nodScreen,
+                                        "logicalScreenWidth", 0));
+				iHeight = Math.max(iHeight, intAttribute(nodScreen,
+                                        "logicalScreenHeight", 0));
+			}
+			BufferedImage imgCanvas = new BufferedImage(iWidth, iHeight,
+                                BufferedImage.TYPE_INT_ARGB);
+
+			int iTime = 0;
+			for(int iFrame = 0; iFrame < iCount; iFrame++) {
+				BufferedImage imgPart = irdReader.read(iFrame);
+				IIOMetadata iomFrame = irdReader.getImageMetadata(iFrame);
+				Node nodDescriptor = findNode(iomFrame, sGIF_IMAGE_FORMAT,
+                                        "ImageDescriptor");
+				Node nodControl = findNode(iomFrame, sGIF_IMAGE_FORMAT,
+                                        "GraphicControlExtension");
+				int iX = intAttribute(nodDescriptor, "imageLeftPosition", 0);
+				int iY = intAttribute(nodDescriptor, "imageTopPosition", 0);
+				int iDelay = intAttribute(nodControl, "delayTime", 0) * 10;
+				String sDisposal = attribute(nodControl, "disposalMethod");
+
+				BufferedImage imgPrevious = "restoreToPrevious".equals(
+                                        sDisposal) ? copy(imgCanvas) : null;
+				Graphics2D g2dCanvas = imgCanvas.createGraphics();
+				g2dCanvas.drawImage(imgPart, iX, iY, null);
+				imgarrDecoded[iFrame] = copy(imgCanvas);
+
+				/*
+				 * Undo the frame the way it asks before drawing the next one.
+				 */
+				if("restoreToBackgroundColor".equals(sDisposal)) {
+					g2dCanvas.setComposite(AlphaComposite.Clear);
+					g2dCanvas.fillRect(iX, iY, imgPart.getWidth(),
+                                                imgPart.getHeight());
+				} else if(imgPrevious != null) {
+					imgCanvas = imgPrevious;
+				}
+				g2dCanvas.dispose();
+
+				iTime += (iDelay > 10) ? iDelay : iDEFAULT_DELAY;
+				iarrEnds[iFrame] = iTime;
+			}
+			this.imgarrFrames = imgarrDecoded;
+			this.iarrFrameEnds = iarrEnds;
+		} finally {
+			irdReader.dispose();
+			iisInput.close();
+		}
+	}
+
+	/**
+	 * Scales every frame to a given size for a given display, unless they
+	 * already are. This is meant to be called whenever the size or the
+	 * display changes, so that drawing never has to scale anything.
+	 * @param iWidth The width to draw the image at.
+	 * @param iHeight The height to draw the image at.
+	 * @param grcDisplay The display the image will be drawn on, or null if
+	 * it's not known yet.
+	 */
+	public void prepare(int iWidth, int iHeight,
+                GraphicsConfiguration grcDisplay) {
+		if(imgarrFrames.length == 0 || iWidth <= 0 || iHeight <= 0
+                        || (iWidth == iScaledWidth && iHeight == iScaledHeight
+                        && grcDisplay == grcScaled)) {
+			return;
+		}
+		this.iScaledWidth = iWidth;
+		this.iScaledHeight = iHeight;
+		this.grcScaled = grcDisplay;
+		for(int iFrame = 0; iFrame < imgarrFrames.length; iFrame++) {
+			imgarrScaled[iFrame] = scale(imgarrFrames[iFrame]);
+		}
+	}
+
+	/**
+	 * Gets the frame showing at a given time, scaled to a given size for a
+	 * given display. If the frames haven't been prepared for that size and
+	 * display, they are all scaled first, in one go.
+	 * @param iWidth The width to draw the image at.
+	 * @param iHeight The height to draw the image at.
+	 * @param grcDisplay The display the image will be drawn on, or null if
+	 * it's not known yet.
+	 * @param lTime The current time, in nanoseconds.
+	 * @return The frame, or null if there is no image.
+	 */
+	public Image getFrame(int iWidth, int iHeight,
+                GraphicsConfiguration grcDisplay, long lTime) {
+		if(imgarrFrames.length == 0 || iWidth <= 0 || iHeight <= 0) {
+			return null;
+		}
+		prepare(iWidth, iHeight, grcDisplay);
+		return imgarrScaled[getFrameIndex(lTime)];
+	}
+
+	/**
+	 * Gets the number of frames of the image.
+	 * @return The number of frames, which is 1 if the image isn't animated
+	 * and 0 if it couldn't be decoded.
+	 */
+	public int getFrameCount() {
+		return imgarrFrames.length;
+	}
+
+	/**
+	 * Works out which frame is showing at a given time. The animation loops
+	 * forever.
+	 * @param lTime The current time, in nanoseconds.
+	 * @return The index of the frame.
+	 */
+	private int getFrameIndex(long lTime) {
+		int iLast = iarrFrameEnds.length - 1;
+		if(iLast == 0) {
+			return 0;
+		}
+		int iMillis = (int)((lTime / 1000000L) % iarrFrameEnds[iLast]);
+		if(iMillis < 0) {
+			iMillis += iarrFrameEnds[iLast];
+		}
+		int iFrame = 0;
+		while(iarrFrameEnds[iFrame] <= iMillis) {
+			iFrame++;
+		}
+		return iFrame;
+	}
+
+	/**
+	 * Scales a frame to the current size, into an image that is compatible
+	 * with the current display so it can be copied onto it as fast as
+	 * possible.
+	 * @param imgFrame The frame.
+	 * @return The scaled frame.
+	 */
+	private Image scale(BufferedImage imgFrame) {
+		BufferedImage imgScaled = (grcScaled != null)
+                        ? grcScaled.createCompatibleImage(iScaledWidth,
+                        iScaledHeight, Transparency.TRANSLUCENT)
+                        : new BufferedImage(iScaledWidth, iScaledHeight,
+                        BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2dScaled = imgScaled.createGraphics();
+		g2dScaled.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2dScaled.drawImage(imgFrame, 0, 0, iScaledWidth, iScaledHeight,
+                        null);
+		g2dScaled.dispose();
+		return imgScaled;
+	}
+
+	/**
+	 * Copies an image.
+	 * @param imgSource The image.
+	 * @return The copy.
+	 */
+	private static BufferedImage copy(BufferedImage imgSource) {
+		BufferedImage imgCopy = new BufferedImage(imgSource.getWidth(),
+                        imgSource.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2dCopy = imgCopy.createGraphics();
+		g2dCopy.drawImage(imgSource, 0, 0, null);
+		g2dCopy.dispose();
+		return imgCopy;
+	}
+
+	/**
+	 * Finds a node in the metadata of an image.
+	 * @param iomMetadata The metadata, or null.
+	 * @param sFormat The name of the metadata format.
+	 * @param sName The name of the node.
+	 * @return The first node with that name, or null if there is none.
+	 */
+	private static Node findNode(IIOMetadata iomMetadata, String sFormat,
+                String sName) {
+		if(iomMetadata == null
+                        || !sFormat.equals(iomMetadata.getNativeMetadataFormatName())) {
+			return null;
+		}
+		Node nodRoot = iomMetadata.getAsTree(sFormat);
+		for(Node nodChild = nodRoot.getFirstChild(); nodChild != null;
+                        nodChild = nodChild.getNextSibling()) {
+			if(sName.equals(nodChild.getNodeName())) {
+				return nodChild;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads an attribute of a metadata node.
+	 * @param nodNode The node, or null.
+	 * @param sName The name of the attribute.
+	 * @return The value, or null if there's no such attribute.
+	 */
+	private static String attribute(Node nodNode, String sName) {
+		if(nodNode == null) {
+			return null;
+		}
+		Node nodAttribute = nodNode.getAttributes().getNamedItem(sName);
+		return (nodAttribute == null) ? null : nodAttribute.getNodeValue();
+	}
+
+	/**
+	 * Reads a whole number attribute of a metadata node.
+	 * @param nodNode The node, or null.
+	 * @param sName The name of the attribute.
+	 * @param iDefault The value to use if there's no such attribute.
+	 * @return The value.
+	 */
+	private static int intAttribute(Node nodNode, String sName,
+                int iDefault) {
+		String sValue = attribute(nodNode, sName);
+		if(sValue == null) {
+			return iDefault;
+		}
+		try {
+			return Integer.parseInt(sValue);
+		} catch(NumberFormatException e) {
+			return iDefault;
+		}
+	}
+
+}
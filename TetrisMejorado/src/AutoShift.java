@@ -0,0 +1,226 @@
+
+/**
+ * The {@code AutoShift} class moves the piece sideways while a direction key
+ * is held down, the way most versions of Tetris do: one column as soon as
+ * the key goes down, then nothing for the delayed auto shift (DAS), and
+ * then one column every auto repeat rate (ARR) interval until the key is
+ * released. With an ARR of 0 the piece goes straight to the wall.
+ *
+ * Everything is timed from the moment each key went down or up rather than
+ * from when the game got around to handling it, and every repeat that came
+ * due since the last step is applied, so the result doesn't depend on the
+ * step rate or on the keyboard repeat of the operating system.
+ */
+public class AutoShift {
+
+	/**
+	 * The longest time between a key going up and coming back down for both
+	 * to be taken as the keyboard's own repeat rather than a real release,
+	 * in nanoseconds. Some systems repeat a held key by releasing and
+	 * pressing it again.
+	 */
+	private static final long lREPEAT_GAP = 5000000L;
+
+	/**
+	 * The engine whose piece is moved.
+	 */
+	private final GameEngine gmeEngine;
+
+	/**
+	 * The delay before the piece starts repeating, in nanoseconds.
+	 */
+	private final long lDelay;
+
+	/**
+	 * The time between repeated moves, in nanoseconds.
+	 */
+	private final long lRepeat;
+
+	/**
+	 * Whether each direction key is down, left first.
+	 */
+	private final boolean[] boolarrHeld;
+
+	/**
+	 * Whether each direction key has gone up, but could still turn out to be
+	 * the keyboard's own repeat.
+	 */
+	private final boolean[] boolarrReleasing;
+
+	/**
+	 * The time each direction key went up, in nanoseconds.
+	 */
+	private final long[] larrReleaseTime;
+
+	/**
+	 * The direction the piece is being moved in: -1 for left, 1 for right
+	 * or 0 for neither.
+	 */
+	private int iDirection;
+
+	/**
+	 * The time the next move is due, in nanoseconds.
+	 */
+	private long lNextShift;
+
+	/**
+	 * Creates an auto shift with no key held.
+	 * @param gmeEngine The engine whose piece is moved.
+	 * @param iDelayMillis The delay before the piece starts repeating, in
+	 * milliseconds.
+	 * @param iRepeatMillis The time between repeated moves, in
+	 * milliseconds, or 0 to move straight to the wall.
+	 */
+	public AutoShift(GameEngine gmeEngine, int iDelayMillis,
+                int iRepeatMillis) {
+		if(iDelayMillis < 0 || iRepeatMillis < 0) {
+			throw new IllegalArgumentException("Invalid DAS or ARR: "
+                                + iDelayMillis + ", " + iRepeatMillis);
+		}
+		this.gmeEngine = gmeEngine;
+		this.lDelay = iDelayMillis * 1000000L;
+		this.lRepeat = iRepeatMillis * 1000000L;
+		this.boolarrHeld = new boolean[2];
+		this.boolarrReleasing = new boolean[2];
+		this.larrReleaseTime = new long[2];
+	}
+
+	/**
+	 * Handles a direction key going down.
+	 * @param iDirection -1 for left or 1 for right.
+	 * @param lTime The time the key went down, in nanoseconds.
+	 */
+	public void press(int iDirection, long lTime) {
+		int iIndex = index(iDirection);
+
+		/*
+		 * A key that comes back down right after going up, or that goes down
+		 * again without ever going up, is just being repeated by the
+		 * keyboard, and has been held all along.
+		 */
+		if(boolarrReleasing[iIndex]) {
+			boolarrReleasing[iIndex] = false;
+			return;
+		}
+		if(boolarrHeld[iIndex]) {
+			return;
+		}
+		boolarrHeld[iIndex] = true;
+		start(iDirection, lTime);
+	}
+
+	/**
+	 * Handles a direction key going up. The release only takes effect once
+	 * it's clear the key isn't coming straight back down.
+	 * @param iDirection -1 for left or 1 for right.
+	 * @param lTime The time the key went up, in nanoseconds.
+	 */
+	public void release(int iDirection, long lTime) {
+		int iIndex = index(iDirection);
+		if(boolarrHeld[iIndex]) {
+			boolarrReleasing[iIndex] = true;
+			larrReleaseTime[iIndex] = lTime;
+		}
+	}
+
+	/**
+	 * Applies every repeated move that has come due, and every release that
+	 * is known to be real. This is called once per step of the game.
+	 * @param lNow The current time, in nanoseconds.
+	 */
+	public void update(long lNow) {
+		for(int iIndex = 0; iIndex < 2; iIndex++) {
+			if(boolarrReleasing[iIndex]
+                                && lNow - larrReleaseTime[iIndex] >= lREPEAT_GAP) {
+				finishRelease(iIndex);
+			}
+		}
+		if(iDirection == 0) {
+			return;
+		}
+
+		/*
+		 * No move is made past the time the key went up, even if the release
+		 * hasn't taken effect yet.
+		 */
+		int iIndex = index(iDirection);
+		long lLimit = lNow;
+		if(boolarrReleasing[iIndex]
+                        && larrReleaseTime[iIndex] - lLimit < 0) {
+			lLimit = larrReleaseTime[iIndex];
+		}
+
+		/*
+		 * Make every move that came due since the last step. Once the piece
+		 * is blocked, it stays charged and moves again as soon as there's
+		 * room. With no repeat time, this takes it straight to the wall.
+		 */
+		while(lNextShift - lLimit <= 0) {
+			if(!shift(iDirection)) {
+				lNextShift = lLimit;
+				break;
+			}
+			lNextShift += lRepeat;
+		}
+	}
+
+	/**
+	 * Lets go of a direction key for good. If the other key is still held,
+	 * the piece starts moving that way instead.
+	 * @param iIndex The index of the key.
+	 */
+	private void finishRelease(int iIndex) {
+		boolarrReleasing[iIndex] = false;
+		boolarrHeld[iIndex] = false;
+		if(iDirection != direction(iIndex)) {
+			return;
+		}
+		int iOther = 1 - iIndex;
+		if(boolarrHeld[iOther]) {
+			start(direction(iOther), larrReleaseTime[iIndex]);
+		} else {
+			this.iDirection = 0;
+		}
+	}
+
+	/**
+	 * Starts moving the piece in a direction: once right away, and again
+	 * when the delay is up.
+	 * @param iDirection -1 for left or 1 for right.
+	 * @param lTime The time the direction was chosen, in nanoseconds.
+	 */
+	private void start(int iDirection, long lTime) {
+		this.iDirection = iDirection;
+		this.lNextShift = lTime + lDelay;
+		shift(iDirection);
+	}
+
+	/**
+	 * Moves the piece one column.
+	 * @param iDirection -1 for left or 1 for right.
+	 * @return Whether or not the piece moved.
+	 */
+	private boolean shift(int iDirection) {
+		return (iDirection < 0) ? gmeEngine.moveLeft()
+                        : gmeEngine.moveRight();
+	}
+
+	/**
+	 * Gets the index of a direction in the key arrays.
+	 * @param iDirection -1 for left or 1 for right.
+	 * @return The index.
+	 */
+	private static int index(int iDirection) {
+		return (iDirection < 0) ? 0 : 1;
+	}
+
+	/**
+	 * Gets the direction of an index in the key arrays.
+	 * @param iIndex The index.
+	 * @return -1 for left or 1 for right.
+	 */
+	private static int direction(int iIndex) {
+		return (iIndex == 0) ? -1 : 1;
+	}
+
+}
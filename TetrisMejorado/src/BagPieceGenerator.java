@@ -0,0 +1,80 @@
+
+/**
+ * The {@code BagPieceGenerator} class deals pieces from a shuffled bag that
+ * holds one of each piece, refilling and reshuffling it once it's empty
+ * (the "7-bag"). Droughts can never last longer than 12 pieces.
+ */
+public class BagPieceGenerator extends AbstractPieceGenerator {
+
+	/**
+	 * The bag, holding piece indices.
+	 */
+	private final int[] iarrBag;
+
+	/**
+	 * The number of pieces already taken out of the bag.
+	 */
+	private int iDealt;
+
+	/**
+	 * Creates a new bag generator that deals the built-in pieces.
+	 * @param lSeed The seed.
+	 * @param iPreviewSize The number of upcoming pieces to keep.
+	 */
+	public BagPieceGenerator(long lSeed, int iPreviewSize) {
+		this(PieceSet.CLASSIC, lSeed, iPreviewSize);
+	}
+
+	/**
+	 * Creates a new bag generator.
+	 * @param pstPieces The set to deal pieces from.
+	 * @param lSeed The seed.
+	 * @param iPreviewSize The number of upcoming pieces to keep.
+	 */
+	public BagPieceGenerator(PieceSet pstPieces, long lSeed, int iPreviewSize) {
+		super(pstPieces, lSeed, iPreviewSize);
+		this.iarrBag = new int[iTypeCount];
+		start();
+	}
+
+	@Override
+	protected void restart() {
+		for(int iIndex = 0; iIndex < iarrBag.length; iIndex++) {
+			iarrBag[iIndex] = iIndex;
+		}
+		this.iDealt = iarrBag.length;
+	}
+
+	@Override
+	protected int getExtraStateSize() {
+		return iarrBag.length + 1;
+	}
+
+	@Override
+	protected void saveExtraState(int[] iarrState, int iOffset) {
+		System.arraycopy(iarrBag, 0, iarrState, iOffset, iarrBag.length);
+		iarrState[iOffset + iarrBag.length] = iDealt;
+	}
+
+	@Override
+	protected void loadExtraState(int[] iarrState, int iOffset) {
+		System.arraycopy(iarrState, iOffset, iarrBag, 0, iarrBag.length);
+		this.iDealt = iarrState[iOffset + iarrBag.length];
+	}
+
+	@Override
+	protected int generate() {
+		if(iDealt == iarrBag.length) {
+			//Fisher-Yates shuffle of the refilled bag.
+			for(int iIndex = iarrBag.length - 1; iIndex > 0; iIndex--) {
+				int iSwap = nextInt(iIndex + 1);
+				int iTemp = iarrBag[iIndex];
+				iarrBag[iIndex] = iarrBag[iSwap];
+				iarrBag[iSwap] = iTemp;
+			}
+			iDealt = 0;
+		}
+		return iarrBag[iDealt++];
+	}
+
+}
@@ -0,0 +1,668 @@
+import java.util.Arrays;
+
+/**
+ * The {@code BatchEngine} class simulates many games at once, all with the
+ * same rules as {@code GameEngine}, and advances them in lockstep. It's meant
+ * for running thousands of boards side by side (training bots, testing
+ * piece sets, measuring scores over many seeds).
+ *
+ * Instead of one object per game, the state of every board is kept in a few
+ * flat primitive arrays, one entry (or one run of rows) per board: the row
+ * masks of all the boards in a single {@code long[]}, the positions in
+ * {@code int[]} and the piece ids in {@code byte[]}. The piece shapes are
+ * flattened into tables as well, so a step never follows a reference to a
+ * piece or a board and never allocates. Boards are limited to 64 columns,
+ * since each row is a single mask, and only keep which cells are taken, not
+ * their colors.
+ */
+public class BatchEngine {
+
+	/**
+	 * The number of rows of every piece shape in the shape tables.
+	 */
+	private static final int iSHAPE_ROWS = PieceSet.iMAX_DIMENSION;
+
+	/**
+	 * The piece set the pieces come from.
+	 */
+	private final PieceSet pstPieces;
+
+	/**
+	 * The rotation system used to rotate the pieces.
+	 */
+	private final RotationSystem rtsRotation;
+
+	/**
+	 * The number of boards.
+	 */
+	private final int iBoardCount;
+
+	/**
+	 * The number of columns of every board.
+	 */
+	private final int iCols;
+
+	/**
+	 * The number of rows of every board.
+	 */
+	private final int iRows;
+
+	/**
+	 * The mask of a row with every column taken.
+	 */
+	private final long lFullRow;
+
+	/**
+	 * The row masks of every board, {@code iRows} of them per board, from the
+	 * top row down.
+	 */
+	private final long[] larrRows;
+
+	/**
+	 * The column of the current piece of each board.
+	 */
+	private final int[] iarrCol;
+
+	/**
+	 * The row of the current piece of each board.
+	 */
+	private final int[] iarrRow;
+
+	/**
+	 * The rotation of the current piece of each board.
+	 */
+	private final byte[] byarrRotation;
+
+	/**
+	 * The type number of the current piece of each board.
+	 */
+	private final byte[] byarrPiece;
+
+	/**
+	 * The type number of the next piece of each board.
+	 */
+	private final byte[] byarrNext;
+
+	/**
+	 * The score of each board.
+	 */
+	private final int[] iarrScore;
+
+	/**
+	 * The total number of lines cleared on each board.
+	 */
+	private final int[] iarrLines;
+
+	/**
+	 * Whether or not each board has topped out.
+	 */
+	private final boolean[] boolarrGameOver;
+
+	/**
+	 * The random number generator state of each board.
+	 */
+	private final long[] larrRandom;
+
+	/**
+	 * The boards whose piece must be locked during the current step.
+	 */
+	private final int[] iarrLocking;
+
+	/**
+	 * The inputs handed to {@code step} by {@code stepAll}.
+	 */
+	private final int[] iarrSameInputs;
+
+	/**
+	 * The number of boards that haven't topped out.
+	 */
+	private int iActiveCount;
+
+	/**
+	 * The row masks of every piece shape, {@code iSHAPE_ROWS} per shape,
+	 * indexed by {@code (type * 4 + rotation) * iSHAPE_ROWS + row}.
+	 */
+	private final long[] larrShapeMasks;
+
+	/**
+	 * The left inset of every shape.
+	 */
+	private final int[] iarrShapeLeft;
+
+	/**
+	 * The last column of every shape that contains a tile.
+	 */
+	private final int[] iarrShapeRight;
+
+	/**
+	 * The top inset of every shape.
+	 */
+	private final int[] iarrShapeTop;
+
+	/**
+	 * The last row of every shape that contains a tile.
+	 */
+	private final int[] iarrShapeBottom;
+
+	/**
+	 * The column each piece type spawns in.
+	 */
+	private final int[] iarrSpawnCol;
+
+	/**
+	 * The row each piece type spawns in.
+	 */
+	private final int[] iarrSpawnRow;
+
+	/**
+	 * Creates a batch of boards. Every board starts out as a new game, with
+	 * a seed taken from it's index.
+	 * @param iBoardCount The number of boards.
+	 * @param pstPieces The piece set the pieces come from.
+	 * @param rtsRotation The rotation system used to rotate the pieces.
+	 * @param iCols The number of columns of every board.
+	 * @param iVisibleRows The number of visible rows of every board.
+	 */
+	public BatchEngine(int iBoardCount, PieceSet pstPieces,
+                RotationSystem rtsRotation, int iCols, int iVisibleRows) {
+		if(iBoardCount < 1) {
+			throw new IllegalArgumentException("Invalid board count: "
+                                + iBoardCount);
+		}
+		if(iCols < 1 || iCols > Long.SIZE) {
+			throw new IllegalArgumentException("Invalid column count: "
+                                + iCols);
+		}
+		if(iVisibleRows < 1) {
+			throw new IllegalArgumentException("Invalid row count: "
+                                + iVisibleRows);
+		}
+		this.pstPieces = pstPieces;
+		this.rtsRotation = rtsRotation;
+		this.iBoardCount = iBoardCount;
+		this.iCols = iCols;
+		this.iRows = iVisibleRows + GameEngine.iHIDDEN_ROW_COUNT;
+		this.lFullRow = (iCols == Long.SIZE) ? -1L : (1L << iCols) - 1L;
+
+		this.larrRows = new long[iBoardCount * iRows];
+		this.iarrCol = new int[iBoardCount];
+		this.iarrRow = new int[iBoardCount];
+		this.byarrRotation = new byte[iBoardCount];
+		this.byarrPiece = new byte[iBoardCount];
+		this.byarrNext = new byte[iBoardCount];
+		this.iarrScore = new int[iBoardCount];
+		this.iarrLines = new int[iBoardCount];
+		this.boolarrGameOver = new boolean[iBoardCount];
+		this.larrRandom = new long[iBoardCount];
+		this.iarrLocking = new int[iBoardCount];
+		this.iarrSameInputs = new int[iBoardCount];
+
+		/*
+		 * Flatten the geometry of every rotation of every piece, so the
+		 * collision tests read the shapes straight out of a few arrays.
+		 */
+		int iTypeCount = pstPieces.getTypeCount();
+		int iShapes = iTypeCount * PieceGeometry.iROTATION_COUNT;
+		this.larrShapeMasks = new long[iShapes * iSHAPE_ROWS];
+		this.iarrShapeLeft = new int[iShapes];
+		this.iarrShapeRight = new int[iShapes];
+		this.iarrShapeTop = new int[iShapes];
+		this.iarrShapeBottom = new int[iShapes];
+		this.iarrSpawnCol = new int[iTypeCount];
+		this.iarrSpawnRow = new int[iTypeCount];
+		for(int iType = 0; iType < iTypeCount; iType++) {
+			TileType tltType = pstPieces.getType(iType);
+			PieceGeometry pgeGeometry = tltType.getGeometry();
+			int iDimension = pgeGeometry.getDimension();
+			for(int iRotation = 0; iRotation < PieceGeometry.iROTATION_COUNT;
+                                iRotation++) {
+				int iShape = iType * PieceGeometry.iROTATION_COUNT + iRotation;
+				System.arraycopy(pgeGeometry.getRowMasks(iRotation), 0,
+                                        larrShapeMasks, iShape * iSHAPE_ROWS, iDimension);
+				iarrShapeLeft[iShape] = pgeGeometry.getLeftInset(iRotation);
+				iarrShapeRight[iShape] = iDimension
+                                        - pgeGeometry.getRightInset(iRotation);
+				iarrShapeTop[iShape] = pgeGeometry.getTopInset(iRotation);
+				iarrShapeBottom[iShape] = iDimension
+                                        - pgeGeometry.getBottomInset(iRotation);
+			}
+			iarrSpawnCol[iType] = tltType.getSpawnColumn()
+                                - (GameEngine.iCOL_COUNT >> 1) + (iCols >> 1);
+			iarrSpawnRow[iType] = tltType.getSpawnRow();
+		}
+
+		this.iActiveCount = iBoardCount;
+		resetAll(0L);
+	}
+
+	/**
+	 * Starts a new game on every board. Board {@code n} uses the seed
+	 * {@code lSeed + n}.
+	 * @param lSeed The seed of the first board.
+	 */
+	public void resetAll(long lSeed) {
+		for(int iBoard = 0; iBoard < iBoardCount; iBoard++) {
+			reset(iBoard, lSeed + iBoard);
+		}
+	}
+
+	/**
+	 * Starts a new game on one board. The pieces are dealt exactly like a
+	 * {@code GameEngine} using an {@code UniformPieceGenerator} with the same
+	 * seed would deal them.
+	 * @param iBoard The board.
+	 * @param lSeed The seed of the piece sequence.
+	 */
+	public void reset(int iBoard, long lSeed) {
+		int iBase = iBoard * iRows;
+		for(int iY = 0; iY < iRows; iY++) {
+			larrRows[iBase + iY] = 0L;
+		}
+		iarrScore[iBoard] = 0;
+		iarrLines[iBoard] = 0;
+		larrRandom[iBoard] = lSeed;
+		byarrNext[iBoard] = (byte)nextType(iBoard);
+		spawnPiece(iBoard);
+	}
+
+	/**
+	 * Applies a set of inputs to every board and then advances them all by
+	 * one step, exactly like {@code GameEngine.step} does for a single game.
+	 * Boards that have topped out are left alone until they are reset.
+	 * @param iarrInputs The {@code GameEngine.iINPUT_} flags of each board,
+	 * or {@code null} for no input at all.
+	 * @return The number of pieces locked during this step.
+	 */
+	public int step(int[] iarrInputs) {
+		int iLockCount = 0;
+
+		/*
+		 * The step is done in phases, each one a single pass over the boards,
+		 * so every pass walks the same few arrays from start to end. The
+		 * input phase moves and rotates the pieces, and collects the boards
+		 * that hard drop.
+		 */
+		if(iarrInputs != null) {
+			for(int iBoard = 0; iBoard < iBoardCount; iBoard++) {
+				int iInputs = iarrInputs[iBoard];
+				if(iInputs == 0 || boolarrGameOver[iBoard]) {
+					continue;
+				}
+				applyInputs(iBoard, iInputs);
+				if((iInputs & GameEngine.iINPUT_HARD_DROP) != 0) {
+					dropPiece(iBoard);
+					iarrLocking[iLockCount++] = iBoard;
+				}
+			}
+		}
+
+		/*
+		 * The gravity phase moves every other piece down one row, or marks it
+		 * for locking if it has landed.
+		 */
+		for(int iBoard = 0; iBoard < iBoardCount; iBoard++) {
+			if(boolarrGameOver[iBoard] || iarrInputs != null
+                                && (iarrInputs[iBoard]
+                                & GameEngine.iINPUT_HARD_DROP) != 0) {
+				continue;
+			}
+			int iShape = getShape(iBoard);
+			if(fits(iBoard, iShape, iarrCol[iBoard], iarrRow[iBoard] + 1)) {
+				iarrRow[iBoard]++;
+			} else {
+				iarrLocking[iLockCount++] = iBoard;
+			}
+		}
+
+		/*
+		 * The lock phase only visits the boards that need it.
+		 */
+		for(int iIndex = 0; iIndex < iLockCount; iIndex++) {
+			lockPiece(iarrLocking[iIndex]);
+		}
+		return iLockCount;
+	}
+
+	/**
+	 * Applies the same inputs to every board and advances them all by one
+	 * step.
+	 * @param iInputs The {@code GameEngine.iINPUT_} flags.
+	 * @return The number of pieces locked during this step.
+	 */
+	public int stepAll(int iInputs) {
+		if(iInputs == 0) {
+			return step(null);
+		}
+		Arrays.fill(iarrSameInputs, iInputs);
+		return step(iarrSameInputs);
+	}
+
+	/**
+	 * Moves and rotates the piece of a board, in the same order as
+	 * {@code GameEngine.step}.
+	 * @param iBoard The board.
+	 * @param iInputs The {@code GameEngine.iINPUT_} flags.
+	 */
+	private void applyInputs(int iBoard, int iInputs) {
+		if((iInputs & GameEngine.iINPUT_LEFT) != 0 && fits(iBoard,
+                        getShape(iBoard), iarrCol[iBoard] - 1, iarrRow[iBoard])) {
+			iarrCol[iBoard]--;
+		}
+		if((iInputs & GameEngine.iINPUT_RIGHT) != 0 && fits(iBoard,
+                        getShape(iBoard), iarrCol[iBoard] + 1, iarrRow[iBoard])) {
+			iarrCol[iBoard]++;
+		}
+		if((iInputs & GameEngine.iINPUT_ROTATE_CW) != 0) {
+			rotatePiece(iBoard, (byarrRotation[iBoard] + 1) & 3, true);
+		}
+		if((iInputs & GameEngine.iINPUT_ROTATE_CCW) != 0) {
+			rotatePiece(iBoard, (byarrRotation[iBoard] + 3) & 3, false);
+		}
+	}
+
+	/**
+	 * Rotates the piece of a board, following the same rules as
+	 * {@code GameEngine}: the classic system pushes the piece back inside
+	 * the board first, then every kick is tried in order.
+	 * @param iBoard The board.
+	 * @param iNewRotation The rotation to turn the piece to.
+	 * @param bClockwise Whether the piece rotates clockwise.
+	 */
+	private void rotatePiece(int iBoard, int iNewRotation,
+                boolean bClockwise) {
+		int iType = byarrPiece[iBoard] & 0xFF;
+		int iShape = iType * PieceGeometry.iROTATION_COUNT + iNewRotation;
+		int iCol = iarrCol[iBoard];
+		int iRow = iarrRow[iBoard];
+		int iNewCol = iCol;
+		int iNewRow = iRow;
+
+		if(rtsRotation.isClamped()) {
+			if(iCol < -iarrShapeLeft[iShape]) {
+				iNewCol -= iCol - iarrShapeLeft[iShape];
+			} else if(iCol + iarrShapeRight[iShape] >= iCols) {
+				iNewCol -= iCol + iarrShapeRight[iShape] - iCols + 1;
+			}
+
+			if(iRow < -iarrShapeTop[iShape]) {
+				iNewRow -= iRow - iarrShapeTop[iShape];
+			} else if(iRow + iarrShapeBottom[iShape] >= iRows) {
+				iNewRow -= iRow + iarrShapeBottom[iShape] - iRows + 1;
+			}
+		}
+
+		int[] iarrKicks = rtsRotation.getKicks(pstPieces.getType(iType),
+                        byarrRotation[iBoard], bClockwise);
+		for(int iIndex = 0; iIndex < iarrKicks.length; iIndex += 2) {
+			int iKickCol = iNewCol + iarrKicks[iIndex];
+			int iKickRow = iNewRow + iarrKicks[iIndex + 1];
+			if(fits(iBoard, iShape, iKickCol, iKickRow)) {
+				byarrRotation[iBoard] = (byte)iNewRotation;
+				iarrCol[iBoard] = iKickCol;
+				iarrRow[iBoard] = iKickRow;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Moves the piece of a board straight down as far as it goes.
+	 * @param iBoard The board.
+	 */
+	private void dropPiece(int iBoard) {
+		int iShape = getShape(iBoard);
+		int iCol = iarrCol[iBoard];
+		int iRow = iarrRow[iBoard];
+		while(fits(iBoard, iShape, iCol, iRow + 1)) {
+			iRow++;
+		}
+		iarrRow[iBoard] = iRow;
+	}
+
+	/**
+	 * Adds the piece of a board to it's rows, clears any lines it completed
+	 * and spawns the next piece.
+	 * @param iBoard The board.
+	 */
+	private void lockPiece(int iBoard) {
+		int iShape = getShape(iBoard);
+		int iCol = iarrCol[iBoard];
+		int iRow = iarrRow[iBoard];
+		int iBase = iBoard * iRows;
+		int iMasks = iShape * iSHAPE_ROWS;
+		int iFirst = iRow + iarrShapeTop[iShape];
+		int iLast = iRow + iarrShapeBottom[iShape];
+
+		for(int iY = iFirst; iY <= iLast; iY++) {
+			larrRows[iBase + iY] |= shift(larrShapeMasks[iMasks + iY - iRow],
+                                iCol);
+		}
+
+		/*
+		 * Only the rows the piece touched can have been completed. Each full
+		 * row is removed by sliding every row above it down by one, starting
+		 * from the bottom so a row is checked again after it has moved.
+		 */
+		int iCleared = 0;
+		for(int iY = iLast; iY >= iFirst + iCleared; ) {
+			if(larrRows[iBase + iY] == lFullRow) {
+				System.arraycopy(larrRows, iBase, larrRows, iBase + 1, iY);
+				larrRows[iBase] = 0L;
+				iCleared++;
+			} else {
+				iY--;
+			}
+		}
+		if(iCleared > 0) {
+			iarrScore[iBoard] += 50 << iCleared;
+			iarrLines[iBoard] += iCleared;
+		}
+
+		spawnPiece(iBoard);
+	}
+
+	/**
+	 * Spawns the next piece of a board and deals a new one, flagging the
+	 * board as over if the piece doesn't fit.
+	 * @param iBoard The board.
+	 */
+	private void spawnPiece(int iBoard) {
+		int iType = byarrNext[iBoard] & 0xFF;
+		byarrPiece[iBoard] = (byte)iType;
+		byarrRotation[iBoard] = 0;
+		iarrCol[iBoard] = iarrSpawnCol[iType];
+		iarrRow[iBoard] = iarrSpawnRow[iType];
+		byarrNext[iBoard] = (byte)nextType(iBoard);
+
+		boolean bOver = !fits(iBoard, iType * PieceGeometry.iROTATION_COUNT,
+                        iarrCol[iBoard], iarrRow[iBoard]);
+		if(bOver != boolarrGameOver[iBoard]) {
+			iActiveCount += bOver ? -1 : 1;
+			boolarrGameOver[iBoard] = bOver;
+		}
+	}
+
+	/**
+	 * Determines whether or not a piece shape can be placed on a board at
+	 * the given coordinates.
+	 * @param iBoard The board.
+	 * @param iShape The shape, {@code type * 4 + rotation}.
+	 * @param iCol The column of the piece.
+	 * @param iRow The row of the piece.
+	 * @return Whether or not the position is valid.
+	 */
+	private boolean fits(int iBoard, int iShape, int iCol, int iRow) {
+		if(iCol < -iarrShapeLeft[iShape]
+                        || iCol + iarrShapeRight[iShape] >= iCols) {
+			return false;
+		}
+		int iTop = iarrShapeTop[iShape];
+		int iBottom = iarrShapeBottom[iShape];
+		if(iRow < -iTop || iRow + iBottom >= iRows) {
+			return false;
+		}
+
+		/*
+		 * OR the overlap of every row together and test once at the end, so
+		 * the loop has no early exit and no branch inside it.
+		 */
+		int iBase = iBoard * iRows + iRow;
+		int iMasks = iShape * iSHAPE_ROWS;
+		long lOverlap = 0L;
+		for(int iY = iTop; iY <= iBottom; iY++) {
+			lOverlap |= larrRows[iBase + iY]
+                                & shift(larrShapeMasks[iMasks + iY], iCol);
+		}
+		return lOverlap == 0L;
+	}
+
+	/**
+	 * Gets the shape of the current piece of a board.
+	 * @param iBoard The board.
+	 * @return The shape, {@code type * 4 + rotation}.
+	 */
+	private int getShape(int iBoard) {
+		return (byarrPiece[iBoard] & 0xFF) * PieceGeometry.iROTATION_COUNT
+                        + byarrRotation[iBoard];
+	}
+
+	/**
+	 * Deals a piece for a board, with the same SplitMix64 sequence as
+	 * {@code AbstractPieceGenerator}.
+	 * @param iBoard The board.
+	 * @return The type number of the piece.
+	 */
+	private int nextType(int iBoard) {
+		long lZ = (larrRandom[iBoard] += 0x9E3779B97F4A7C15L);
+		lZ = (lZ ^ (lZ >>> 30)) * 0xBF58476D1CE4E5B9L;
+		lZ = (lZ ^ (lZ >>> 27)) * 0x94D049BB133111EBL;
+		lZ = lZ ^ (lZ >>> 31);
+		return (int)(((lZ >>> 32) * pstPieces.getTypeCount()) >>> 32);
+	}
+
+	/**
+	 * Shifts a piece mask to a column, which may be negative when the
+	 * piece's empty columns hang off the left edge.
+	 * @param lMask The mask.
+	 * @param iX The column.
+	 * @return The shifted mask.
+	 */
+	private static long shift(long lMask, int iX) {
+		return (iX >= 0) ? lMask << iX : lMask >>> -iX;
+	}
+
+	/**
+	 * Gets the number of boards.
+	 * @return The number of boards.
+	 */
+	public int getBoardCount() {
+		return iBoardCount;
+	}
+
+	/**
+	 * Gets the number of boards that haven't topped out.
+	 * @return The number of active boards.
+	 */
+	public int getActiveCount() {
+		return iActiveCount;
+	}
+
+	/**
+	 * Gets the number of columns of every board.
+	 * @return The number of columns.
+	 */
+	public int getColumnCount() {
+		return iCols;
+	}
+
+	/**
+	 * Gets the number of rows of every board, hidden rows included.
+	 * @return The number of rows.
+	 */
+	public int getRowCount() {
+		return iRows;
+	}
+
+	/**
+	 * Gets the occupancy mask of a row of a board.
+	 * @param iBoard The board.
+	 * @param iY The row.
+	 * @return The mask, bit {@code n} set when column {@code n} is taken.
+	 */
+	public long getRowMask(int iBoard, int iY) {
+		return larrRows[iBoard * iRows + iY];
+	}
+
+	/**
+	 * Gets the current piece of a board.
+	 * @param iBoard The board.
+	 * @return The type of the piece.
+	 */
+	public TileType getPieceType(int iBoard) {
+		return pstPieces.getType(byarrPiece[iBoard] & 0xFF);
+	}
+
+	/**
+	 * Gets the next piece of a board.
+	 * @param iBoard The board.
+	 * @return The type of the piece.
+	 */
+	public TileType getNextPieceType(int iBoard) {
+		return pstPieces.getType(byarrNext[iBoard] & 0xFF);
+	}
+
+	/**
+	 * Gets the column of the current piece of a board.
+	 * @param iBoard The board.
+	 * @return The column.
+	 */
+	public int getPieceCol(int iBoard) {
+		return iarrCol[iBoard];
+	}
+
+	/**
+	 * Gets the row of the current piece of a board.
+	 * @param iBoard The board.
+	 * @return The row.
+	 */
+	public int getPieceRow(int iBoard) {
+		return iarrRow[iBoard];
+	}
+
+	/**
+	 * Gets the rotation of the current piece of a board.
+	 * @param iBoard The board.
+	 * @return The rotation.
+	 */
+	public int getPieceRotation(int iBoard) {
+		return byarrRotation[iBoard];
+	}
+
+	/**
+	 * Gets the score of a board.
+	 * @param iBoard The board.
+	 * @return The score.
+	 */
+	public int getScore(int iBoard) {
+		return iarrScore[iBoard];
+	}
+
+	/**
+	 * Gets the total number of lines cleared on a board.
+	 * @param iBoard The board.
+	 * @return The number of lines.
+	 */
+	public int getLines(int iBoard) {
+		return iarrLines[iBoard];
+	}
+
+	/**
+	 * Checks whether a board has topped out.
+	 * @param iBoard The board.
+	 * @return Whether or not the game on the board is over.
+	 */
+	public boolean isGameOver(int iBoard) {
+		return boolarrGameOver[iBoard];
+	}
+
+}
@@ -0,0 +1,1544 @@
+
+import java.util.Arrays;
+
+/**
+ * The {@code BitBoard} class is the board engine behind {@code BoardPanel}.
+ * Each row of the playfield is stored as a single occupancy bit mask (bit
+ * {@code n} is set when column {@code n} is occupied), with a parallel and
+ * compact color plane that only the renderer and the save format read.
+ * Collision, piece placement and full row detection are done with a couple
+ * of shifts and ANDs per piece row instead of a loop over every cell.
+ *
+ * Rows are never copied. Each row lives in a storage slot, and the board
+ * only keeps a ring of slot numbers, one per row from top to bottom, so
+ * removing rows is a matter of moving a few slot numbers around, and
+ * pushing a garbage row in from the bottom only turns the ring. Empty rows
+ * all share slot 0, which is never written to, and a row only gets a slot of
+ * it's own once a tile is placed on it. The slots grow with the stack rather
+ * than with the board, so tall and mostly empty boards (up to 64 columns by
+ * hundreds of thousands of rows) cost no more to play on than small ones.
+ *
+ * The board also keeps the features bots and analytics look at (aggregate
+ * height, holes, bumpiness, wells, row and column transitions) up to date as
+ * it changes, touching only the rows and columns that change, and can work
+ * out what they would be after placing a piece without placing it.
+ */
+public class BitBoard {
+
+	/**
+	 * The value stored in the color plane for an empty cell.
+	 */
+	public static final byte byEMPTY = 0;
+
+	/**
+	 * The value stored in the color plane for a garbage tile.
+	 */
+	public static final byte byGARBAGE = (byte)(PieceSet.iMAX_TYPE_COUNT + 1);
+
+	/**
+	 * The index of the aggregate height (the sum of the heights of every
+	 * column) in an array of features.
+	 */
+	public static final int iFEATURE_AGGREGATE_HEIGHT = 0;
+
+	/**
+	 * The index of the number of holes (empty cells below the top of their
+	 * column) in an array of features.
+	 */
+	public static final int iFEATURE_HOLES = 1;
+
+	/**
+	 * The index of the bumpiness (the sum of the height differences between
+	 * neighboring columns) in an array of features.
+	 */
+	public static final int iFEATURE_BUMPINESS = 2;
+
+	/**
+	 * The index of the well depth (the sum over every column of how far it
+	 * lies below both of it's neighbors, walls being infinitely high) in an
+	 * array of features.
+	 */
+	public static final int iFEATURE_WELLS = 3;
+
+	/**
+	 * The index of the row transitions (the number of times a row changes
+	 * between taken and empty, walls being taken) in an array of features.
+	 */
+	public static final int iFEATURE_ROW_TRANSITIONS = 4;
+
+	/**
+	 * The index of the column transitions (the number of times a column
+	 * changes between taken and empty from top to bottom, the floor being
+	 * taken) in an array of features.
+	 */
+	public static final int iFEATURE_COLUMN_TRANSITIONS = 5;
+
+	/**
+	 * The index of the number of lines a placement clears in an array of
+	 * features.
+	 */
+	public static final int iFEATURE_LINES = 6;
+
+	/**
+	 * The number of features in an array of features.
+	 */
+	public static final int iFEATURE_COUNT = 7;
+
+	/**
+	 * The storage slot shared by every empty row.
+	 */
+	private static final int iEMPTY_SLOT = 0;
+
+	/**
+	 * The number of storage slots allocated up front, besides the empty one.
+	 */
+	private static final int iINITIAL_SLOTS = 32;
+
+	/**
+	 * The pieces the board holds, cached so that looking up a color never
+	 * allocates.
+	 */
+	private final TileType[] tltarrTypes;
+
+	/**
+	 * The number of columns on the board.
+	 */
+	private final int iCols;
+
+	/**
+	 * The number of rows on the board.
+	 */
+	private final int iRows;
+
+	/**
+	 * The occupancy mask of every storage slot.
+	 */
+	private long[] larrSlotMasks;
+
+	/**
+	 * The content hash of every storage slot: the XOR of the keys of it's
+	 * occupied cells, which doesn't depend on the row the slot is in.
+	 */
+	private long[] larrSlotHashes;
+
+	/**
+	 * The key every row is weighted with, once per row from the top.
+	 */
+	private static final long lROW_KEY = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * The inverse of {@code lROW_KEY}, which moves every row up by one when
+	 * the hash is multiplied by it.
+	 */
+	private static final long lROW_KEY_INVERSE = inverse(lROW_KEY);
+
+	/**
+	 * The Zobrist hash of the whole board, before the final mix. Every row
+	 * contributes it's content hash times {@code lROW_KEY} raised to it's
+	 * row, so the hash only changes for the rows that change or move, and
+	 * moving every row up at once is a single multiplication.
+	 */
+	private long lHash;
+
+	/**
+	 * The key of the bottom row, {@code lROW_KEY} raised to the last row.
+	 */
+	private final long lBottomRowKey;
+
+	/**
+	 * The content hash of a row full of garbage, with no hole.
+	 */
+	private final long lGarbageRowHash;
+
+	/**
+	 * The number of occupied cells of every storage slot.
+	 */
+	private int[] iarrSlotFill;
+
+	/**
+	 * The color plane. Holds {@code type + 1} for every occupied cell and
+	 * {@code byEMPTY} for the rest, stored slot by slot.
+	 */
+	private byte[] byarrColors;
+
+	/**
+	 * The ring of storage slots. Row {@code y} of the board lives in slot
+	 * {@code iarrRowSlots[(iRowBase + y) % iRows]}, which is
+	 * {@code iEMPTY_SLOT} when the row is empty.
+	 */
+	private final int[] iarrRowSlots;
+
+	/**
+	 * The position of the top row in the ring of storage slots.
+	 */
+	private int iRowBase;
+
+	/**
+	 * The skyline of the board: the highest occupied row of every column,
+	 * or the row count if the column is empty. Kept up to date by every
+	 * method that changes the board.
+	 */
+	private final int[] iarrColumnTops;
+
+	/**
+	 * The number of storage slots that have ever been handed out. Slots past
+	 * this one have never been used.
+	 */
+	private int iSlotLimit;
+
+	/**
+	 * The slots below {@code iSlotLimit} that are free again, as a stack.
+	 */
+	private int[] iarrFreeSlots;
+
+	/**
+	 * The number of free slots on the stack.
+	 */
+	private int iFreeCount;
+
+	/**
+	 * The number of occupied cells on the board.
+	 */
+	private int iCellCount;
+
+	/**
+	 * The sum of the heights of every column.
+	 */
+	private int iAggregateHeight;
+
+	/**
+	 * The sum of the height differences between neighboring columns.
+	 */
+	private int iBumpiness;
+
+	/**
+	 * The sum of the well depths of every column.
+	 */
+	private int iWells;
+
+	/**
+	 * The row transitions of every row, empty ones included.
+	 */
+	private int iRowTransitions;
+
+	/**
+	 * The column transitions of every column.
+	 */
+	private int iColumnTransitions;
+
+	/**
+	 * The mask of a row with every column taken.
+	 */
+	private final long lFullRow;
+
+	/**
+	 * The new masks of the rows a piece covers, used by
+	 * {@code evaluatePlacement}.
+	 */
+	private final long[] larrPlacedRows;
+
+	/**
+	 * The skyline saved by {@code evaluatePlacement} while it tries out the
+	 * new one.
+	 */
+	private final int[] iarrSavedTops;
+
+	/**
+	 * The first row that has been written to since lines were last cleared,
+	 * or the row count if none has.
+	 */
+	private int iTouchedTop;
+
+	/**
+	 * The last row that has been written to since lines were last cleared,
+	 * or -1 if none has.
+	 */
+	private int iTouchedBottom;
+
+	/**
+	 * Creates a new, empty board for the built-in pieces.
+	 * @param iCols The number of columns, up to 64.
+	 * @param iRows The number of rows.
+	 */
+	public BitBoard(int iCols, int iRows) {
+		this(iCols, iRows, PieceSet.CLASSIC);
+	}
+
+	/**
+	 * Creates a new, empty board.
+	 * @param iCols The number of columns, up to 64.
+	 * @param iRows The number of rows.
+	 * @param pstPieces The set of pieces played on the board.
+	 */
+	public BitBoard(int iCols, int iRows, PieceSet pstPieces) {
+		if(iCols < 1 || iCols > Long.SIZE) {
+			throw new IllegalArgumentException("Invalid column count: "
+                                + iCols);
+		}
+		if(iRows < 1) {
+			throw new IllegalArgumentException("Invalid row count: "
+                                + iRows);
+		}
+		this.iCols = iCols;
+		this.iRows = iRows;
+		this.tltarrTypes = pstPieces.getTypes();
+
+		int iCapacity = Math.min(iRows, iINITIAL_SLOTS) + 1;
+		this.larrSlotMasks = new long[iCapacity];
+		this.larrSlotHashes = new long[iCapacity];
+		this.iarrSlotFill = new int[iCapacity];
+		this.byarrColors = new byte[iCapacity * iCols];
+		this.iarrFreeSlots = new int[iCapacity];
+		this.iarrRowSlots = new int[iRows];
+		this.iarrColumnTops = new int[iCols];
+		this.iarrSavedTops = new int[iCols];
+		this.larrPlacedRows = new long[Long.SIZE];
+		this.lFullRow = (iCols == Long.SIZE) ? -1L : (1L << iCols) - 1L;
+		this.iSlotLimit = iCapacity;
+		this.lBottomRowKey = rowKey(iRows - 1);
+		long lGarbage = 0L;
+		for(int iCol = 0; iCol < iCols; iCol++) {
+			lGarbage ^= cellKey(iCol, byGARBAGE);
+		}
+		this.lGarbageRowHash = lGarbage;
+		clear();
+	}
+
+	/**
+	 * Gets the number of columns on the board.
+	 * @return The number of columns.
+	 */
+	public int getColumnCount() {
+		return iCols;
+	}
+
+	/**
+	 * Gets the number of rows on the board.
+	 * @return The number of rows.
+	 */
+	public int getRowCount() {
+		return iRows;
+	}
+
+	/**
+	 * Resets the board and clears away any tiles.
+	 */
+	public void clear() {
+		/*
+		 * Only the slots that have been handed out and the rows from the top
+		 * of the stack down can hold anything, so those are the only ones
+		 * that need to be emptied.
+		 */
+		Arrays.fill(larrSlotMasks, 0, iSlotLimit, 0L);
+		Arrays.fill(larrSlotHashes, 0, iSlotLimit, 0L);
+		Arrays.fill(iarrSlotFill, 0, iSlotLimit, 0);
+		Arrays.fill(byarrColors, 0, iSlotLimit * iCols, byEMPTY);
+		for(int iRow = getStackTop(); iRow < iRows; iRow++) {
+			setSlot(iRow, iEMPTY_SLOT);
+		}
+		this.iSlotLimit = iEMPTY_SLOT + 1;
+		this.iFreeCount = 0;
+		this.lHash = 0L;
+		this.iRowBase = 0;
+		Arrays.fill(iarrColumnTops, iRows);
+		this.iTouchedTop = iRows;
+		this.iTouchedBottom = -1;
+
+		//An empty row has two transitions and an empty column has one.
+		this.iCellCount = 0;
+		this.iAggregateHeight = 0;
+		this.iBumpiness = 0;
+		this.iWells = 0;
+		this.iRowTransitions = iRows << 1;
+		this.iColumnTransitions = iCols;
+	}
+
+	/**
+	 * Gets the number of ints {@code save} writes into the fixed part of a
+	 * snapshot.
+	 * @return The number of ints.
+	 */
+	public int getStateSize() {
+		return iCols + 14;
+	}
+
+	/**
+	 * Gets the number of storage slots allocated so far.
+	 * @return The number of slots.
+	 */
+	int getSlotCapacity() {
+		return larrSlotMasks.length;
+	}
+
+	/**
+	 * Copies the whole board into a snapshot. Only the slots that have been
+	 * handed out and the rows from the top of the stack down are copied, so
+	 * the cost follows the size of the stack rather than of the board.
+	 * @param gsnSnapshot The snapshot.
+	 * @param iOffset Where to start writing in the snapshot's fixed ints.
+	 * @return The position in the fixed ints after the board.
+	 */
+	public int save(GameSnapshot gsnSnapshot, int iOffset) {
+		int iStackTop = getStackTop();
+		int iStackRows = iRows - iStackTop;
+
+		long[] larrMasks = gsnSnapshot.getMasks(iSlotLimit << 1);
+		System.arraycopy(larrSlotMasks, 0, larrMasks, 0, iSlotLimit);
+		System.arraycopy(larrSlotHashes, 0, larrMasks, iSlotLimit,
+                        iSlotLimit);
+		System.arraycopy(byarrColors, 0,
+                        gsnSnapshot.getColors(iSlotLimit * iCols), 0,
+                        iSlotLimit * iCols);
+
+		int[] iarrBoard = gsnSnapshot.getBoardInts(iSlotLimit + iFreeCount
+                        + iStackRows);
+		System.arraycopy(iarrSlotFill, 0, iarrBoard, 0, iSlotLimit);
+		System.arraycopy(iarrFreeSlots, 0, iarrBoard, iSlotLimit, iFreeCount);
+		int iNext = iSlotLimit + iFreeCount;
+		for(int iRow = iStackTop; iRow < iRows; iRow++) {
+			iarrBoard[iNext++] = slot(iRow);
+		}
+
+		int[] iarrInts = gsnSnapshot.getInts();
+		System.arraycopy(iarrColumnTops, 0, iarrInts, iOffset, iCols);
+		iOffset += iCols;
+		iarrInts[iOffset++] = iSlotLimit;
+		iarrInts[iOffset++] = iFreeCount;
+		iarrInts[iOffset++] = iStackTop;
+		iarrInts[iOffset++] = iRowBase;
+		iarrInts[iOffset++] = iTouchedTop;
+		iarrInts[iOffset++] = iTouchedBottom;
+		iarrInts[iOffset++] = iCellCount;
+		iarrInts[iOffset++] = iAggregateHeight;
+		iarrInts[iOffset++] = iBumpiness;
+		iarrInts[iOffset++] = iWells;
+		iarrInts[iOffset++] = iRowTransitions;
+		iarrInts[iOffset++] = iColumnTransitions;
+		GameSnapshot.putLong(iarrInts, iOffset, lHash);
+		return iOffset + 2;
+	}
+
+	/**
+	 * Replaces the whole board with one copied by {@code save}.
+	 * @param gsnSnapshot The snapshot.
+	 * @param iOffset Where to start reading in the snapshot's fixed ints.
+	 * @return The position in the fixed ints after the board.
+	 */
+	public int load(GameSnapshot gsnSnapshot, int iOffset) {
+		/*
+		 * Every row above the current stack is already empty, so emptying
+		 * the stack leaves the whole ring empty, whatever it's base.
+		 */
+		for(int iRow = getStackTop(); iRow < iRows; iRow++) {
+			setSlot(iRow, iEMPTY_SLOT);
+		}
+
+		int[] iarrInts = gsnSnapshot.getInts();
+		System.arraycopy(iarrInts, iOffset, iarrColumnTops, 0, iCols);
+		iOffset += iCols;
+		int iLimit = iarrInts[iOffset++];
+		this.iFreeCount = iarrInts[iOffset++];
+		int iStackTop = iarrInts[iOffset++];
+		this.iRowBase = iarrInts[iOffset++];
+		this.iTouchedTop = iarrInts[iOffset++];
+		this.iTouchedBottom = iarrInts[iOffset++];
+		this.iCellCount = iarrInts[iOffset++];
+		this.iAggregateHeight = iarrInts[iOffset++];
+		this.iBumpiness = iarrInts[iOffset++];
+		this.iWells = iarrInts[iOffset++];
+		this.iRowTransitions = iarrInts[iOffset++];
+		this.iColumnTransitions = iarrInts[iOffset++];
+		this.lHash = GameSnapshot.getLong(iarrInts, iOffset);
+
+		/*
+		 * Slots past the saved limit may have been used since, so they are
+		 * emptied before the limit is brought back down.
+		 */
+		ensureSlotCapacity(iLimit);
+		if(iSlotLimit > iLimit) {
+			Arrays.fill(larrSlotMasks, iLimit, iSlotLimit, 0L);
+			Arrays.fill(larrSlotHashes, iLimit, iSlotLimit, 0L);
+			Arrays.fill(iarrSlotFill, iLimit, iSlotLimit, 0);
+			Arrays.fill(byarrColors, iLimit * iCols, iSlotLimit * iCols,
+                                byEMPTY);
+		}
+		this.iSlotLimit = iLimit;
+
+		long[] larrMasks = gsnSnapshot.getMasks();
+		System.arraycopy(larrMasks, 0, larrSlotMasks, 0, iLimit);
+		System.arraycopy(larrMasks, iLimit, larrSlotHashes, 0, iLimit);
+		System.arraycopy(gsnSnapshot.getColors(), 0, byarrColors, 0,
+                        iLimit * iCols);
+
+		int[] iarrBoard = gsnSnapshot.getBoardInts();
+		System.arraycopy(iarrBoard, 0, iarrSlotFill, 0, iLimit);
+		System.arraycopy(iarrBoard, iLimit, iarrFreeSlots, 0, iFreeCount);
+		int iNext = iLimit + iFreeCount;
+		for(int iRow = iStackTop; iRow < iRows; iRow++) {
+			setSlot(iRow, iarrBoard[iNext++]);
+		}
+		return iOffset + 2;
+	}
+
+	/**
+	 * Gets the storage slot that holds a row.
+	 * @param iY The row.
+	 * @return The slot.
+	 */
+	private int slot(int iY) {
+		int iIndex = iRowBase + iY;
+		return iarrRowSlots[(iIndex >= iRows) ? iIndex - iRows : iIndex];
+	}
+
+	/**
+	 * Points a row at a storage slot.
+	 * @param iY The row.
+	 * @param iSlot The slot.
+	 */
+	private void setSlot(int iY, int iSlot) {
+		int iIndex = iRowBase + iY;
+		iarrRowSlots[(iIndex >= iRows) ? iIndex - iRows : iIndex] = iSlot;
+	}
+
+	/**
+	 * Gets the storage slot of a row that is about to be written to, giving
+	 * the row a slot of it's own if it was empty.
+	 * @param iY The row.
+	 * @return The slot.
+	 */
+	private int ownSlot(int iY) {
+		int iSlot = slot(iY);
+		if(iSlot != iEMPTY_SLOT) {
+			return iSlot;
+		}
+		if(iFreeCount > 0) {
+			iSlot = iarrFreeSlots[--iFreeCount];
+		} else {
+			ensureSlotCapacity(iSlotLimit + 1);
+			iSlot = iSlotLimit++;
+		}
+		setSlot(iY, iSlot);
+		return iSlot;
+	}
+
+	/**
+	 * Empties a row, handing it's slot back.
+	 * @param iY The row.
+	 * @param iSlot The slot of the row.
+	 */
+	private void releaseSlot(int iY, int iSlot) {
+		wipeSlot(iSlot);
+		iarrFreeSlots[iFreeCount++] = iSlot;
+		setSlot(iY, iEMPTY_SLOT);
+	}
+
+	/**
+	 * Makes room for more storage slots, doubling the storage when it runs
+	 * out. At most one slot per row plus the empty slot is ever needed.
+	 * @param iCapacity The number of slots needed.
+	 */
+	private void ensureSlotCapacity(int iCapacity) {
+		if(iCapacity <= larrSlotMasks.length) {
+			return;
+		}
+		int iLength = Math.max(iCapacity, Math.min(iRows + 1,
+                        larrSlotMasks.length << 1));
+		larrSlotMasks = Arrays.copyOf(larrSlotMasks, iLength);
+		larrSlotHashes = Arrays.copyOf(larrSlotHashes, iLength);
+		iarrSlotFill = Arrays.copyOf(iarrSlotFill, iLength);
+		byarrColors = Arrays.copyOf(byarrColors, iLength * iCols);
+		iarrFreeSlots = Arrays.copyOf(iarrFreeSlots, iLength);
+	}
+
+	/**
+	 * Determines whether or not a piece can be placed at the coordinates.
+	 * @param tltType The type of piece to use.
+	 * @param iX The x coordinate of the piece.
+	 * @param iY The y coordinate of the piece.
+	 * @param iRotation The rotation of the piece.
+	 * @return Whether or not the position is valid.
+	 */
+	public boolean isValidAndEmpty(TileType tltType, int iX, int iY,
+                int iRotation) {
+		PieceGeometry pgeGeometry = tltType.getGeometry();
+		int iDimension = pgeGeometry.getDimension();
+		int iTop = pgeGeometry.getTopInset(iRotation);
+		int iLast = iDimension - pgeGeometry.getBottomInset(iRotation);
+
+		//Ensure the piece is in a valid column.
+		if(iX < -pgeGeometry.getLeftInset(iRotation) || iX + iDimension
+                        - pgeGeometry.getRightInset(iRotation) >= iCols) {
+			return false;
+		}
+
+		//Ensure the piece is in a valid row.
+		if(iY < -iTop || iY + iLast >= iRows) {
+			return false;
+		}
+
+		/*
+		 * Shift each row of the piece into place and test it against the
+		 * matching board row. Only the rows that actually contain tiles
+		 * are checked.
+		 */
+		long[] larrMasks = pgeGeometry.getRowMasks(iRotation);
+		for(int iRow = iTop; iRow <= iLast; iRow++) {
+			if((larrSlotMasks[slot(iY + iRow)] & shift(larrMasks[iRow], iX))
+                                != 0L) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a piece to the game board. Note: Doesn't check for existing pieces,
+	 * and will overwrite them if they exist.
+	 * @param tltType The type of piece to place.
+	 * @param iX The x coordinate of the piece.
+	 * @param iY The y coordinate of the piece.
+	 * @param iRotation The rotation of the piece.
+	 */
+	public void addPiece(TileType tltType, int iX, int iY, int iRotation) {
+		PieceGeometry pgeGeometry = tltType.getGeometry();
+		long[] larrMasks = pgeGeometry.getRowMasks(iRotation);
+		byte byColor = (byte)(tltType.getType() + 1);
+		int iFirst = iY + pgeGeometry.getTopInset(iRotation);
+		int iLast = iY + pgeGeometry.getDimension()
+                        - pgeGeometry.getBottomInset(iRotation);
+		iColumnTransitions -= columnTransitions(iFirst - 1, iLast);
+		for(int iRow = 0; iRow < larrMasks.length; iRow++) {
+			long lMask = shift(larrMasks[iRow], iX);
+			if(lMask == 0L) {
+				continue;
+			}
+			int iY2 = iY + iRow;
+			int iSlot = ownSlot(iY2);
+			int iAdded = Long.bitCount(lMask & ~larrSlotMasks[iSlot]);
+			iarrSlotFill[iSlot] += iAdded;
+			iCellCount += iAdded;
+			iRowTransitions -= rowTransitions(larrSlotMasks[iSlot]);
+			larrSlotMasks[iSlot] |= lMask;
+			iRowTransitions += rowTransitions(larrSlotMasks[iSlot]);
+			touch(iY2);
+
+			//Paint the color plane and rehash the row one set bit at a time.
+			int iBase = iSlot * iCols;
+			long lRowHash = larrSlotHashes[iSlot];
+			lHash -= rowHash(lRowHash, iY2);
+			while(lMask != 0L) {
+				int iCol = Long.numberOfTrailingZeros(lMask);
+				byte byOld = byarrColors[iBase + iCol];
+				if(byOld != byEMPTY) {
+					lRowHash ^= cellKey(iCol, byOld);
+				}
+				lRowHash ^= cellKey(iCol, byColor);
+				byarrColors[iBase + iCol] = byColor;
+				lMask &= lMask - 1L;
+			}
+			larrSlotHashes[iSlot] = lRowHash;
+			lHash += rowHash(lRowHash, iY2);
+		}
+		iColumnTransitions += columnTransitions(iFirst - 1, iLast);
+
+		//Raise the skyline of every column the piece covers.
+		int[] iarrTops = pgeGeometry.getColumnTops(iRotation);
+		for(int iCol = 0; iCol < iarrTops.length; iCol++) {
+			if(iarrTops[iCol] >= 0 && iY + iarrTops[iCol]
+                                < iarrColumnTops[iX + iCol]) {
+				setColumnTop(iX + iCol, iY + iarrTops[iCol]);
+			}
+		}
+	}
+
+	/**
+	 * Marks a row as written to, so that {@code clearLines} looks at it.
+	 * @param iY The row.
+	 */
+	private void touch(int iY) {
+		if(iY < iTouchedTop) {
+			iTouchedTop = iY;
+		}
+		if(iY > iTouchedBottom) {
+			iTouchedBottom = iY;
+		}
+	}
+
+	/**
+	 * Finds the lowest row a piece can fall to from the given position,
+	 * which is where it would lock (and where the ghost is drawn). When the
+	 * piece is above the skyline in every column it covers this is a single
+	 * pass over the piece's columns; if it has been tucked under an overhang
+	 * we fall back to testing one row at a time.
+	 * @param tltType The type of piece.
+	 * @param iX The x coordinate of the piece.
+	 * @param iY The y coordinate of the piece.
+	 * @param iRotation The rotation of the piece.
+	 * @return The landing row.
+	 */
+	public int getLandingRow(TileType tltType, int iX, int iY,
+                int iRotation) {
+		int[] iarrBottoms = tltType.getGeometry().getColumnBottoms(iRotation);
+		int iLanding = Integer.MAX_VALUE;
+		for(int iCol = 0; iCol < iarrBottoms.length; iCol++) {
+			int iBottom = iarrBottoms[iCol];
+			if(iBottom < 0) {
+				continue;
+			}
+			int iTop = iarrColumnTops[iX + iCol];
+			if(iY + iBottom >= iTop) {
+				return scanLandingRow(tltType, iX, iY, iRotation);
+			}
+			iLanding = Math.min(iLanding, iTop - 1 - iBottom);
+		}
+		return iLanding;
+	}
+
+	/**
+	 * Finds the landing row by moving the piece down one row at a time.
+	 * @param tltType The type of piece.
+	 * @param iX The x coordinate of the piece.
+	 * @param iY The y coordinate of the piece.
+	 * @param iRotation The rotation of the piece.
+	 * @return The landing row.
+	 */
+	private int scanLandingRow(TileType tltType, int iX, int iY,
+                int iRotation) {
+		while(isValidAndEmpty(tltType, iX, iY + 1, iRotation)) {
+			iY++;
+		}
+		return iY;
+	}
+
+	/**
+	 * Gets the highest occupied row of a column.
+	 * @param iX The column.
+	 * @return The row, or the row count if the column is empty.
+	 */
+	public int getColumnTop(int iX) {
+		return iarrColumnTops[iX];
+	}
+
+	/**
+	 * Gets the highest occupied row of the whole board.
+	 * @return The row, or the row count if the board is empty.
+	 */
+	public int getStackTop() {
+		int iTop = iRows;
+		for(int iCol = 0; iCol < iCols; iCol++) {
+			iTop = Math.min(iTop, iarrColumnTops[iCol]);
+		}
+		return iTop;
+	}
+
+	/**
+	 * Removes every full row from the board, shifting the rows above it
+	 * down. Only the rows written to since the last call can have become
+	 * full, so those are the only ones that get looked at.
+	 * @return The number of lines that were cleared.
+	 */
+	public int clearLines() {
+		int iFirst = iTouchedTop;
+		int iLast = iTouchedBottom;
+		this.iTouchedTop = iRows;
+		this.iTouchedBottom = -1;
+
+		/*
+		 * Find the full rows among the touched ones using the fill counters.
+		 */
+		int iCleared = 0;
+		int iLowest = -1;
+		for(int iRow = iFirst; iRow <= iLast; iRow++) {
+			if(isFullRow(iRow, iFirst, iLast)) {
+				iCleared++;
+				iLowest = iRow;
+			}
+		}
+		if(iCleared == 0) {
+			return 0;
+		}
+
+		/*
+		 * A column whose highest tile sits on a full row loses that tile, so
+		 * it's new top can't be derived from the old one and has to be found
+		 * again once the rows are gone. Every other column simply drops by
+		 * the number of cleared rows, since full rows always lie below the
+		 * top of every column.
+		 */
+		long lRescan = 0L;
+		int iStackTop = iRows;
+		for(int iCol = 0; iCol < iCols; iCol++) {
+			int iTop = iarrColumnTops[iCol];
+			iStackTop = Math.min(iStackTop, iTop);
+			if(isFullRow(iTop, iFirst, iLast)) {
+				lRescan |= 1L << iCol;
+			}
+		}
+
+		/*
+		 * Compact the ring from the lowest full row up to the top of the
+		 * stack, moving the slot of every row that stays down past the ones
+		 * that go. Rows above the stack are empty and don't need to move.
+		 * The slots of the cleared rows are wiped and handed back, and the
+		 * rows left empty at the top share the empty slot.
+		 */
+		iColumnTransitions -= columnTransitions(iStackTop - 1, iLowest);
+		long lKey = rowKey(iStackTop);
+		for(int iRow = iStackTop; iRow <= iLowest; iRow++) {
+			lHash -= larrSlotHashes[slot(iRow)] * lKey;
+			lKey *= lROW_KEY;
+		}
+
+		int iWrite = iLowest;
+		for(int iRead = iLowest; iRead >= iStackTop; iRead--) {
+			int iSlot = slot(iRead);
+			if(isFullRow(iRead, iFirst, iLast)) {
+				wipeSlot(iSlot);
+				iarrFreeSlots[iFreeCount++] = iSlot;
+				continue;
+			}
+			setSlot(iWrite--, iSlot);
+		}
+		while(iWrite >= iStackTop) {
+			setSlot(iWrite--, iEMPTY_SLOT);
+		}
+
+		//Only the rows that moved contribute to the hash differently.
+		lKey = rowKey(iStackTop + iCleared);
+		for(int iRow = iStackTop + iCleared; iRow <= iLowest; iRow++) {
+			lHash += larrSlotHashes[slot(iRow)] * lKey;
+			lKey *= lROW_KEY;
+		}
+
+		/*
+		 * Full rows have no row transitions, and each one is replaced by an
+		 * empty row at the top, which has two.
+		 */
+		iColumnTransitions += columnTransitions(iStackTop - 1, iLowest);
+		iRowTransitions += iCleared << 1;
+		iCellCount -= iCleared * iCols;
+
+		for(int iCol = 0; iCol < iCols; iCol++) {
+			if((lRescan & (1L << iCol)) != 0L) {
+				iarrColumnTops[iCol] = findColumnTop(iCol,
+                                        iarrColumnTops[iCol]);
+			} else if(iarrColumnTops[iCol] < iRows) {
+				iarrColumnTops[iCol] += iCleared;
+			}
+		}
+		countColumnFeatures();
+		return iCleared;
+	}
+
+	/**
+	 * Pushes a garbage row in from the bottom of the board, moving every row
+	 * up by one. The garbage row is full except for a single hole. The ring
+	 * of slots is simply turned by one and the hash is moved up with a
+	 * single multiplication, so this costs the same however tall the stack
+	 * is.
+	 * @param iHole The column of the hole.
+	 * @return Whether or not any tiles were pushed off the top of the board.
+	 */
+	public boolean insertGarbage(int iHole) {
+		if(iHole < 0 || iHole >= iCols) {
+			throw new IllegalArgumentException("Invalid hole column: "
+                                + iHole);
+		}
+
+		/*
+		 * The top row leaves the board, which the skyline tells us about
+		 * without looking at the row. It's key is 1, so it's content hash is
+		 * exactly what it contributes.
+		 */
+		boolean bOverflow = (getStackTop() == 0);
+		iColumnTransitions -= columnTransitions(0);
+		if(iRows > 1) {
+			iColumnTransitions -= columnTransitions(iRows - 1);
+		}
+		iRowTransitions -= rowTransitions(larrSlotMasks[slot(0)]);
+		if(bOverflow) {
+			int iSlot = slot(0);
+			lHash -= larrSlotHashes[iSlot];
+			iCellCount -= iarrSlotFill[iSlot];
+			releaseSlot(0, iSlot);
+		}
+
+		/*
+		 * Turning the ring by one moves every row up and brings the top row,
+		 * now empty, around to the bottom.
+		 */
+		this.iRowBase = (iRowBase + 1 == iRows) ? 0 : iRowBase + 1;
+		lHash *= lROW_KEY_INVERSE;
+
+		int iBottom = iRows - 1;
+		if(iCols > 1) {
+			int iSlot = ownSlot(iBottom);
+			int iBase = iSlot * iCols;
+			larrSlotMasks[iSlot] = lFullRow & ~(1L << iHole);
+			iarrSlotFill[iSlot] = iCols - 1;
+			Arrays.fill(byarrColors, iBase, iBase + iCols, byGARBAGE);
+			byarrColors[iBase + iHole] = byEMPTY;
+			larrSlotHashes[iSlot] = lGarbageRowHash
+                                ^ cellKey(iHole, byGARBAGE);
+			lHash += larrSlotHashes[iSlot] * lBottomRowKey;
+			iCellCount += iCols - 1;
+		}
+		iRowTransitions += rowTransitions(larrSlotMasks[slot(iBottom)]);
+		if(iRows > 1) {
+			iColumnTransitions += columnTransitions(iBottom - 1);
+		}
+		iColumnTransitions += columnTransitions(iBottom);
+
+		/*
+		 * Every column moves up by one and every column but the hole now
+		 * reaches the bottom row at least. Only a column that lost it's top
+		 * tile over the edge has to be looked at again.
+		 */
+		for(int iCol = 0; iCol < iCols; iCol++) {
+			int iTop = iarrColumnTops[iCol];
+			if(iTop == 0) {
+				iarrColumnTops[iCol] = findColumnTop(iCol, 0);
+			} else if(iTop < iRows) {
+				iarrColumnTops[iCol] = iTop - 1;
+			} else if(iCol != iHole && iCols > 1) {
+				iarrColumnTops[iCol] = iBottom;
+			}
+		}
+		countColumnFeatures();
+
+		//The garbage row has a hole, so only the touched rows move up.
+		if(iTouchedBottom >= 0) {
+			this.iTouchedTop = Math.max(iTouchedTop - 1, 0);
+			this.iTouchedBottom--;
+		}
+		return bOverflow;
+	}
+
+	/**
+	 * Checks whether a row that lies within the touched range is full.
+	 * @param iY The row.
+	 * @param iFirst The first touched row.
+	 * @param iLast The last touched row.
+	 * @return Whether or not the row is touched and full.
+	 */
+	private boolean isFullRow(int iY, int iFirst, int iLast) {
+		return iY >= iFirst && iY <= iLast && iarrSlotFill[slot(iY)] == iCols;
+	}
+
+	/**
+	 * Empties a storage slot.
+	 * @param iSlot The slot.
+	 */
+	private void wipeSlot(int iSlot) {
+		larrSlotMasks[iSlot] = 0L;
+		larrSlotHashes[iSlot] = 0L;
+		iarrSlotFill[iSlot] = 0;
+		Arrays.fill(byarrColors, iSlot * iCols, (iSlot + 1) * iCols, byEMPTY);
+	}
+
+	/**
+	 * Checks to see if the tile is already occupied.
+	 * @param iX The x coordinate to check.
+	 * @param iY The y coordinate to check.
+	 * @return Whether or not the tile is occupied.
+	 */
+	public boolean isOccupied(int iX, int iY) {
+		return (larrSlotMasks[slot(iY)] & (1L << iX)) != 0L;
+	}
+
+	/**
+	 * Gets a tile by it's column and row.
+	 * @param iX The column.
+	 * @param iY The row.
+	 * @return The tile, or null if the cell is empty.
+	 */
+	public TileType getTile(int iX, int iY) {
+		byte byColor = byarrColors[slot(iY) * iCols + iX];
+		if(byColor == byGARBAGE) {
+			return TileType.TypeGarbage;
+		}
+		return (byColor == byEMPTY) ? null : tltarrTypes[(byColor & 0xFF) - 1];
+	}
+
+	/**
+	 * Sets a tile located at the desired column and row.
+	 * @param iX The column.
+	 * @param iY The row.
+	 * @param tltType The value to set to the tile to, or null to empty it.
+	 */
+	public void setTile(int iX, int iY, TileType tltType) {
+		int iSlot = slot(iY);
+		long lBit = 1L << iX;
+		boolean bWasSet = (larrSlotMasks[iSlot] & lBit) != 0L;
+		if(tltType == null && !bWasSet) {
+			return;
+		} else if(tltType != null) {
+			iSlot = ownSlot(iY);
+		}
+		iRowTransitions -= rowTransitions(larrSlotMasks[iSlot]);
+		iColumnTransitions -= columnTransitions(iY - 1, iY);
+
+		long lRowHash = larrSlotHashes[iSlot];
+		lHash -= rowHash(lRowHash, iY);
+		if(bWasSet) {
+			lRowHash ^= cellKey(iX, byarrColors[iSlot * iCols + iX]);
+		}
+		if(tltType != null) {
+			lRowHash ^= cellKey(iX, (byte)(tltType.getType() + 1));
+		}
+		larrSlotHashes[iSlot] = lRowHash;
+		lHash += rowHash(lRowHash, iY);
+
+		if(tltType == null) {
+			larrSlotMasks[iSlot] &= ~lBit;
+			byarrColors[iSlot * iCols + iX] = byEMPTY;
+			iCellCount--;
+			if(--iarrSlotFill[iSlot] == 0) {
+				releaseSlot(iY, iSlot);
+			}
+			if(iY == iarrColumnTops[iX]) {
+				setColumnTop(iX, findColumnTop(iX, iY));
+			}
+		} else {
+			larrSlotMasks[iSlot] |= lBit;
+			byarrColors[iSlot * iCols + iX] = (byte)(tltType.getType() + 1);
+			if(!bWasSet) {
+				iarrSlotFill[iSlot]++;
+				iCellCount++;
+			}
+			setColumnTop(iX, Math.min(iarrColumnTops[iX], iY));
+			touch(iY);
+		}
+		iRowTransitions += rowTransitions(larrSlotMasks[slot(iY)]);
+		iColumnTransitions += columnTransitions(iY - 1, iY);
+	}
+
+	/**
+	 * Finds the highest occupied row of a column, starting at a row that is
+	 * known to have nothing above it.
+	 * @param iX The column.
+	 * @param iFrom The first row to look at.
+	 * @return The row, or the row count if the column is empty.
+	 */
+	private int findColumnTop(int iX, int iFrom) {
+		long lBit = 1L << iX;
+		for(int iRow = iFrom; iRow < iRows; iRow++) {
+			if((larrSlotMasks[slot(iRow)] & lBit) != 0L) {
+				return iRow;
+			}
+		}
+		return iRows;
+	}
+
+	/**
+	 * Moves the top of a column, keeping the features that depend on the
+	 * heights of the columns up to date. Only the column and it's two
+	 * neighbors are looked at.
+	 * @param iX The column.
+	 * @param iTop The new top of the column.
+	 */
+	private void setColumnTop(int iX, int iTop) {
+		int iOldTop = iarrColumnTops[iX];
+		if(iTop == iOldTop) {
+			return;
+		}
+		iBumpiness -= bumpinessAround(iX);
+		iWells -= wellsAround(iX);
+		iarrColumnTops[iX] = iTop;
+		iAggregateHeight += iOldTop - iTop;
+		iBumpiness += bumpinessAround(iX);
+		iWells += wellsAround(iX);
+	}
+
+	/**
+	 * Works out the features that depend on the heights of the columns from
+	 * scratch, in a single pass over the skyline. Used when every column
+	 * moves at once.
+	 */
+	private void countColumnFeatures() {
+		int iHeight = 0;
+		int iBumps = 0;
+		int iDepth = 0;
+		for(int iCol = 0; iCol < iCols; iCol++) {
+			iHeight += getHeight(iCol);
+			if(iCol > 0) {
+				iBumps += Math.abs(getHeight(iCol) - getHeight(iCol - 1));
+			}
+			iDepth += getWellDepth(iCol);
+		}
+		this.iAggregateHeight = iHeight;
+		this.iBumpiness = iBumps;
+		this.iWells = iDepth;
+	}
+
+	/**
+	 * Gets the height of a column.
+	 * @param iX The column.
+	 * @return The number of rows from the top of the column to the floor.
+	 */
+	private int getHeight(int iX) {
+		return iRows - iarrColumnTops[iX];
+	}
+
+	/**
+	 * Gets the height differences between a column and it's neighbors.
+	 * @param iX The column.
+	 * @return The bumpiness the column takes part in.
+	 */
+	private int bumpinessAround(int iX) {
+		int iHeight = getHeight(iX);
+		int iSum = 0;
+		if(iX > 0) {
+			iSum += Math.abs(iHeight - getHeight(iX - 1));
+		}
+		if(iX + 1 < iCols) {
+			iSum += Math.abs(iHeight - getHeight(iX + 1));
+		}
+		return iSum;
+	}
+
+	/**
+	 * Gets the well depths of a column and it's neighbors, which are the
+	 * only ones that depend on the height of the column.
+	 * @param iX The column.
+	 * @return The sum of the well depths.
+	 */
+	private int wellsAround(int iX) {
+		int iSum = 0;
+		for(int iCol = Math.max(iX - 1, 0); iCol <= iX + 1 && iCol < iCols;
+                        iCol++) {
+			iSum += getWellDepth(iCol);
+		}
+		return iSum;
+	}
+
+	/**
+	 * Gets how far a column lies below both of it's neighbors. Walls are
+	 * infinitely high, so the edge columns only have one neighbor.
+	 * @param iX The column.
+	 * @return The depth of the well, or 0 if the column isn't one.
+	 */
+	private int getWellDepth(int iX) {
+		int iEdge = Math.min((iX > 0) ? getHeight(iX - 1) : Integer.MAX_VALUE,
+                        (iX + 1 < iCols) ? getHeight(iX + 1) : Integer.MAX_VALUE);
+		if(iEdge == Integer.MAX_VALUE) {
+			return 0;
+		}
+		return Math.max(iEdge - getHeight(iX), 0);
+	}
+
+	/**
+	 * Gets the row transitions of a row: the number of times it changes
+	 * between taken and empty from wall to wall, the walls being taken. An
+	 * empty row has two and a full row has none.
+	 * @param lMask The mask of the row.
+	 * @return The number of transitions.
+	 */
+	private int rowTransitions(long lMask) {
+		return Long.bitCount((lMask ^ (lMask >>> 1)) & (lFullRow >>> 1))
+                        + (int)(~lMask & 1L)
+                        + (int)((~lMask >>> (iCols - 1)) & 1L);
+	}
+
+	/**
+	 * Gets the column transitions between a row and the one below it, the
+	 * floor being a full row.
+	 * @param iY The row.
+	 * @return The number of columns that change between the two rows.
+	 */
+	private int columnTransitions(int iY) {
+		long lBelow = (iY + 1 < iRows) ? larrSlotMasks[slot(iY + 1)]
+                        : lFullRow;
+		return Long.bitCount(larrSlotMasks[slot(iY)] ^ lBelow);
+	}
+
+	/**
+	 * Gets the column transitions between every row of a range and the row
+	 * below it.
+	 * @param iFirst The first row, which may lie above the board.
+	 * @param iLast The last row.
+	 * @return The number of transitions.
+	 */
+	private int columnTransitions(int iFirst, int iLast) {
+		int iSum = 0;
+		for(int iRow = Math.max(iFirst, 0); iRow <= iLast; iRow++) {
+			iSum += columnTransitions(iRow);
+		}
+		return iSum;
+	}
+
+	/**
+	 * Gets the aggregate height: the sum of the heights of every column.
+	 * @return The aggregate height.
+	 */
+	public int getAggregateHeight() {
+		return iAggregateHeight;
+	}
+
+	/**
+	 * Gets the number of holes: empty cells that have a tile somewhere
+	 * above them in their column.
+	 * @return The number of holes.
+	 */
+	public int getHoles() {
+		return iAggregateHeight - iCellCount;
+	}
+
+	/**
+	 * Gets the bumpiness: the sum of the height differences between
+	 * neighboring columns.
+	 * @return The bumpiness.
+	 */
+	public int getBumpiness() {
+		return iBumpiness;
+	}
+
+	/**
+	 * Gets the well depth: the sum over every column of how far it lies
+	 * below both of it's neighbors.
+	 * @return The well depth.
+	 */
+	public int getWells() {
+		return iWells;
+	}
+
+	/**
+	 * Gets the row transitions of the whole board.
+	 * @return The number of row transitions.
+	 */
+	public int getRowTransitions() {
+		return iRowTransitions;
+	}
+
+	/**
+	 * Gets the column transitions of the whole board.
+	 * @return The number of column transitions.
+	 */
+	public int getColumnTransitions() {
+		return iColumnTransitions;
+	}
+
+	/**
+	 * Gets the number of occupied cells on the board.
+	 * @return The number of cells.
+	 */
+	public int getCellCount() {
+		return iCellCount;
+	}
+
+	/**
+	 * Copies every feature of the board into an array.
+	 * @param iarrFeatures The array, indexed by the {@code iFEATURE_}
+	 * constants. The number of lines is set to 0.
+	 */
+	public void getFeatures(int[] iarrFeatures) {
+		iarrFeatures[iFEATURE_AGGREGATE_HEIGHT] = iAggregateHeight;
+		iarrFeatures[iFEATURE_HOLES] = getHoles();
+		iarrFeatures[iFEATURE_BUMPINESS] = iBumpiness;
+		iarrFeatures[iFEATURE_WELLS] = iWells;
+		iarrFeatures[iFEATURE_ROW_TRANSITIONS] = iRowTransitions;
+		iarrFeatures[iFEATURE_COLUMN_TRANSITIONS] = iColumnTransitions;
+		iarrFeatures[iFEATURE_LINES] = 0;
+	}
+
+	/**
+	 * Works out the features the board would have after placing a piece
+	 * and clearing the lines it completes, without changing the board. Only
+	 * the rows and columns the piece covers are looked at, unless lines are
+	 * cleared, in which case every column is moved as well.
+	 * @param tltType The type of piece.
+	 * @param iX The x coordinate of the piece.
+	 * @param iY The y coordinate of the piece, which must be a valid
+	 * position.
+	 * @param iRotation The rotation of the piece.
+	 * @param iarrFeatures The array to write the features into, indexed by
+	 * the {@code iFEATURE_} constants.
+	 */
+	public void evaluatePlacement(TileType tltType, int iX, int iY,
+                int iRotation, int[] iarrFeatures) {
+		PieceGeometry pgeGeometry = tltType.getGeometry();
+		long[] larrMasks = pgeGeometry.getRowMasks(iRotation);
+		int iTopInset = pgeGeometry.getTopInset(iRotation);
+		int iFirst = iY + iTopInset;
+		int iLast = iY + pgeGeometry.getDimension()
+                        - pgeGeometry.getBottomInset(iRotation);
+
+		/*
+		 * Work out the new masks of the rows the piece covers, and what they
+		 * change in the cell count and the row transitions. A cleared row
+		 * is replaced by an empty one at the top.
+		 */
+		int iCells = iCellCount;
+		int iRowSum = iRowTransitions;
+		int iCleared = 0;
+		long lClearedRows = 0L;
+		for(int iRow = iFirst; iRow <= iLast; iRow++) {
+			long lOld = larrSlotMasks[slot(iRow)];
+			long lNew = lOld | shift(larrMasks[iRow - iY], iX);
+			larrPlacedRows[iRow - iFirst] = lNew;
+			iCells += Long.bitCount(lNew & ~lOld);
+			iRowSum -= rowTransitions(lOld);
+			if(lNew == lFullRow) {
+				iCleared++;
+				lClearedRows |= 1L << (iRow - iFirst);
+				iRowSum += 2;
+			} else {
+				iRowSum += rowTransitions(lNew);
+			}
+		}
+		iCells -= iCleared * iCols;
+
+		/*
+		 * The column transitions only change between the row above the piece
+		 * and the row below it, where the rows that are left get joined
+		 * together. When lines are cleared, the first row that is left also
+		 * ends up below the empty rows added at the top.
+		 */
+		int iWindow = Math.max(iFirst - 1, 0);
+		int iColSum = iColumnTransitions - columnTransitions(iWindow, iLast);
+		long lAbove = 0L;
+		boolean bHasAbove = false;
+		long lTopRow = 0L;
+		boolean bHasTop = false;
+		if(iWindow < iFirst) {
+			lAbove = larrSlotMasks[slot(iWindow)];
+			bHasAbove = true;
+		}
+		for(int iRow = iFirst; iRow <= iLast; iRow++) {
+			if((lClearedRows & (1L << (iRow - iFirst))) != 0L) {
+				continue;
+			}
+			long lMask = larrPlacedRows[iRow - iFirst];
+			if(bHasAbove) {
+				iColSum += Long.bitCount(lAbove ^ lMask);
+			} else if(!bHasTop) {
+				lTopRow = lMask;
+				bHasTop = true;
+			}
+			lAbove = lMask;
+			bHasAbove = true;
+		}
+		long lBelow = (iLast + 1 < iRows) ? larrSlotMasks[slot(iLast + 1)]
+                        : lFullRow;
+		if(bHasAbove) {
+			iColSum += Long.bitCount(lAbove ^ lBelow);
+		}
+		if(iCleared > 0) {
+			if(iWindow > 0 || iWindow < iFirst) {
+				lTopRow = larrSlotMasks[slot(0)];
+			} else if(!bHasTop) {
+				lTopRow = lBelow;
+			}
+			iColSum += Long.bitCount(lTopRow);
+		}
+
+		/*
+		 * Try the new skyline out on the board, read the features that
+		 * depend on it and put the old one back. Only the piece's columns
+		 * move unless lines are cleared, in which case every column is
+		 * counted again.
+		 */
+		int[] iarrTops = pgeGeometry.getColumnTops(iRotation);
+		if(iCleared == 0) {
+			for(int iCol = 0; iCol < iarrTops.length; iCol++) {
+				if(iarrTops[iCol] >= 0) {
+					iarrSavedTops[iCol] = iarrColumnTops[iX + iCol];
+					setColumnTop(iX + iCol, Math.min(iarrSavedTops[iCol],
+                                                iY + iarrTops[iCol]));
+				}
+			}
+		} else {
+			System.arraycopy(iarrColumnTops, 0, iarrSavedTops, 0, iCols);
+			for(int iCol = 0; iCol < iCols; iCol++) {
+				int iTop = iarrColumnTops[iCol];
+				int iPiece = iCol - iX;
+				if(iPiece >= 0 && iPiece < iarrTops.length
+                                        && iarrTops[iPiece] >= 0) {
+					iTop = Math.min(iTop, iY + iarrTops[iPiece]);
+				}
+				iarrColumnTops[iCol] = findPlacedTop(iCol, iTop, iFirst,
+                                        iLast, lClearedRows);
+			}
+		}
+		int iOldHeight = iAggregateHeight;
+		int iOldBumpiness = iBumpiness;
+		int iOldWells = iWells;
+		if(iCleared > 0) {
+			countColumnFeatures();
+		}
+
+		iarrFeatures[iFEATURE_AGGREGATE_HEIGHT] = iAggregateHeight;
+		iarrFeatures[iFEATURE_HOLES] = iAggregateHeight - iCells;
+		iarrFeatures[iFEATURE_BUMPINESS] = iBumpiness;
+		iarrFeatures[iFEATURE_WELLS] = iWells;
+		iarrFeatures[iFEATURE_ROW_TRANSITIONS] = iRowSum;
+		iarrFeatures[iFEATURE_COLUMN_TRANSITIONS] = iColSum;
+		iarrFeatures[iFEATURE_LINES] = iCleared;
+
+		if(iCleared == 0) {
+			for(int iCol = 0; iCol < iarrTops.length; iCol++) {
+				if(iarrTops[iCol] >= 0) {
+					setColumnTop(iX + iCol, iarrSavedTops[iCol]);
+				}
+			}
+		} else {
+			System.arraycopy(iarrSavedTops, 0, iarrColumnTops, 0, iCols);
+			this.iAggregateHeight = iOldHeight;
+			this.iBumpiness = iOldBumpiness;
+			this.iWells = iOldWells;
+		}
+	}
+
+	/**
+	 * Finds where the top of a column ends up once the rows a piece
+	 * completed are cleared.
+	 * @param iX The column.
+	 * @param iTop The top of the column with the piece placed.
+	 * @param iFirst The first row the piece covers.
+	 * @param iLast The last row the piece covers.
+	 * @param lClearedRows The rows that are cleared, one bit per row from
+	 * {@code iFirst}.
+	 * @return The new top of the column.
+	 */
+	private int findPlacedTop(int iX, int iTop, int iFirst, int iLast,
+                long lClearedRows) {
+		/*
+		 * Every full row lies below the top of every column, so a top that
+		 * isn't cleared simply drops by the number of cleared rows. One that
+		 * is cleared has to be looked for again, below it.
+		 */
+		int iCleared = Long.bitCount(lClearedRows);
+		if(iTop >= iRows) {
+			return iRows;
+		}
+		if(iTop < iFirst || iTop > iLast
+                        || (lClearedRows & (1L << (iTop - iFirst))) == 0L) {
+			return iTop + iCleared;
+		}
+		long lBit = 1L << iX;
+		for(int iRow = iTop + 1; iRow < iRows; iRow++) {
+			long lMask;
+			if(iRow <= iLast) {
+				if((lClearedRows & (1L << (iRow - iFirst))) != 0L) {
+					continue;
+				}
+				lMask = larrPlacedRows[iRow - iFirst];
+			} else {
+				lMask = larrSlotMasks[slot(iRow)];
+			}
+			if((lMask & lBit) != 0L) {
+				//Only the cleared rows below this one move it down.
+				long lBelow = (iRow < iLast) ? lClearedRows
+                                        >>> (iRow - iFirst + 1) : 0L;
+				return iRow + Long.bitCount(lBelow);
+			}
+		}
+		return iRows;
+	}
+
+	/**
+	 * Gets the occupancy mask of a row.
+	 * @param iY The row.
+	 * @return The mask.
+	 */
+	public long getRowMask(int iY) {
+		return larrSlotMasks[slot(iY)];
+	}
+
+	/**
+	 * Gets the number of occupied cells in a row.
+	 * @param iY The row.
+	 * @return The number of occupied cells.
+	 */
+	public int getRowFill(int iY) {
+		return iarrSlotFill[slot(iY)];
+	}
+
+	/**
+	 * Gets the Zobrist hash of the board. Two boards with the same tiles in
+	 * the same places have the same hash, no matter how they got there.
+	 * @return The hash.
+	 */
+	public long getHash() {
+		return mix(lHash);
+	}
+
+	/**
+	 * Scrambles a value into a well distributed 64-bit key (the SplitMix64
+	 * finalizer). All of the hash keys are derived with it, so there are no
+	 * key tables to build or keep in cache.
+	 * @param lValue The value.
+	 * @return The key.
+	 */
+	public static long mix(long lValue) {
+		lValue = (lValue ^ (lValue >>> 30)) * 0xBF58476D1CE4E5B9L;
+		lValue = (lValue ^ (lValue >>> 27)) * 0x94D049BB133111EBL;
+		return lValue ^ (lValue >>> 31);
+	}
+
+	/**
+	 * Gets the key of a colored cell within a row.
+	 * @param iX The column.
+	 * @param byColor The value in the color plane.
+	 * @return The key.
+	 */
+	private static long cellKey(int iX, byte byColor) {
+		return mix((((long)(byColor & 0xFF) << 6) | iX)
+                        * 0x9E3779B97F4A7C15L);
+	}
+
+	/**
+	 * Gets what a row contributes to the board's hash. Empty rows contribute
+	 * nothing, so they never need to be accounted for.
+	 * @param lRowHash The content hash of the row.
+	 * @param iY The row.
+	 * @return The contribution.
+	 */
+	private static long rowHash(long lRowHash, int iY) {
+		return (lRowHash == 0L) ? 0L : lRowHash * rowKey(iY);
+	}
+
+	/**
+	 * Raises {@code lROW_KEY} to a row, by repeated squaring.
+	 * @param iY The row.
+	 * @return The key of the row.
+	 */
+	private static long rowKey(int iY) {
+		long lKey = 1L;
+		long lPower = lROW_KEY;
+		for(int iExponent = iY; iExponent != 0; iExponent >>>= 1) {
+			if((iExponent & 1) != 0) {
+				lKey *= lPower;
+			}
+			lPower *= lPower;
+		}
+		return lKey;
+	}
+
+	/**
+	 * Finds the multiplicative inverse of an odd number modulo 2^64, with
+	 * Newton's iteration (every step doubles the number of correct bits).
+	 * @param lValue The odd number.
+	 * @return The inverse.
+	 */
+	private static long inverse(long lValue) {
+		long lInverse = lValue;
+		for(int iStep = 0; iStep < 5; iStep++) {
+			lInverse *= 2L - lValue * lInverse;
+		}
+		return lInverse;
+	}
+
+	/**
+	 * Shifts a piece row mask to the given column. Columns may be negative
+	 * as long as the bits shifted out are empty, which the bounds check in
+	 * {@code isValidAndEmpty} guarantees.
+	 * @param lMask The mask, relative to the piece's bounding box.
+	 * @param iX The column of the bounding box.
+	 * @return The mask relative to the board.
+	 */
+	private static long shift(long lMask, int iX) {
+		return (iX >= 0) ? lMask << iX : lMask >>> -iX;
+	}
+
+}
@@ -4,8 +4,8 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Image;
-import java.awt.Toolkit;
-import java.net.URL;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 
 import javax.swing.JPanel;
 
@@ -40,26 +40,17 @@ public class BoardPanel extends JPanel {
      */
     private static final int iBORDER_WIDTH = 5;
 
-    /**
-     * The number of columns on the board.
-     */
-    public static final int iCOL_COUNT = 10;
-
-    /**
-     * The number of visible rows on the board.
-     */
-    private static final int iVISIBLE_ROW_COUNT = 20;
-
     /**
      * The number of rows that are hidden from view.
      */
-    private static final int iHIDDEN_ROW_COUNT = 2;
+    private static final int iHIDDEN_ROW_COUNT
+            = GameEngine.iHIDDEN_ROW_COUNT;
 
     /**
-     * The total number of rows that the board contains.
+     * The most rows the panel shows at once. Taller boards are shown through
+     * a window that follows the falling piece.
      */
-    public static final int iROW_COUNT = iVISIBLE_ROW_COUNT
-            + iHIDDEN_ROW_COUNT;
+    private static final int iMAX_VIEW_ROWS = 40;
 
     /**
      * The number of pixels that a tile takes up.
@@ -72,25 +63,15 @@ public class BoardPanel extends JPanel {
     public static final int iSHADE_WIDTH = 4;
 
     /**
-     * The central x coordinate on the game board.
-     */
-    private static final int iCENTER_X = iCOL_COUNT * iTILE_SIZE / 2;
-
-    /**
-     * The central y coordinate on the game board.
+     * The total width of the panel for a board of the standard size.
      */
-    private static final int iCENTER_Y = iVISIBLE_ROW_COUNT * iTILE_SIZE / 2;
-
-    /**
-     * The total width of the panel.
-     */
-    public static final int iPANEL_WIDTH = iCOL_COUNT * iTILE_SIZE
+    public static final int iPANEL_WIDTH = GameEngine.iCOL_COUNT * iTILE_SIZE
             + iBORDER_WIDTH * 2;
 
     /**
-     * The total height of the panel.
+     * The total height of the panel for a board of the standard size.
      */
-    public static final int iPANEL_HEIGHT = iVISIBLE_ROW_COUNT
+    public static final int iPANEL_HEIGHT = GameEngine.iVISIBLE_ROW_COUNT
             * iTILE_SIZE + iBORDER_WIDTH * 2;
 
     /**
@@ -109,20 +90,45 @@ public class BoardPanel extends JPanel {
     private Tetris tetTetris;
 
     /**
-     * The tiles that make up the board.
+     * The bit board that holds the tiles that make up the board. It belongs
+     * to the game engine; the panel only draws it.
+     */
+    private BitBoard bbBoard;
+
+    /**
+     * The number of columns on the board.
+     */
+    private final int iColCount;
+
+    /**
+     * The total number of rows that the board contains.
+     */
+    private final int iRowCount;
+
+    /**
+     * The number of rows the panel shows at once.
+     */
+    private final int iViewRowCount;
+
+    /**
+     * The central x coordinate on the game board.
+     */
+    private final int iCenterX;
+
+    /**
+     * The central y coordinate on the game board.
      */
-    private TileType[][] tltTiles;
+    private final int iCenterY;
 
     /**
-     * Variable para la Iluminacion.
+     * Tiempo en nanosegundos que dura cada fase de la Iluminacion.
      */
-    private boolean bIluminar;
-    private int iContador;
+    private static final long lHIGHLIGHT_PERIOD = 1000000000L;
 
     /**
-     * Sonidopara cuando se complete exitosamente la linea
+     * The animated background, decoded once and kept scaled to the panel.
      */
-    private SoundClip sClipSuccess;
+    private final AssetCache ascBackground;
 
     /**
      * Crates a new GameBoard instance.
@@ -131,27 +137,52 @@ public class BoardPanel extends JPanel {
      */
     public BoardPanel(Tetris tetris) {
         this.tetTetris = tetris;
-        this.tltTiles = new TileType[iROW_COUNT][iCOL_COUNT];
-        iContador = 50;
-        bIluminar = false;
-        setPreferredSize(new Dimension(iPANEL_WIDTH, iPANEL_HEIGHT));
-        
-        sClipSuccess = new SoundClip("success.wav");
+        this.bbBoard = tetris.getEngine().getBoard();
+        this.iColCount = bbBoard.getColumnCount();
+        this.iRowCount = bbBoard.getRowCount();
+        this.iViewRowCount = getViewRowCount(iRowCount);
+        this.iCenterX = iColCount * iTILE_SIZE / 2;
+        this.iCenterY = iViewRowCount * iTILE_SIZE / 2;
+        this.ascBackground = new AssetCache("bg.gif");
+        setPreferredSize(new Dimension(iColCount * iTILE_SIZE
+                + iBORDER_WIDTH * 2, iViewRowCount * iTILE_SIZE
+                + iBORDER_WIDTH * 2));
+
+        /*
+         * The background is scaled again whenever the panel changes size,
+         * rather than while it's being painted.
+         */
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent cevEvent) {
+                prepareBackground();
+            }
+        });
+    }
+
+    /**
+     * Scales the background for the display, now that the panel has one.
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        prepareBackground();
+    }
+
+    /**
+     * Scales every frame of the background to the current size of the panel
+     * and for it's current display.
+     */
+    private void prepareBackground() {
+        ascBackground.prepare(getWidth() + 5, getHeight() + 5,
+                getGraphicsConfiguration());
     }
 
     /**
      * Resets the board and clears away any tiles.
      */
     public void clear() {
-        /*
-		 * Loop through every tile index and set it's value
-		 * to null to clear the board.
-         */
-        for (int i = 0; i < iROW_COUNT; i++) {
-            for (int j = 0; j < iCOL_COUNT; j++) {
-                tltTiles[i][j] = null;
-            }
-        }
+        bbBoard.clear();
     }
 
     /**
@@ -164,36 +195,7 @@ public class BoardPanel extends JPanel {
      * @return Whether or not the position is valid.
      */
     public boolean isValidAndEmpty(TileType type, int iX, int iY, int iRotation) {
-
-        //Ensure the piece is in a valid column.
-        if (iX < -type.getLeftInset(iRotation) || iX + type.getDimension()
-                - type.getRightInset(iRotation) >= iCOL_COUNT) {
-            return false;
-        }
-
-        //Ensure the piece is in a valid row.
-        if (iY < -type.getTopInset(iRotation) || iY + type.getDimension()
-                - type.getBottomInset(iRotation) >= iROW_COUNT) {
-            return false;
-        }
-
-        /*
-		 * Loop through every tile in the piece and see if it 
-                 * conflicts with an existing tile.
-		 * 
-		 * Note: It's fine to do this even though it allows for 
-                 * wrapping because we've already
-		 * checked to make sure the piece is in a valid location.
-         */
-        for (int iCol = 0; iCol < type.getDimension(); iCol++) {
-            for (int iRow = 0; iRow < type.getDimension(); iRow++) {
-                if (type.isTile(iCol, iRow, iRotation)
-                        && isOccupied(iX + iCol, iY + iRow)) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return bbBoard.isValidAndEmpty(type, iX, iY, iRotation);
     }
 
     /**
@@ -206,95 +208,31 @@ public class BoardPanel extends JPanel {
      * @param iRotation The rotation of the piece.
      */
     public void addPiece(TileType type, int iX, int iY, int iRotation) {
-        /*
-		 * Loop through every tile within the piece and add it
-		 * to the board only if the boolean that represents that
-		 * tile is set to true.
-         */
-        for (int iCol = 0; iCol < type.getDimension(); iCol++) {
-            for (int iRow = 0; iRow < type.getDimension(); iRow++) {
-                if (type.isTile(iCol, iRow, iRotation)) {
-                    setTile(iCol + iX, iRow + iY, type);
-                }
-            }
-        }
+        bbBoard.addPiece(type, iX, iY, iRotation);
     }
 
     /**
-     * Checks the board to see if any lines have been cleared, and removes them
-     * from the game.
-     *
-     * @return The number of lines that were cleared.
-     */
-    public int checkLines() {
-        int iCompletedLines = 0;
-
-        /*
-		 * Here we loop through every line and check it to see if
-		 * it's been cleared or not. If it has, we increment the
-		 * number of completed lines and check the next row.
-		 * 
-		 * The checkLine function handles clearing the line and
-		 * shifting the rest of the board down for us.
-         */
-        for (int iRow = 0; iRow < iROW_COUNT; iRow++) {
-            if (checkLine(iRow)) {
-                iCompletedLines++;
-                sClipSuccess.play();
-            }
-        }
-        return iCompletedLines;
-    }
-
-    /**
-     * Checks whether or not {@code row} is full.
-     *
-     * @param iLine The row to check.
-     * @return Whether or not this row is full.
-     */
-    private boolean checkLine(int iLine) {
-        /*
-		 * Iterate through every column in this row. If any of them are
-		 * empty, then the row is not full.
-         */
-        for (int iCol = 0; iCol < iCOL_COUNT; iCol++) {
-            if (!isOccupied(iCol, iLine)) {
-                return false;
-            }
-        }
-
-        /*
-		 * Since the line is filled, we need to 'remove' it from the game.
-		 * To do this, we simply shift every row above it down by one.
-         */
-        for (int iRow = iLine - 1; iRow >= 0; iRow--) {
-            for (int iCol = 0; iCol < iCOL_COUNT; iCol++) {
-                setTile(iCol, iRow + 1, getTile(iCol, iRow));
-            }
-        }
-        return true;
-    }
-
-    /**
-     * Checks to see if the tile is already occupied.
+     * Finds the row the piece would land on if it were dropped straight down
+     * from the given position.
      *
-     * @param iX The x coordinate to check.
-     * @param iY The y coordinate to check.
-     * @return Whether or not the tile is occupied.
+     * @param type The type of piece.
+     * @param iX The x coordinate of the piece.
+     * @param iY The y coordinate of the piece.
+     * @param iRotation The rotation of the piece.
+     * @return The landing row.
      */
-    private boolean isOccupied(int iX, int iY) {
-        return tltTiles[iY][iX] != null;
+    public int getLandingRow(TileType type, int iX, int iY, int iRotation) {
+        return bbBoard.getLandingRow(type, iX, iY, iRotation);
     }
 
     /**
-     * Sets a tile located at the desired column and row.
+     * Checks the board to see if any lines have been cleared, and removes them
+     * from the game.
      *
-     * @param iX The column.
-     * @param iY The row.
-     * @param type The value to set to the tile to.
+     * @return The number of lines that were cleared.
      */
-    private void setTile(int iX, int iY, TileType type) {
-        tltTiles[iY][iX] = type;
+    public int checkLines() {
+        return bbBoard.clearLines();
     }
 
     /**
@@ -305,7 +243,7 @@ public class BoardPanel extends JPanel {
      * @return The tile.
      */
     private TileType getTile(int iX, int iY) {
-        return tltTiles[iY][iX];
+        return bbBoard.getTile(iX, iY);
     }
 
     @Override
@@ -314,19 +252,26 @@ public class BoardPanel extends JPanel {
 
         //This helps simplify the positioning of things.
         g.translate(iBORDER_WIDTH, iBORDER_WIDTH);
+
+        /*
+         * Everything is drawn from the frame of the current paint pass, which
+         * the side panel draws from as well, never from the board itself,
+         * which the game loop may be changing meanwhile.
+         */
+        RenderFrame rfrFrame = tetTetris.getFrame();
         
         //Inicializo la variable para cambiar el brillo.
         /*
 		 * Draw the board differently depending on the current game state.
          */
-        if (tetTetris.isPaused()) {
+        if (rfrFrame.isPaused()) {
             g.setFont(fntLARGE_FONT);
             g.setColor(Color.WHITE);
             String sMsg = "PAUSED";
-            g.drawString(sMsg, iCENTER_X
+            g.drawString(sMsg, iCenterX
                     - g.getFontMetrics().stringWidth(sMsg) / 2,
-                    iCENTER_Y);
-        } else if (tetTetris.isNewGame() || tetTetris.isGameOver()) {
+                    iCenterY);
+        } else if (rfrFrame.isNewGame() || rfrFrame.isGameOver()) {
            setBackground(Color.black);
             g.setFont(fntLARGE_FONT);
             g.setColor(Color.WHITE);
@@ -337,28 +282,46 @@ public class BoardPanel extends JPanel {
                          * just use a ternary operator to change
 			 * the messages that are displayed.
              */
-            String sMsg = tetTetris.isNewGame() ? "TETRIS" : "GAME OVER";
-            g.drawString(sMsg, iCENTER_X
+            String sMsg = rfrFrame.isNewGame() ? "TETRIS" : "GAME OVER";
+            g.drawString(sMsg, iCenterX
                     - g.getFontMetrics().stringWidth(sMsg) / 2, 150);
             g.setFont(fntSMALL_FONT);
             sMsg = "Press Enter to Play"
-                    + (tetTetris.isNewGame() ? "" : " Again");
-            g.drawString(sMsg, iCENTER_X
+                    + (rfrFrame.isNewGame() ? "" : " Again");
+            g.drawString(sMsg, iCenterX
                     - g.getFontMetrics().stringWidth(sMsg) / 2, 300);
         } else {
-                URL urlFondo = this.getClass().getResource("bg.gif");
-            Image imFondo = Toolkit.getDefaultToolkit().getImage(urlFondo);
-            g.drawImage(imFondo, -5, -5, getWidth()+5, getHeight()+5, this);
+            /*
+             * Draw the frame of the background that is showing right now. It
+             * was scaled when the panel was shown or last resized, so this is
+             * a plain copy.
+             */
+            Image imFondo = ascBackground.getFrame(getWidth() + 5,
+                    getHeight() + 5, getGraphicsConfiguration(),
+                    Clock.getCurrentNanos());
+            if (imFondo != null) {
+                g.drawImage(imFondo, -5, -5, null);
+            }
+            /*
+             * The frame holds only the rows in view. Boards that fit are
+             * shown whole; taller ones are shown from a little above the
+             * piece.
+             */
+            int iViewTop = rfrFrame.getViewTop();
+
             /*
 			 * Draw the tiles onto the board.
              */
-            for (int iX = 0; iX < iCOL_COUNT; iX++) {
-                for (int iY = iHIDDEN_ROW_COUNT; iY < iROW_COUNT; iY++) {
-                    TileType tile = getTile(iX, iY);
+            for (int iY = iViewTop; iY < iViewTop + iViewRowCount; iY++) {
+                if (rfrFrame.getRowMask(iY) == 0L) {
+                    continue;
+                }
+                for (int iX = 0; iX < iColCount; iX++) {
+                    TileType tile = rfrFrame.getTile(iX, iY);
                     if (tile != null) {
                         drawTile(tile, iX
                                 * iTILE_SIZE,
-                                (iY - iHIDDEN_ROW_COUNT)
+                                (iY - iViewTop)
                                 * iTILE_SIZE, g);
                     }
                 }
@@ -370,61 +333,58 @@ public class BoardPanel extends JPanel {
 			 * part of the board, it would need to be removed every frame which
 			 * would just be slow and confusing.
              */
-            TileType tltType = tetTetris.getPieceType();
-            int iPieceCol = tetTetris.getPieceCol();
-            int iPieceRow = tetTetris.getPieceRow();
-            int iRotation = tetTetris.getPieceRotation();
+            TileType tltType = rfrFrame.getPieceType();
+            int iPieceCol = rfrFrame.getPieceCol();
+            int iPieceRow = rfrFrame.getPieceRow();
+            int iRotation = rfrFrame.getPieceRotation();
+
+            /*
+             * The piece is drawn part of the way towards the next row,
+             * according to how far gravity has got since the frame was taken.
+             */
+            int iFallY = (int) (rfrFrame.getFallOffset(Clock.getCurrentNanos())
+                    * iTILE_SIZE);
+
+            /*
+             * The highlight of the piece flips every second, measured against
+             * the clock rather than by counting frames, so it blinks at the
+             * same pace whatever the frame rate is.
+             */
+            boolean bIluminar = ((Clock.getCurrentNanos() / lHIGHLIGHT_PERIOD)
+                    & 1L) != 0L;
 
             //Draw the piece onto the board.
             for (int iCol = 0; iCol < tltType.getDimension(); iCol++) {
                 for (int iRow = 0; iRow < tltType.getDimension(); iRow++) {
-                    if (iPieceRow + iRow >= 2 && tltType.isTile(iCol, iRow, iRotation)) {
+                    if (iPieceRow + iRow >= iViewTop && tltType.isTile(iCol, iRow, iRotation)) {
                         if (bIluminar) {
                             drawTile(tltType, (iPieceCol + iCol) * iTILE_SIZE,
-                                    (iPieceRow + iRow - iHIDDEN_ROW_COUNT)
-                                    * iTILE_SIZE, g);
+                                    (iPieceRow + iRow - iViewTop)
+                                    * iTILE_SIZE + iFallY, g);
                         } else {
                             drawTile2(tltType, (iPieceCol + iCol) * iTILE_SIZE,
-                                    (iPieceRow + iRow - iHIDDEN_ROW_COUNT)
-                                    * iTILE_SIZE, g);
+                                    (iPieceRow + iRow - iViewTop)
+                                    * iTILE_SIZE + iFallY, g);
                         }
                     }
                 }
             }
 
-            //Vario la variable para el brillo
-            if (iContador == 0) {
-                iContador = 50;
-                bIluminar = !bIluminar;
-            }
-            iContador--;
             /*
-			 * Draw the ghost (semi-transparent piece that shows where the current piece will land). I couldn't think of
-			 * a better way to implement this so it'll have to do for now. We simply take the current position and move
-			 * down until we hit a row that would cause a collision.
+			 * Draw the ghost (semi-transparent piece that shows where the current piece will land).
+			 * The landing row is worked out from the board's skyline when the frame is taken,
+			 * so drawing it doesn't have to touch the board at all.
              */
             Color colBase = tltType.getBaseColor();
             colBase = new Color(colBase.getRed(), colBase.getGreen(),
                     colBase.getBlue(), 20);
-            for (int iLowest = iPieceRow; iLowest < iROW_COUNT; iLowest++) {
-                //If no collision is detected, try the next row.
-                if (isValidAndEmpty(tltType, iPieceCol, iLowest, iRotation)) {
-                    continue;
-                }
-
-                //Draw the ghost one row higher than the one the collision took place at.
-                iLowest--;
-
-                //Draw the ghost piece.
-                for (int iCol = 0; iCol < tltType.getDimension(); iCol++) {
-                    for (int iRow = 0; iRow < tltType.getDimension(); iRow++) {
-                        if (iLowest + iRow >= 2 && tltType.isTile(iCol, iRow, iRotation)) {
-                            drawTile(colBase, colBase.brighter(), colBase.darker(), (iPieceCol + iCol) * iTILE_SIZE, (iLowest + iRow - iHIDDEN_ROW_COUNT) * iTILE_SIZE, g);
-                        }
+            int iLowest = rfrFrame.getLandingRow();
+            for (int iCol = 0; iCol < tltType.getDimension(); iCol++) {
+                for (int iRow = 0; iRow < tltType.getDimension(); iRow++) {
+                    if (iLowest + iRow >= iViewTop && tltType.isTile(iCol, iRow, iRotation)) {
+                        drawTile(colBase, colBase.brighter(), colBase.darker(), (iPieceCol + iCol) * iTILE_SIZE, (iLowest + iRow - iViewTop) * iTILE_SIZE, g);
                     }
                 }
-
-                break;
             }
 
             /*
@@ -432,10 +392,10 @@ public class BoardPanel extends JPanel {
 			 * for players, and makes the pieces look nicer by breaking them up.
              */
             g.setColor(Color.DARK_GRAY);
-            for (int iX = 0; iX < iCOL_COUNT; iX++) {
-                for (int iY = 0; iY < iVISIBLE_ROW_COUNT; iY++) {
-                    g.drawLine(0, iY * iTILE_SIZE, iCOL_COUNT * iTILE_SIZE, iY * iTILE_SIZE);
-                    g.drawLine(iX * iTILE_SIZE, 0, iX * iTILE_SIZE, iVISIBLE_ROW_COUNT * iTILE_SIZE);
+            for (int iX = 0; iX < iColCount; iX++) {
+                for (int iY = 0; iY < iViewRowCount; iY++) {
+                    g.drawLine(0, iY * iTILE_SIZE, iColCount * iTILE_SIZE, iY * iTILE_SIZE);
+                    g.drawLine(iX * iTILE_SIZE, 0, iX * iTILE_SIZE, iViewRowCount * iTILE_SIZE);
                 }
             }
         }
@@ -444,7 +404,19 @@ public class BoardPanel extends JPanel {
 		 * Draw the outline.
          */
         g.setColor(Color.WHITE);
-        g.drawRect(0, 0, iTILE_SIZE * iCOL_COUNT, iTILE_SIZE * iVISIBLE_ROW_COUNT);
+        g.drawRect(0, 0, iTILE_SIZE * iColCount, iTILE_SIZE * iViewRowCount);
+    }
+
+    /**
+     * Gets the number of rows the panel shows at once. Boards that fit are
+     * shown whole, less the hidden rows; taller ones only show as many rows
+     * as fit in the view. The frames of the game only hold this many rows.
+     *
+     * @param iRowCount The total number of rows on the board.
+     * @return The number of rows in view.
+     */
+    public static int getViewRowCount(int iRowCount) {
+        return Math.min(iRowCount - iHIDDEN_ROW_COUNT, iMAX_VIEW_ROWS);
     }
 
     /**
@@ -509,11 +481,12 @@ public class BoardPanel extends JPanel {
     }
 
     public int[][] getTablero() {
-        int[][] iarrSalida = new int[tltTiles.length][tltTiles[0].length];
-        for (int iC = 0; iC < tltTiles.length; iC++) {
-            for (int iJ = 0; iJ < tltTiles[0].length; iJ++) {
-                if (tltTiles[iC][iJ] != null) {
-                    iarrSalida[iC][iJ] = tltTiles[iC][iJ].getType();
+        int[][] iarrSalida = new int[iRowCount][iColCount];
+        for (int iC = 0; iC < iRowCount; iC++) {
+            for (int iJ = 0; iJ < iColCount; iJ++) {
+                TileType tltTile = getTile(iJ, iC);
+                if (tltTile != null) {
+                    iarrSalida[iC][iJ] = tltTile.getType();
                 } else {
                     iarrSalida[iC][iJ] = -1;
                 }
@@ -524,14 +497,16 @@ public class BoardPanel extends JPanel {
 
     public void setTablero(int[][] entrada) {
 
-        tltTiles = new TileType[entrada.length][entrada[0].length];
+        bbBoard.clear();
 
-        for (int iC = 0; iC < entrada.length; iC++) {
-            for (int iJ = 0; iJ < entrada[0].length; iJ++) {
-                if (entrada[iC][iJ] != -1) {
-                    tltTiles[iC][iJ] = TileType.values()[entrada[iC][iJ]];
-                } else {
-                    tltTiles[iC][iJ] = null;
+        TileType[] tltarrTypes = tetTetris.getEngine().getPieceSet()
+                .getTypes();
+        for (int iC = 0; iC < entrada.length && iC < iRowCount; iC++) {
+            for (int iJ = 0; iJ < entrada[0].length && iJ < iColCount; iJ++) {
+                if (entrada[iC][iJ] == TileType.TypeGarbage.getType()) {
+                    bbBoard.setTile(iJ, iC, TileType.TypeGarbage);
+                } else if (entrada[iC][iJ] != -1) {
+                    bbBoard.setTile(iJ, iC, tltarrTypes[entrada[iC][iJ]]);
                 }
             }
         }
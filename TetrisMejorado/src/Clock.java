@@ -2,19 +2,70 @@
 /**
  * The {@code Clock} class is responsible for tracking the number of cycles
  * that have elapsed over time. 
+ * 
+ * In fixed-point mode, time is accounted for in integer nanoseconds with
+ * {@code iFRACTION_BITS} bits of fraction, so no time is ever lost to
+ * rounding no matter how long the clock runs or how fast it ticks. The
+ * clock can also cap how many cycles it lets pile up between polls, and it
+ * keeps statistics on how far behind it has fallen.
  * @author Brendan Jones
  *
  */
 public class Clock {
 	
+	/**
+	 * The number of fractional bits of the fixed-point time values.
+	 */
+	private static final int iFRACTION_BITS = 16;
+	
+	/**
+	 * The largest delta time, in nanoseconds, that can be shifted into
+	 * fixed point without overflowing.
+	 */
+	private static final long lMAX_DELTA = Long.MAX_VALUE >> (iFRACTION_BITS + 1);
+	
+	/**
+	 * Whether the clock uses fixed-point nanoseconds rather than floating
+	 * point milliseconds.
+	 */
+	private final boolean bFixedPoint;
+	
 	/**
 	 * The number of milliseconds that make up one cycle.
 	 */
 	private float fMillisPerCycle;
 	
+	/**
+	 * The number of nanoseconds that make up one cycle, in fixed point.
+	 */
+	private long lCycleLength;
+	
+	/**
+	 * The amount of excess time towards the next elapsed cycle, in
+	 * fixed-point nanoseconds.
+	 */
+	private long lExcess;
+	
+	/**
+	 * The maximum number of cycles that may be waiting to be polled, or 0 for
+	 * no limit.
+	 */
+	private int iMaxCatchUp;
+	
+	/**
+	 * The number of cycles thrown away because of the catch-up limit.
+	 */
+	private long lCyclesDropped;
+	
+	/**
+	 * The largest number of cycles that have been waiting to be polled at
+	 * once.
+	 */
+	private int iWorstBacklog;
+	
 	/**
 	 * The last time that the clock was updated (used for calculating the
-	 * delta time).
+	 * delta time), in milliseconds or, in fixed-point mode, nanoseconds.
 	 */
 	private long lLastUpdate;
 	
@@ -38,6 +89,17 @@ public class Clock {
 	 * @param fCyclesPerSecond The number of cycles that elapse per second.
 	 */
 	public Clock(float fCyclesPerSecond) {
+		this(fCyclesPerSecond, false);
+	}
+	
+	/**
+	 * Creates a new clock and sets it's cycles-per-second.
+	 * @param fCyclesPerSecond The number of cycles that elapse per second.
+	 * @param bFixedPoint Whether to account for time in fixed-point
+	 * nanoseconds instead of floating point milliseconds.
+	 */
+	public Clock(float fCyclesPerSecond, boolean bFixedPoint) {
+		this.bFixedPoint = bFixedPoint;
 		setCyclesPerSecond(fCyclesPerSecond);
 		reset();
 	}
@@ -48,6 +110,17 @@ public class Clock {
 	 */
 	public void setCyclesPerSecond(float fCyclesPerSecond) {
 		this.fMillisPerCycle = (1.0f / fCyclesPerSecond) * 1000;
+		this.lCycleLength = Math.max(1L, Math.round(
+                        (1000000000.0 * (1L << iFRACTION_BITS)) / fCyclesPerSecond));
+	}
+	
+	/**
+	 * Limits the number of cycles that may be waiting to be polled. Any
+	 * cycles past the limit are thrown away and counted as dropped.
+	 * @param iMaxCatchUp The maximum number of cycles, or 0 for no limit.
+	 */
+	public void setMaxCatchUp(int iMaxCatchUp) {
+		this.iMaxCatchUp = iMaxCatchUp;
 	}
 	
 	/**
@@ -58,7 +131,8 @@ public class Clock {
 	public void reset() {
 		this.iElapsedCycles = 0;
 		this.fExcessCycles = 0.0f;
-		this.lLastUpdate = getCurrentTime();
+		this.lExcess = 0L;
+		this.lLastUpdate = bFixedPoint ? getCurrentNanos() : getCurrentTime();
 		this.bIsPaused = false;
 	}
 	
@@ -69,13 +143,18 @@ public class Clock {
 	 * nasty surprises with the delta time.
 	 */
 	public void update() {
+		if(bFixedPoint) {
+			updateFixedPoint();
+			return;
+		}
+		
 		//Get the current time and calculate the delta time.
 		long lCurrUpdate = getCurrentTime();
 		float fDelta = (float)(lCurrUpdate - lLastUpdate) + fExcessCycles;
 		
 		//Update the number of elapsed and excess ticks if we're not paused.
 		if(!bIsPaused) {
-			this.iElapsedCycles += (int)Math.floor(fDelta / fMillisPerCycle);
+			addElapsedCycles((long)Math.floor(fDelta / fMillisPerCycle));
 			this.fExcessCycles = fDelta % fMillisPerCycle;
 		}
 		
@@ -83,6 +162,120 @@ public class Clock {
 		this.lLastUpdate = lCurrUpdate;
 	}
 	
+	/**
+	 * Updates the clock stats in fixed-point mode. The delta time and the
+	 * excess are whole numbers of fixed-point nanoseconds, so dividing by the
+	 * cycle length never loses anything; whatever doesn't make up a full
+	 * cycle is carried over exactly to the next update.
+	 */
+	private void updateFixedPoint() {
+		long lCurrUpdate = getCurrentNanos();
+		long lDelta = Math.min(lCurrUpdate - lLastUpdate, lMAX_DELTA);
+		
+		if(!bIsPaused && lDelta > 0) {
+			long lTime = (lDelta << iFRACTION_BITS) + lExcess;
+			addElapsedCycles(lTime / lCycleLength);
+			this.lExcess = lTime % lCycleLength;
+		}
+		
+		this.lLastUpdate = lCurrUpdate;
+	}
+	
+	/**
+	 * Adds newly elapsed cycles to the ones waiting to be polled, applying
+	 * the catch-up limit and recording the lag statistics.
+	 * @param lCycles The number of cycles that elapsed.
+	 */
+	private void addElapsedCycles(long lCycles) {
+		long lBacklog = iElapsedCycles + lCycles;
+		if(lBacklog > iWorstBacklog) {
+			this.iWorstBacklog = (int)Math.min(lBacklog, Integer.MAX_VALUE);
+		}
+		
+		long lLimit = (iMaxCatchUp > 0) ? iMaxCatchUp : Integer.MAX_VALUE;
+		if(lBacklog > lLimit) {
+			this.lCyclesDropped += lBacklog - lLimit;
+			lBacklog = lLimit;
+		}
+		this.iElapsedCycles = (int)lBacklog;
+	}
+	
+	/**
+	 * Copies the state of the clock into a snapshot, so that a restored game
+	 * resumes with the same progress towards it's next cycle.
+	 * @param gsnSnapshot The snapshot.
+	 */
+	public void save(GameSnapshot gsnSnapshot) {
+		long[] larrState = gsnSnapshot.getClockState();
+		larrState[0] = lCycleLength;
+		larrState[1] = lExcess;
+		larrState[2] = ((long)Float.floatToRawIntBits(fMillisPerCycle) << 32)
+                        | (Float.floatToRawIntBits(fExcessCycles) & 0xFFFFFFFFL);
+		larrState[3] = ((long)iElapsedCycles << 1) | (bIsPaused ? 1L : 0L);
+	}
+
+	/**
+	 * Replaces the state of the clock with one copied by {@code save}. The
+	 * time spent between saving and restoring doesn't count.
+	 * @param gsnSnapshot The snapshot.
+	 */
+	public void restore(GameSnapshot gsnSnapshot) {
+		long[] larrState = gsnSnapshot.getClockState();
+		this.lCycleLength = larrState[0];
+		this.lExcess = larrState[1];
+		this.fMillisPerCycle = Float.intBitsToFloat((int)(larrState[2] >>> 32));
+		this.fExcessCycles = Float.intBitsToFloat((int)larrState[2]);
+		this.iElapsedCycles = (int)(larrState[3] >> 1);
+		this.bIsPaused = (larrState[3] & 1L) != 0L;
+		this.lLastUpdate = bFixedPoint ? getCurrentNanos() : getCurrentTime();
+	}
+
+	/**
+	 * Gets the number of cycles that were thrown away because more of them
+	 * piled up than the catch-up limit allows.
+	 * @return The number of dropped cycles.
+	 */
+	public long getCyclesDropped() {
+		return lCyclesDropped;
+	}
+	
+	/**
+	 * Gets the largest number of cycles that have been waiting to be polled
+	 * at once, before the catch-up limit was applied.
+	 * @return The worst backlog, in cycles.
+	 */
+	public int getWorstBacklog() {
+		return iWorstBacklog;
+	}
+	
+	/**
+	 * Clears the lag statistics.
+	 */
+	public void resetLagStatistics() {
+		this.lCyclesDropped = 0L;
+		this.iWorstBacklog = 0;
+	}
+	
+	/**
+	 * Gets how far the clock had got towards it's next cycle when it was last
+	 * updated.
+	 * @return The fraction of a cycle, from 0 up to but not including 1.
+	 */
+	public float getCycleProgress() {
+		if(bFixedPoint) {
+			return (float)((double)lExcess / lCycleLength);
+		}
+		return fExcessCycles / fMillisPerCycle;
+	}
+	
+	/**
+	 * Gets the number of cycles that elapse per second.
+	 * @return The number of cycles per second.
+	 */
+	public float getCyclesPerSecond() {
+		return 1000.0f / fMillisPerCycle;
+	}
+	
 	/**
 	 * Pauses or unpauses the clock. While paused, a clock will not update
 	 * elapsed cycles or cycle excess, though the {@code update} method should
@@ -115,6 +308,18 @@ public class Clock {
 		return false;
 	}
 	
+	/**
+	 * Takes every cycle that has elapsed so far in one go, so that a caller
+	 * that only polls once per frame never falls behind when more than one
+	 * cycle elapses per frame.
+	 * @return The number of elapsed cycles, which is then reset to 0.
+	 */
+	public int pollElapsedCycles() {
+		int iCycles = iElapsedCycles;
+		this.iElapsedCycles = 0;
+		return iCycles;
+	}
+	
 	/**
 	 * Checks to see if a cycle has elapsed for this clock yet. Unlike
 	 * {@code hasElapsedCycle}, the number of cycles will not be decremented
@@ -126,6 +331,16 @@ public class Clock {
 		return (iElapsedCycles > 0);
 	}
 	
+	/**
+	 * Gets the current time of the computer's high resolution clock. Every
+	 * gameplay timer is measured against this, so that none of them depend
+	 * on the frame rate.
+	 * @return The current time in nanoseconds.
+	 */
+	public static long getCurrentNanos() {
+		return System.nanoTime();
+	}
+	
 	/**
 	 * Calculates the current time in milliseconds using the computer's high
 	 * resolution clock. This is much more reliable than
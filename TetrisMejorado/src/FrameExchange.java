@@ -0,0 +1,85 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@code FrameExchange} class passes frames from the thread that runs
+ * the game to the thread that draws it, without locks and without either
+ * of them ever waiting for the other.
+ *
+ * It holds three frames. The game fills the one it owns and then swaps it
+ * with the one in the middle, in a single atomic step. The drawing side
+ * swaps the frame it owns with the middle one whenever the middle one is
+ * newer. Neither side ever touches the frame the other one owns, so a frame
+ * can't change while it's being drawn, and the drawing side always gets the
+ * latest complete frame.
+ */
+public class FrameExchange {
+
+	/**
+	 * The frame being filled by the game.
+	 */
+	private RenderFrame rfrBack;
+
+	/**
+	 * The frame waiting to be picked up.
+	 */
+	private final AtomicReference<RenderFrame> arfMiddle;
+
+	/**
+	 * The frame being drawn.
+	 */
+	private RenderFrame rfrFront;
+
+	/**
+	 * The number of frames published so far.
+	 */
+	private long lPublished;
+
+	/**
+	 * Creates an exchange with three empty frames.
+	 * @param iCols The number of columns on the board.
+	 * @param iRows The total number of rows on the board.
+	 * @param iViewRows The number of rows that can be drawn at once.
+	 * @param tltarrTypes The types of the pieces the game is played with.
+	 */
+	public FrameExchange(int iCols, int iRows, int iViewRows,
+                TileType[] tltarrTypes) {
+		this.rfrBack = new RenderFrame(iCols, iRows, iViewRows, tltarrTypes);
+		this.arfMiddle = new AtomicReference<RenderFrame>(
+                        new RenderFrame(iCols, iRows, iViewRows, tltarrTypes));
+		this.rfrFront = new RenderFrame(iCols, iRows, iViewRows, tltarrTypes);
+	}
+
+	/**
+	 * Takes a frame of the game and makes it the latest one. Only the thread
+	 * that runs the game may call this.
+	 * @param gmeEngine The engine.
+	 * @param clkGravity The clock that makes the piece fall.
+	 */
+	public void publish(GameEngine gmeEngine, Clock clkGravity) {
+		rfrBack.capture(gmeEngine, clkGravity, lPublished++);
+		rfrBack = arfMiddle.getAndSet(rfrBack);
+	}
+
+	/**
+	 * Gets the latest frame. Only the thread that draws the game may call
+	 * this, and the frame may only be used until it calls it again.
+	 * @return The frame, which shows a new game if no frame has been
+	 * published yet.
+	 */
+	public RenderFrame acquire() {
+		if(arfMiddle.get().getSequence() > rfrFront.getSequence()) {
+			rfrFront = arfMiddle.getAndSet(rfrFront);
+		}
+		return rfrFront;
+	}
+
+	/**
+	 * Gets the frame last returned by {@code acquire}, without looking for
+	 * a newer one. Only the thread that draws the game may call this.
+	 * @return The frame.
+	 */
+	public RenderFrame current() {
+		return rfrFront;
+	}
+
+}
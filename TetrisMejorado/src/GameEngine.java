@@ -0,0 +1,886 @@
+
+/**
+ * The {@code GameEngine} class holds the rules and the state of a single
+ * game: the board, the falling piece, the score and the speed. It has no
+ * window, no timer and never sleeps; it only moves when it is told to, one
+ * {@code tick} (one cycle of gravity) or {@code step} at a time. This lets
+ * the game be simulated headless as fast as the CPU allows, while
+ * {@code Tetris} simply drives it in real time and renders it.
+ */
+public class GameEngine {
+
+	/**
+	 * The number of columns on the board, unless told otherwise.
+	 */
+	public static final int iCOL_COUNT = 10;
+
+	/**
+	 * The number of visible rows on the board, unless told otherwise.
+	 */
+	public static final int iVISIBLE_ROW_COUNT = 20;
+
+	/**
+	 * The number of rows that are hidden from view.
+	 */
+	public static final int iHIDDEN_ROW_COUNT = 2;
+
+	/**
+	 * The total number of rows that the board contains, unless told
+	 * otherwise.
+	 */
+	public static final int iROW_COUNT = iVISIBLE_ROW_COUNT
+                + iHIDDEN_ROW_COUNT;
+
+	/**
+	 * Input flag to move the piece one column to the left.
+	 */
+	public static final int iINPUT_LEFT = 1;
+
+	/**
+	 * Input flag to move the piece one column to the right.
+	 */
+	public static final int iINPUT_RIGHT = 1 << 1;
+
+	/**
+	 * Input flag to rotate the piece clockwise.
+	 */
+	public static final int iINPUT_ROTATE_CW = 1 << 2;
+
+	/**
+	 * Input flag to rotate the piece anticlockwise.
+	 */
+	public static final int iINPUT_ROTATE_CCW = 1 << 3;
+
+	/**
+	 * Input flag to hard drop the piece instead of applying gravity.
+	 */
+	public static final int iINPUT_HARD_DROP = 1 << 4;
+
+	/**
+	 * The number of ints the engine's own fields take in a snapshot.
+	 */
+	private static final int iHEADER_SIZE = 12;
+
+	/**
+	 * The flag set in a snapshot when the game is paused.
+	 */
+	private static final int iFLAG_PAUSED = 1;
+
+	/**
+	 * The flag set in a snapshot before the first game.
+	 */
+	private static final int iFLAG_NEW_GAME = 1 << 1;
+
+	/**
+	 * The flag set in a snapshot when the game is over.
+	 */
+	private static final int iFLAG_GAME_OVER = 1 << 2;
+
+	/**
+	 * The board the game is played on.
+	 */
+	private BitBoard bbBoard;
+
+	/**
+	 * Whether or not the game is paused.
+	 */
+	private boolean boolIsPaused;
+
+	/**
+	 * Whether or not we've played a game yet. This is set to true
+	 * initially and then set to false when the game starts.
+	 */
+	private boolean boolIsNewGame;
+
+	/**
+	 * Whether or not the game is over.
+	 */
+	private boolean boolIsGameOver;
+
+	/**
+	 * The current level we're on.
+	 */
+	private int iLevel;
+
+	/**
+	 * The current score.
+	 */
+	private int iScore;
+
+	/**
+	 * The generator that deals the pieces.
+	 */
+	private PieceGenerator pgnGenerator;
+
+	/**
+	 * The pieces of the set being played, cached so that restoring a
+	 * snapshot never allocates.
+	 */
+	private TileType[] tltarrTypes;
+
+	/**
+	 * The rotation system that decides how pieces are kicked.
+	 */
+	private RotationSystem rtsRotation;
+
+	/**
+	 * The current type of tile.
+	 */
+	private TileType tltCurrentType;
+
+	/**
+	 * The next type of tile.
+	 */
+	private TileType tltNextType;
+
+	/**
+	 * The current column of our tile.
+	 */
+	private int iCurrentCol;
+
+	/**
+	 * The current row of our tile.
+	 */
+	private int iCurrentRow;
+
+	/**
+	 * The current rotation of our tile.
+	 */
+	private int iCurrentRotation;
+
+	/**
+	 * The speed of the game, in cycles per second.
+	 */
+	private float fGameSpeed;
+
+	/**
+	 * The number of lines cleared by the last piece that locked.
+	 */
+	private int iLinesCleared;
+
+	/**
+	 * The state of the random numbers that place the holes of garbage rows,
+	 * kept apart from the generator so garbage doesn't change the pieces.
+	 */
+	private long lGarbageState;
+
+	/**
+	 * The bus the events of the game are published to, or null when nobody
+	 * is listening.
+	 */
+	private GameEventBus gebEvents;
+
+	/**
+	 * Creates a new engine waiting for a game to be started, dealing pieces
+	 * uniformly at random from an arbitrary seed.
+	 */
+	public GameEngine() {
+		this(new UniformPieceGenerator(System.nanoTime(), 1));
+	}
+
+	/**
+	 * Creates a new engine waiting for a game to be started.
+	 * @param pgnGenerator The generator that deals the pieces.
+	 */
+	public GameEngine(PieceGenerator pgnGenerator) {
+		this(pgnGenerator, RotationSystem.CLASSIC);
+	}
+
+	/**
+	 * Creates a new engine waiting for a game to be started.
+	 * @param pgnGenerator The generator that deals the pieces.
+	 * @param rtsRotation The rotation system.
+	 */
+	public GameEngine(PieceGenerator pgnGenerator,
+                RotationSystem rtsRotation) {
+		this(pgnGenerator, rtsRotation, iCOL_COUNT, iVISIBLE_ROW_COUNT);
+	}
+
+	/**
+	 * Creates a new engine waiting for a game to be started, on a board of
+	 * any size.
+	 * @param pgnGenerator The generator that deals the pieces.
+	 * @param rtsRotation The rotation system.
+	 * @param iCols The number of columns, up to 64.
+	 * @param iVisibleRows The number of visible rows. The board also has
+	 * {@code iHIDDEN_ROW_COUNT} hidden rows above them.
+	 */
+	public GameEngine(PieceGenerator pgnGenerator,
+                RotationSystem rtsRotation, int iCols, int iVisibleRows) {
+		PieceSet pstPieces = pgnGenerator.getPieceSet();
+		this.bbBoard = new BitBoard(iCols, iVisibleRows + iHIDDEN_ROW_COUNT,
+                        pstPieces);
+		this.pgnGenerator = pgnGenerator;
+		this.tltarrTypes = pstPieces.getTypes();
+		this.rtsRotation = rtsRotation;
+		this.lGarbageState = BitBoard.mix(System.nanoTime());
+		this.boolIsNewGame = true;
+		this.fGameSpeed = 1.0f;
+	}
+
+	/**
+	 * Resets the game variables to their default values at the start
+	 * of a new game.
+	 */
+	public void resetGame() {
+		this.iLevel = 1;
+		this.iScore = 0;
+		this.fGameSpeed = 1.0f;
+		this.iLinesCleared = 0;
+		this.tltNextType = pgnGenerator.next();
+		this.boolIsNewGame = false;
+		this.boolIsGameOver = false;
+		this.boolIsPaused = false;
+		bbBoard.clear();
+		spawnPiece();
+	}
+
+	/**
+	 * Resets the game like {@code resetGame}, but first restarts the piece
+	 * sequence from a seed, so the game can be replayed exactly.
+	 * @param lSeed The seed.
+	 */
+	public void resetGame(long lSeed) {
+		pgnGenerator.reset(lSeed);
+		this.lGarbageState = BitBoard.mix(lSeed);
+		resetGame();
+	}
+
+	/**
+	 * Applies a set of inputs and then advances the game by one tick, or
+	 * hard drops the piece if asked to.
+	 * @param iInputs A combination of the {@code iINPUT_} flags.
+	 * @return Whether or not a piece was locked during this step.
+	 */
+	public boolean step(int iInputs) {
+		if((iInputs & iINPUT_LEFT) != 0) {
+			moveLeft();
+		}
+		if((iInputs & iINPUT_RIGHT) != 0) {
+			moveRight();
+		}
+		if((iInputs & iINPUT_ROTATE_CW) != 0) {
+			rotateClockwise();
+		}
+		if((iInputs & iINPUT_ROTATE_CCW) != 0) {
+			rotateAnticlockwise();
+		}
+		if((iInputs & iINPUT_HARD_DROP) != 0) {
+			return hardDrop();
+		}
+		return tick();
+	}
+
+	/**
+	 * Advances the game by one cycle of gravity: the piece either moves down
+	 * a row or, if it can't, is locked in place.
+	 * @return Whether or not the piece was locked.
+	 */
+	public boolean tick() {
+		return applyGravity(1);
+	}
+
+	/**
+	 * Advances the game by any number of cycles of gravity at once. The
+	 * result is exactly the same as calling {@code tick} that many times in
+	 * a row, but the piece is moved straight to where it ends up using the
+	 * landing row, so this costs the same whether it's 1 cycle or 1000 (20G
+	 * gravity and beyond). Once the piece locks, any cycles left over are
+	 * dropped, just like the logic timer is reset after every lock.
+	 * @param iCycles The number of cycles that have elapsed.
+	 * @return Whether or not the piece was locked.
+	 */
+	public boolean applyGravity(int iCycles) {
+		if(!isActive() || iCycles <= 0) {
+			return false;
+		}
+
+		/*
+		 * Every cycle moves the piece down one row until it reaches the
+		 * landing row, and the first cycle after that locks it.
+		 */
+		int iLanding = bbBoard.getLandingRow(tltCurrentType, iCurrentCol,
+                        iCurrentRow, iCurrentRotation);
+		int iDistance = iLanding - iCurrentRow;
+		if(iCycles <= iDistance) {
+			iCurrentRow += iCycles;
+			return false;
+		}
+		iCurrentRow = iLanding;
+		lockPiece();
+		return true;
+	}
+
+	/**
+	 * Drops the current piece straight down to it's landing row and locks
+	 * it there, all in a single logic step.
+	 * @return Whether or not the piece was locked.
+	 */
+	public boolean hardDrop() {
+		if(!isActive()) {
+			return false;
+		}
+		iCurrentRow = bbBoard.getLandingRow(tltCurrentType, iCurrentCol,
+                        iCurrentRow, iCurrentRotation);
+		lockPiece();
+		return true;
+	}
+
+	/**
+	 * Pushes garbage rows in from the bottom of the board, each one full but
+	 * for a single hole in a random column, whether they come from a timer or
+	 * from an opponent. Every row moves the stack up by one. If that makes
+	 * the stack overlap the falling piece, the piece is pushed up along with
+	 * it. The game is lost when tiles are pushed off the top of the board, or
+	 * when the piece has nowhere left to go.
+	 * @param iRows The number of garbage rows.
+	 * @return Whether or not the garbage ended the game.
+	 */
+	public boolean receiveGarbage(int iRows) {
+		if(!isActive()) {
+			return false;
+		}
+		int iCols = bbBoard.getColumnCount();
+		for(int iRow = 0; iRow < iRows; iRow++) {
+			if(bbBoard.insertGarbage(nextGarbageHole(iCols))) {
+				endGame();
+				return true;
+			}
+			if(!bbBoard.isValidAndEmpty(tltCurrentType, iCurrentCol,
+                                iCurrentRow, iCurrentRotation)) {
+				if(!bbBoard.isValidAndEmpty(tltCurrentType, iCurrentCol,
+                                        iCurrentRow - 1, iCurrentRotation)) {
+					endGame();
+					return true;
+				}
+				iCurrentRow--;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Picks the column of the hole of the next garbage row.
+	 * @param iCols The number of columns.
+	 * @return The column.
+	 */
+	private int nextGarbageHole(int iCols) {
+		long lZ = BitBoard.mix(lGarbageState += 0x9E3779B97F4A7C15L);
+		return (int)(((lZ >>> 32) * iCols) >>> 32);
+	}
+
+	/**
+	 * Moves the piece one column to the left if there's room.
+	 * @return Whether or not the piece moved.
+	 */
+	public boolean moveLeft() {
+		if(isActive() && bbBoard.isValidAndEmpty(tltCurrentType,
+                        iCurrentCol - 1, iCurrentRow, iCurrentRotation)) {
+			iCurrentCol--;
+			publish(GameEventBus.iEVENT_MOVE, iCurrentCol);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Moves the piece one column to the right if there's room.
+	 * @return Whether or not the piece moved.
+	 */
+	public boolean moveRight() {
+		if(isActive() && bbBoard.isValidAndEmpty(tltCurrentType,
+                        iCurrentCol + 1, iCurrentRow, iCurrentRotation)) {
+			iCurrentCol++;
+			publish(GameEventBus.iEVENT_MOVE, iCurrentCol);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Attempts to rotate the piece clockwise.
+	 * @return Whether or not the piece rotated.
+	 */
+	public boolean rotateClockwise() {
+		return isActive() && rotatePiece((iCurrentRotation == 3)
+                        ? 0 : iCurrentRotation + 1, true);
+	}
+
+	/**
+	 * Attempts to rotate the piece anticlockwise.
+	 * @return Whether or not the piece rotated.
+	 */
+	public boolean rotateAnticlockwise() {
+		return isActive() && rotatePiece((iCurrentRotation == 0)
+                        ? 3 : iCurrentRotation - 1, false);
+	}
+
+	/**
+	 * Checks whether there is a piece in play that can be moved.
+	 * @return Whether or not the game is running.
+	 */
+	private boolean isActive() {
+		return !boolIsPaused && !boolIsNewGame && !boolIsGameOver;
+	}
+
+	/**
+	 * Adds the current piece to the board, clears any lines it completed and
+	 * spawns the next piece.
+	 */
+	private void lockPiece() {
+		/*
+		 * We've either reached the bottom of the board, or landed on another piece, so
+		 * we need to add the piece to the board.
+		 */
+		bbBoard.addPiece(tltCurrentType, iCurrentCol, iCurrentRow,
+                        iCurrentRotation);
+		publish(GameEventBus.iEVENT_LOCK, tltCurrentType.getType());
+
+		/*
+		 * Check to see if adding the new piece resulted in any cleared lines. If so,
+		 * increase the player's score. (Up to 4 lines can be cleared in a single go;
+		 * [1 = 100pts, 2 = 200pts, 3 = 400pts, 4 = 800pts]).
+		 */
+		iLinesCleared = bbBoard.clearLines();
+		if(iLinesCleared > 0) {
+			iScore += 50 << iLinesCleared;
+			publish(GameEventBus.iEVENT_LINES_CLEARED, iLinesCleared);
+		}
+
+		/*
+		 * Increase the speed slightly for the next piece.
+		 */
+		fGameSpeed += 0.035f;
+
+		/*
+		 * Update the difficulty level. This has no effect on the game, and is only
+		 * used in the "Level" string in the SidePanel.
+		 */
+		int iNewLevel = (int)(fGameSpeed * 1.70f);
+		if(iNewLevel > iLevel) {
+			publish(GameEventBus.iEVENT_LEVEL_UP, iNewLevel);
+		}
+		iLevel = iNewLevel;
+
+		/*
+		 * Spawn a new piece to control.
+		 */
+		spawnPiece();
+	}
+
+	/**
+	 * Spawns a new piece and resets our piece's variables to their default
+	 * values.
+	 */
+	private void spawnPiece() {
+		/*
+		 * Poll the last piece and reset our position and rotation to
+		 * their default variables, then pick the next piece to use.
+		 */
+		this.tltCurrentType = tltNextType;
+		this.iCurrentCol = getSpawnColumn(tltCurrentType);
+		this.iCurrentRow = tltCurrentType.getSpawnRow();
+		this.iCurrentRotation = 0;
+		this.tltNextType = pgnGenerator.next();
+
+		/*
+		 * If the spawn point is invalid, we need to flag that we've lost
+		 * because it means that the pieces on the board have gotten too high.
+		 */
+		publish(GameEventBus.iEVENT_SPAWN, tltCurrentType.getType());
+		if(!bbBoard.isValidAndEmpty(tltCurrentType, iCurrentCol,
+                        iCurrentRow, iCurrentRotation)) {
+			endGame();
+		}
+	}
+
+	/**
+	 * Flags that the game has been lost.
+	 */
+	private void endGame() {
+		this.boolIsGameOver = true;
+		publish(GameEventBus.iEVENT_GAME_OVER, iScore);
+	}
+
+	/**
+	 * Publishes an event if anybody is listening.
+	 * @param iType One of the {@code GameEventBus.iEVENT_} types.
+	 * @param iValue The value that goes with the event.
+	 */
+	private void publish(int iType, int iValue) {
+		if(gebEvents != null) {
+			gebEvents.publish(iType, iValue);
+		}
+	}
+
+	/**
+	 * Gets the column a piece spawns in on this board. Spawn columns are
+	 * given for the standard board width, so they are moved along with the
+	 * center of the board; the built-in pieces end up at
+	 * {@code columns / 2 - dimension / 2}.
+	 * @param tltType The type of the piece.
+	 * @return The column.
+	 */
+	private int getSpawnColumn(TileType tltType) {
+		return tltType.getSpawnColumn() - (iCOL_COUNT >> 1)
+                        + (bbBoard.getColumnCount() >> 1);
+	}
+
+	/**
+	 * Attempts to set the rotation of the current piece to newRotation.
+	 * @param iNewRotation The rotation of the new peice.
+	 * @param bClockwise Whether the piece rotates clockwise.
+	 * @return Whether or not the piece rotated.
+	 */
+	private boolean rotatePiece(int iNewRotation, boolean bClockwise) {
+		int iNewColumn = iCurrentCol;
+		int iNewRow = iCurrentRow;
+
+		/*
+		 * The classic system moves the piece away from the edges first, so that
+		 * it doesn't clip out of the map and automatically become invalid (the
+		 * I piece is a good example of this).
+		 */
+		if(rtsRotation.isClamped()) {
+			int iDimension = tltCurrentType.getDimension();
+			int iCols = bbBoard.getColumnCount();
+			int iRows = bbBoard.getRowCount();
+			int iLeft = tltCurrentType.getLeftInset(iNewRotation);
+			int iRight = tltCurrentType.getRightInset(iNewRotation);
+			int iTop = tltCurrentType.getTopInset(iNewRotation);
+			int iBottom = tltCurrentType.getBottomInset(iNewRotation);
+
+			if(iCurrentCol < -iLeft) {
+				iNewColumn -= iCurrentCol - iLeft;
+			} else if(iCurrentCol + iDimension - iRight >= iCols) {
+				iNewColumn -= (iCurrentCol + iDimension - iRight)
+                                        - iCols + 1;
+			}
+
+			if(iCurrentRow < -iTop) {
+				iNewRow -= iCurrentRow - iTop;
+			} else if(iCurrentRow + iDimension - iBottom >= iRows) {
+				iNewRow -= (iCurrentRow + iDimension - iBottom)
+                                        - iRows + 1;
+			}
+		}
+
+		/*
+		 * Try each kick in order and take the first position that is acceptable.
+		 */
+		int[] iarrKicks = rtsRotation.getKicks(tltCurrentType,
+                        iCurrentRotation, bClockwise);
+		for(int iIndex = 0; iIndex < iarrKicks.length; iIndex += 2) {
+			int iCol = iNewColumn + iarrKicks[iIndex];
+			int iRow = iNewRow + iarrKicks[iIndex + 1];
+			if(bbBoard.isValidAndEmpty(tltCurrentType, iCol, iRow,
+                                iNewRotation)) {
+				iCurrentRotation = iNewRotation;
+				iCurrentRow = iRow;
+				iCurrentCol = iCol;
+				publish(GameEventBus.iEVENT_ROTATE, iCurrentRotation);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Restores the state saved by a previous game. The board itself is
+	 * restored separately, through the board.
+	 * @param iLevel The level.
+	 * @param iScore The score.
+	 * @param fGameSpeed The speed of the game.
+	 * @param tltNextType The next type of tile.
+	 * @param tltCurrentType The current type of tile.
+	 * @param boolIsNewGame Whether or not no game has been played yet.
+	 * @param boolIsGameOver Whether or not the game is over.
+	 */
+	public void restore(int iLevel, int iScore, float fGameSpeed,
+                TileType tltNextType, TileType tltCurrentType,
+                boolean boolIsNewGame, boolean boolIsGameOver) {
+		this.iLevel = iLevel;
+		this.iScore = iScore;
+		this.fGameSpeed = fGameSpeed;
+		this.tltNextType = tltNextType;
+		this.tltCurrentType = tltCurrentType;
+		this.boolIsNewGame = boolIsNewGame;
+		this.boolIsGameOver = boolIsGameOver;
+	}
+
+	/**
+	 * Gets the number of ints a snapshot of this engine needs besides the
+	 * board's masks and colors.
+	 * @return The number of ints.
+	 */
+	public int getStateSize() {
+		return iHEADER_SIZE + bbBoard.getStateSize()
+                        + pgnGenerator.getStateSize();
+	}
+
+	/**
+	 * Copies the whole state of the game into a snapshot.
+	 * @param gsnSnapshot The snapshot, created for this engine.
+	 */
+	public void save(GameSnapshot gsnSnapshot) {
+		int[] iarrInts = gsnSnapshot.getInts();
+		iarrInts[0] = iLevel;
+		iarrInts[1] = iScore;
+		iarrInts[2] = Float.floatToRawIntBits(fGameSpeed);
+		iarrInts[3] = iLinesCleared;
+		iarrInts[4] = (tltCurrentType == null) ? -1
+                        : tltCurrentType.getType();
+		iarrInts[5] = (tltNextType == null) ? -1 : tltNextType.getType();
+		iarrInts[6] = iCurrentCol;
+		iarrInts[7] = iCurrentRow;
+		iarrInts[8] = iCurrentRotation;
+		iarrInts[9] = (boolIsPaused ? iFLAG_PAUSED : 0)
+                        | (boolIsNewGame ? iFLAG_NEW_GAME : 0)
+                        | (boolIsGameOver ? iFLAG_GAME_OVER : 0);
+		GameSnapshot.putLong(iarrInts, 10, lGarbageState);
+
+		int iOffset = bbBoard.save(gsnSnapshot, iHEADER_SIZE);
+		pgnGenerator.saveState(iarrInts, iOffset);
+		gsnSnapshot.setTaken(true);
+	}
+
+	/**
+	 * Replaces the whole state of the game with a snapshot.
+	 * @param gsnSnapshot The snapshot, taken from this engine.
+	 */
+	public void restore(GameSnapshot gsnSnapshot) {
+		int[] iarrInts = gsnSnapshot.getInts();
+		if(iarrInts.length != getStateSize()) {
+			throw new IllegalArgumentException(
+                                "Snapshot taken from a different engine");
+		}
+		this.iLevel = iarrInts[0];
+		this.iScore = iarrInts[1];
+		this.fGameSpeed = Float.intBitsToFloat(iarrInts[2]);
+		this.iLinesCleared = iarrInts[3];
+		this.tltCurrentType = (iarrInts[4] < 0) ? null
+                        : tltarrTypes[iarrInts[4]];
+		this.tltNextType = (iarrInts[5] < 0) ? null
+                        : tltarrTypes[iarrInts[5]];
+		this.iCurrentCol = iarrInts[6];
+		this.iCurrentRow = iarrInts[7];
+		this.iCurrentRotation = iarrInts[8];
+		this.boolIsPaused = (iarrInts[9] & iFLAG_PAUSED) != 0;
+		this.boolIsNewGame = (iarrInts[9] & iFLAG_NEW_GAME) != 0;
+		this.boolIsGameOver = (iarrInts[9] & iFLAG_GAME_OVER) != 0;
+		this.lGarbageState = GameSnapshot.getLong(iarrInts, 10);
+
+		int iOffset = bbBoard.load(gsnSnapshot, iHEADER_SIZE);
+		pgnGenerator.loadState(iarrInts, iOffset);
+	}
+
+	/**
+	 * Pauses or unpauses the game. While paused, the piece can't be moved
+	 * and ticks are ignored.
+	 * @param boolPaused Whether or not to pause the game.
+	 */
+	public void setPaused(boolean boolPaused) {
+		if(boolPaused != boolIsPaused) {
+			this.boolIsPaused = boolPaused;
+			publish(GameEventBus.iEVENT_PAUSE, boolPaused ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Sets the bus the events of the game are published to.
+	 * @param gebEvents The bus, or null to stop publishing events.
+	 */
+	public void setEventBus(GameEventBus gebEvents) {
+		this.gebEvents = gebEvents;
+	}
+
+	/**
+	 * Gets the number of columns on the board.
+	 * @return The number of columns.
+	 */
+	public int getColumnCount() {
+		return bbBoard.getColumnCount();
+	}
+
+	/**
+	 * Gets the number of visible rows on the board.
+	 * @return The number of visible rows.
+	 */
+	public int getVisibleRowCount() {
+		return bbBoard.getRowCount() - iHIDDEN_ROW_COUNT;
+	}
+
+	/**
+	 * Gets the board the game is played on.
+	 * @return The board.
+	 */
+	public BitBoard getBoard() {
+		return bbBoard;
+	}
+
+	/**
+	 * Checks to see whether or not the game is paused.
+	 * @return Whether or not the game is paused.
+	 */
+	public boolean isPaused() {
+		return boolIsPaused;
+	}
+
+	/**
+	 * Checks to see whether or not the game is over.
+	 * @return Whether or not the game is over.
+	 */
+	public boolean isGameOver() {
+		return boolIsGameOver;
+	}
+
+	/**
+	 * Checks to see whether or not we're on a new game.
+	 * @return Whether or not this is a new game.
+	 */
+	public boolean isNewGame() {
+		return boolIsNewGame;
+	}
+
+	/**
+	 * Gets the current score.
+	 * @return The score.
+	 */
+	public int getScore() {
+		return iScore;
+	}
+
+	/**
+	 * Gets the current level.
+	 * @return The level.
+	 */
+	public int getLevel() {
+		return iLevel;
+	}
+
+	/**
+	 * Gets the speed of the game.
+	 * @return The number of gravity cycles per second.
+	 */
+	public float getGameSpeed() {
+		return fGameSpeed;
+	}
+
+	/**
+	 * Gets the number of lines cleared by the last piece that locked.
+	 * @return The number of lines.
+	 */
+	public int getLinesCleared() {
+		return iLinesCleared;
+	}
+
+	/**
+	 * Gets the current type of piece we're using.
+	 * @return The piece type.
+	 */
+	public TileType getPieceType() {
+		return tltCurrentType;
+	}
+
+	/**
+	 * Gets the next type of piece we're using.
+	 * @return The next piece.
+	 */
+	public TileType getNextPieceType() {
+		return tltNextType;
+	}
+
+	/**
+	 * Gets an upcoming piece. Index 0 is the next piece, and the rest come
+	 * from the generator's preview queue.
+	 * @param iIndex How far ahead to look, less than {@code getPreviewSize}.
+	 * @return The piece.
+	 */
+	public TileType getPreview(int iIndex) {
+		return (iIndex == 0) ? tltNextType : pgnGenerator.peek(iIndex - 1);
+	}
+
+	/**
+	 * Gets the number of upcoming pieces that can be previewed.
+	 * @return The number of pieces.
+	 */
+	public int getPreviewSize() {
+		return 1 + pgnGenerator.getPreviewSize();
+	}
+
+	/**
+	 * Gets the rotation system.
+	 * @return The rotation system.
+	 */
+	public RotationSystem getRotationSystem() {
+		return rtsRotation;
+	}
+
+	/**
+	 * Sets the rotation system used from the next rotation on.
+	 * @param rtsRotation The rotation system.
+	 */
+	public void setRotationSystem(RotationSystem rtsRotation) {
+		this.rtsRotation = rtsRotation;
+	}
+
+	/**
+	 * Gets the set of pieces being played.
+	 * @return The piece set.
+	 */
+	public PieceSet getPieceSet() {
+		return pgnGenerator.getPieceSet();
+	}
+
+	/**
+	 * Gets the generator that deals the pieces.
+	 * @return The generator.
+	 */
+	public PieceGenerator getGenerator() {
+		return pgnGenerator;
+	}
+
+	/**
+	 * Gets the column of the current piece.
+	 * @return The column.
+	 */
+	public int getPieceCol() {
+		return iCurrentCol;
+	}
+
+	/**
+	 * Gets the row of the current piece.
+	 * @return The row.
+	 */
+	public int getPieceRow() {
+		return iCurrentRow;
+	}
+
+	/**
+	 * Gets the rotation of the current piece.
+	 * @return The rotation.
+	 */
+	public int getPieceRotation() {
+		return iCurrentRotation;
+	}
+
+	/**
+	 * Gets a 64-bit key for the whole position: the board's Zobrist hash
+	 * combined with the type, rotation and position of the current piece.
+	 * Equal positions always have equal keys, and computing it takes
+	 * constant time.
+	 * @return The key.
+	 */
+	public long getPositionHash() {
+		long lHash = bbBoard.getHash();
+		if(tltCurrentType == null) {
+			return lHash;
+		}
+		long lPiece = ((long)tltCurrentType.getType() << 56)
+                        ^ ((long)iCurrentRotation << 48)
+                        ^ ((long)(iCurrentCol & 0xFFFFFF) << 24)
+                        ^ (iCurrentRow & 0xFFFFFF);
+		return lHash ^ BitBoard.mix(lPiece ^ 0xD6E8FEB86659FD93L);
+	}
+
+}
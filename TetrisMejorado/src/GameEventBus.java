@@ -0,0 +1,264 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code GameEventBus} class carries the events of a game from the thread
+ * that runs it to any number of listeners, each of which runs on a thread of
+ * it's own.
+ *
+ * Events are written into a ring of slots that is allocated up front, so
+ * publishing an event never allocates, never locks and never waits for a
+ * listener. Every event is packed into a single long together with part of
+ * it's sequence number, which lets a listener tell a fresh event from an old
+ * or half-written slot with one atomic read. Each listener keeps it's own
+ * position in the ring. A listener that falls a whole ring behind skips the
+ * events that were overwritten instead of holding the game back.
+ */
+public class GameEventBus {
+
+	/**
+	 * A new piece has spawned. The value is it's type.
+	 */
+	public static final int iEVENT_SPAWN = 0;
+
+	/**
+	 * The piece has moved sideways. The value is it's new column.
+	 */
+	public static final int iEVENT_MOVE = 1;
+
+	/**
+	 * The piece has rotated. The value is it's new rotation.
+	 */
+	public static final int iEVENT_ROTATE = 2;
+
+	/**
+	 * The piece has been locked onto the board. The value is it's type.
+	 */
+	public static final int iEVENT_LOCK = 3;
+
+	/**
+	 * Lines have been cleared. The value is the number of lines.
+	 */
+	public static final int iEVENT_LINES_CLEARED = 4;
+
+	/**
+	 * The level has gone up. The value is the new level.
+	 */
+	public static final int iEVENT_LEVEL_UP = 5;
+
+	/**
+	 * The game is over. The value is the final score.
+	 */
+	public static final int iEVENT_GAME_OVER = 6;
+
+	/**
+	 * The game has been paused or unpaused. The value is 1 when paused and
+	 * 0 when unpaused.
+	 */
+	public static final int iEVENT_PAUSE = 7;
+
+	/**
+	 * The number of slots in the ring, unless told otherwise.
+	 */
+	public static final int iDEFAULT_CAPACITY = 1024;
+
+	/**
+	 * The largest number of slots a ring can have, so that the part of the
+	 * sequence number kept in a slot still tells laps apart.
+	 */
+	private static final int iMAX_CAPACITY = 1 << 20;
+
+	/**
+	 * The number of bits of the sequence number kept in a slot.
+	 */
+	private static final int iTAG_BITS = 24;
+
+	/**
+	 * The mask of the bits of the sequence number kept in a slot.
+	 */
+	private static final long lTAG_MASK = (1L << iTAG_BITS) - 1;
+
+	/**
+	 * The longest time, in nanoseconds, a listener waits for an event before
+	 * checking the ring anyway.
+	 */
+	private static final long lIDLE_NANOS = 1000000000L;
+
+	/**
+	 * The ring of packed events.
+	 */
+	private final AtomicLongArray alarrSlots;
+
+	/**
+	 * The mask that turns a sequence number into a position in the ring.
+	 */
+	private final int iMask;
+
+	/**
+	 * The sequence number of the next event to be published.
+	 */
+	private final AtomicLong alNext;
+
+	/**
+	 * The consumers of every listener, replaced by a longer copy whenever
+	 * one subscribes.
+	 */
+	private volatile Consumer[] conarrConsumers;
+
+	/**
+	 * Creates a bus with an empty ring.
+	 * @param iCapacity The number of slots, a power of two. A listener can
+	 * fall this many events behind before it starts to miss them.
+	 */
+	public GameEventBus(int iCapacity) {
+		if(iCapacity < 2 || iCapacity > iMAX_CAPACITY
+                                || (iCapacity & (iCapacity - 1)) != 0) {
+			throw new IllegalArgumentException("Invalid capacity: "
+                                + iCapacity);
+		}
+		this.alarrSlots = new AtomicLongArray(iCapacity);
+		this.iMask = iCapacity - 1;
+		this.alNext = new AtomicLong();
+		this.conarrConsumers = new Consumer[0];
+
+		/*
+		 * Every slot starts out holding the event one lap before the first
+		 * one that will be written to it, so none of them looks published.
+		 */
+		for(int iIndex = 0; iIndex < iCapacity; iIndex++) {
+			alarrSlots.set(iIndex, pack(iIndex - iCapacity, 0, 0));
+		}
+	}
+
+	/**
+	 * Publishes an event to every listener. This never blocks, and can be
+	 * called from any thread. Listeners that have run out of events and are
+	 * parked are woken up.
+	 * @param iType One of the {@code iEVENT_} types.
+	 * @param iValue The value that goes with the event.
+	 */
+	public void publish(int iType, int iValue) {
+		long lSequence = alNext.getAndIncrement();
+		alarrSlots.set((int)lSequence & iMask, pack(lSequence, iType, iValue));
+		for(Consumer conConsumer : conarrConsumers) {
+			if(conConsumer.bWaiting) {
+				LockSupport.unpark(conConsumer.thrThread);
+			}
+		}
+	}
+
+	/**
+	 * Starts a listener on a thread of it's own. It only hears the events
+	 * published from now on.
+	 * @param sName The name of the thread.
+	 * @param gelListener The listener.
+	 */
+	public synchronized void subscribe(String sName,
+                GameEventListener gelListener) {
+		Consumer conConsumer = new Consumer(gelListener, alNext.get());
+		conConsumer.thrThread = new Thread(conConsumer, sName);
+		conConsumer.thrThread.setDaemon(true);
+
+		Consumer[] conarrMore = new Consumer[conarrConsumers.length + 1];
+		System.arraycopy(conarrConsumers, 0, conarrMore, 0,
+                        conarrConsumers.length);
+		conarrMore[conarrConsumers.length] = conConsumer;
+		this.conarrConsumers = conarrMore;
+		conConsumer.thrThread.start();
+	}
+
+	/**
+	 * Packs an event and the tag of it's sequence number into a long.
+	 * @param lSequence The sequence number.
+	 * @param iType The type.
+	 * @param iValue The value.
+	 * @return The packed event.
+	 */
+	private static long pack(long lSequence, int iType, int iValue) {
+		return ((lSequence & lTAG_MASK) << 40) | ((long)(iType & 0xFF) << 32)
+                        | (iValue & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * The {@code Consumer} class drains the ring for one listener.
+	 */
+	private class Consumer implements Runnable {
+
+		/**
+		 * The listener the events are handed to.
+		 */
+		private final GameEventListener gelListener;
+
+		/**
+		 * The sequence number of the next event to read.
+		 */
+		private long lCursor;
+
+		/**
+		 * The thread that drains the ring.
+		 */
+		private Thread thrThread;
+
+		/**
+		 * Whether or not the consumer has run out of events and is about to
+		 * park, so a new event has to wake it up.
+		 */
+		private volatile boolean bWaiting;
+
+		/**
+		 * Creates a consumer.
+		 * @param gelListener The listener.
+		 * @param lCursor The sequence number of the first event to read.
+		 */
+		private Consumer(GameEventListener gelListener, long lCursor) {
+			this.gelListener = gelListener;
+			this.lCursor = lCursor;
+		}
+
+		@Override
+		public void run() {
+			while(true) {
+				long lEvent = alarrSlots.get((int)lCursor & iMask);
+				if((lEvent >>> 40) == (lCursor & lTAG_MASK)) {
+					lCursor++;
+					dispatch((int)(lEvent >>> 32) & 0xFF, (int)lEvent);
+				} else if(alNext.get() - lCursor > alarrSlots.length()) {
+					/*
+					 * The slot has been written over by a later lap, so skip
+					 * to the oldest event that can still be read.
+					 */
+					lCursor = alNext.get() - alarrSlots.length();
+				} else {
+					/*
+					 * The event hasn't been published yet. Flag that we're
+					 * waiting before looking one last time, so an event
+					 * published meanwhile either gets seen or wakes us up.
+					 */
+					bWaiting = true;
+					if((alarrSlots.get((int)lCursor & iMask) >>> 40)
+                                                != (lCursor & lTAG_MASK)) {
+						LockSupport.parkNanos(this, lIDLE_NANOS);
+					}
+					bWaiting = false;
+				}
+			}
+		}
+
+		/**
+		 * Hands an event to the listener, so that an error in the listener
+		 * doesn't stop it from hearing the next ones.
+		 * @param iType The type.
+		 * @param iValue The value.
+		 */
+		private void dispatch(int iType, int iValue) {
+			try {
+				gelListener.onEvent(iType, iValue);
+			} catch(RuntimeException e) {
+				System.out.println("Error en " + e.toString());
+			}
+		}
+
+	}
+
+}
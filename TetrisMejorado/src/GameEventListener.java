@@ -0,0 +1,19 @@
+
+/**
+ * The {@code GameEventListener} interface is implemented by anything that
+ * reacts to what happens in a game, like the sounds, statistics or a replay
+ * recorder. Listeners are called by a {@code GameEventBus} on a thread of
+ * their own, never on the thread that runs the game, so a slow listener can
+ * only fall behind; it can't slow the game down.
+ */
+public interface GameEventListener {
+
+	/**
+	 * Handles an event.
+	 * @param iType One of the {@code GameEventBus.iEVENT_} types.
+	 * @param iValue The value that goes with the event, as described by it's
+	 * type.
+	 */
+	void onEvent(int iType, int iValue);
+
+}
@@ -0,0 +1,151 @@
+
+/**
+ * The {@code GameHistory} class remembers the last few states of a game so
+ * they can be rewound and replayed, one placement at a time.
+ *
+ * The states are kept in a ring of snapshots that are all allocated up
+ * front, so recording a state never allocates and the memory used stays the
+ * same however long the session is. Once the ring is full, recording a new
+ * state overwrites the oldest one. Undoing and redoing only move a cursor
+ * around the ring and restore the snapshot under it.
+ */
+public class GameHistory {
+
+	/**
+	 * The engine whose states are recorded.
+	 */
+	private final GameEngine gmeEngine;
+
+	/**
+	 * The ring of snapshots.
+	 */
+	private final GameSnapshot[] gsnarrRing;
+
+	/**
+	 * The position in the ring of the current state.
+	 */
+	private int iCurrent;
+
+	/**
+	 * The number of states that can be undone back to, the current one
+	 * included.
+	 */
+	private int iUndoCount;
+
+	/**
+	 * The number of states after the current one that can be redone.
+	 */
+	private int iRedoCount;
+
+	/**
+	 * Creates an empty history.
+	 * @param gmeEngine The engine whose states are recorded.
+	 * @param iUndoLimit The number of placements that can be undone.
+	 */
+	public GameHistory(GameEngine gmeEngine, int iUndoLimit) {
+		if(iUndoLimit < 1) {
+			throw new IllegalArgumentException("Invalid undo limit: "
+                                + iUndoLimit);
+		}
+		this.gmeEngine = gmeEngine;
+
+		/*
+		 * The current state takes a snapshot of it's own, on top of the ones
+		 * that can be gone back to.
+		 */
+		this.gsnarrRing = new GameSnapshot[iUndoLimit + 1];
+		for(int iIndex = 0; iIndex < gsnarrRing.length; iIndex++) {
+			gsnarrRing[iIndex] = new GameSnapshot(gmeEngine);
+		}
+		clear();
+	}
+
+	/**
+	 * Forgets every state.
+	 */
+	public void clear() {
+		this.iCurrent = 0;
+		this.iUndoCount = 0;
+		this.iRedoCount = 0;
+	}
+
+	/**
+	 * Records the current state of the engine, dropping the oldest state if
+	 * the ring is full and any states that had been undone.
+	 */
+	public void record() {
+		if(iUndoCount > 0) {
+			iCurrent = next(iCurrent);
+		}
+		gmeEngine.save(gsnarrRing[iCurrent]);
+		if(iUndoCount < gsnarrRing.length) {
+			iUndoCount++;
+		}
+		this.iRedoCount = 0;
+	}
+
+	/**
+	 * Goes back to the state recorded before the current one.
+	 * @return Whether or not there was a state to go back to.
+	 */
+	public boolean undo() {
+		if(iUndoCount < 2) {
+			return false;
+		}
+		iCurrent = previous(iCurrent);
+		iUndoCount--;
+		iRedoCount++;
+		gmeEngine.restore(gsnarrRing[iCurrent]);
+		return true;
+	}
+
+	/**
+	 * Goes forward to the state that was last undone.
+	 * @return Whether or not there was a state to go forward to.
+	 */
+	public boolean redo() {
+		if(iRedoCount == 0) {
+			return false;
+		}
+		iCurrent = next(iCurrent);
+		iUndoCount++;
+		iRedoCount--;
+		gmeEngine.restore(gsnarrRing[iCurrent]);
+		return true;
+	}
+
+	/**
+	 * Checks whether there is a state to go back to.
+	 * @return Whether or not {@code undo} would do anything.
+	 */
+	public boolean canUndo() {
+		return iUndoCount > 1;
+	}
+
+	/**
+	 * Checks whether there is a state to go forward to.
+	 * @return Whether or not {@code redo} would do anything.
+	 */
+	public boolean canRedo() {
+		return iRedoCount > 0;
+	}
+
+	/**
+	 * Gets the position after one in the ring.
+	 * @param iIndex The position.
+	 * @return The next position.
+	 */
+	private int next(int iIndex) {
+		return (iIndex + 1 == gsnarrRing.length) ? 0 : iIndex + 1;
+	}
+
+	/**
+	 * Gets the position before one in the ring.
+	 * @param iIndex The position.
+	 * @return The previous position.
+	 */
+	private int previous(int iIndex) {
+		return (iIndex == 0) ? gsnarrRing.length - 1 : iIndex - 1;
+	}
+
+}
@@ -0,0 +1,221 @@
+
+/**
+ * The {@code GameSnapshot} class holds a complete copy of the state of a
+ * game: the board, the falling piece, the score, the speed, the state of the
+ * piece generator and, optionally, the state of the clock driving it.
+ *
+ * Everything is packed into a handful of flat arrays that are allocated when
+ * the snapshot is created for an engine. Taking or restoring a snapshot is
+ * then a few {@code System.arraycopy} calls, which makes it cheap enough for
+ * undo, rollback, autosaving and searching ahead. Only the part of the board
+ * that holds tiles is copied, and the board buffers only grow, rarely, when
+ * the stack grows taller than it has ever been.
+ */
+public class GameSnapshot {
+
+	/**
+	 * The number of longs the state of a clock takes.
+	 */
+	public static final int iCLOCK_STATE_SIZE = 4;
+
+	/**
+	 * The occupancy masks of the board's storage slots, followed by their
+	 * content hashes.
+	 */
+	private long[] larrMasks;
+
+	/**
+	 * The number of longs of {@code larrMasks} in use.
+	 */
+	private int iMaskLength;
+
+	/**
+	 * The board's colors, stored slot by slot.
+	 */
+	private byte[] byarrColors;
+
+	/**
+	 * The number of bytes of {@code byarrColors} in use.
+	 */
+	private int iColorLength;
+
+	/**
+	 * The board's fill counters, free slots and row ring.
+	 */
+	private int[] iarrBoard;
+
+	/**
+	 * The number of ints of {@code iarrBoard} in use.
+	 */
+	private int iBoardLength;
+
+	/**
+	 * Every other int of the state, which always has the same size: the
+	 * board's skyline and counters, the engine's own fields and the
+	 * generator's state, one after the other.
+	 */
+	private final int[] iarrInts;
+
+	/**
+	 * The state of the clock.
+	 */
+	private final long[] larrClock;
+
+	/**
+	 * Whether or not the snapshot holds any state yet.
+	 */
+	private boolean bTaken;
+
+	/**
+	 * Creates an empty snapshot with room for the state of an engine.
+	 * @param gmeEngine The engine the snapshot is for.
+	 */
+	public GameSnapshot(GameEngine gmeEngine) {
+		BitBoard bbBoard = gmeEngine.getBoard();
+		int iSlots = bbBoard.getSlotCapacity();
+		this.larrMasks = new long[iSlots << 1];
+		this.byarrColors = new byte[iSlots * bbBoard.getColumnCount()];
+		this.iarrBoard = new int[iSlots << 1];
+		this.iarrInts = new int[gmeEngine.getStateSize()];
+		this.larrClock = new long[iCLOCK_STATE_SIZE];
+	}
+
+	/**
+	 * Copies another snapshot of the same engine into this one.
+	 * @param gsnOther The snapshot to copy.
+	 */
+	public void copyFrom(GameSnapshot gsnOther) {
+		System.arraycopy(gsnOther.larrMasks, 0, getMasks(gsnOther.iMaskLength),
+                        0, iMaskLength);
+		System.arraycopy(gsnOther.byarrColors, 0,
+                        getColors(gsnOther.iColorLength), 0, iColorLength);
+		System.arraycopy(gsnOther.iarrBoard, 0,
+                        getBoardInts(gsnOther.iBoardLength), 0, iBoardLength);
+		System.arraycopy(gsnOther.iarrInts, 0, iarrInts, 0, iarrInts.length);
+		System.arraycopy(gsnOther.larrClock, 0, larrClock, 0,
+                        larrClock.length);
+		this.bTaken = gsnOther.bTaken;
+	}
+
+	/**
+	 * Gets the buffer holding the board's slot masks and hashes.
+	 * @return The buffer.
+	 */
+	long[] getMasks() {
+		return larrMasks;
+	}
+
+	/**
+	 * Gets the buffer holding the board's slot masks and hashes, making sure
+	 * it's big enough.
+	 * @param iLength The number of longs about to be written.
+	 * @return The buffer.
+	 */
+	long[] getMasks(int iLength) {
+		if(iLength > larrMasks.length) {
+			larrMasks = new long[iLength << 1];
+		}
+		this.iMaskLength = iLength;
+		return larrMasks;
+	}
+
+	/**
+	 * Gets the buffer holding the board's colors.
+	 * @return The buffer.
+	 */
+	byte[] getColors() {
+		return byarrColors;
+	}
+
+	/**
+	 * Gets the buffer holding the board's colors, making sure it's big
+	 * enough.
+	 * @param iLength The number of bytes about to be written.
+	 * @return The buffer.
+	 */
+	byte[] getColors(int iLength) {
+		if(iLength > byarrColors.length) {
+			byarrColors = new byte[iLength << 1];
+		}
+		this.iColorLength = iLength;
+		return byarrColors;
+	}
+
+	/**
+	 * Gets the buffer holding the board's fill counters, free slots and row
+	 * ring.
+	 * @return The buffer.
+	 */
+	int[] getBoardInts() {
+		return iarrBoard;
+	}
+
+	/**
+	 * Gets the buffer holding the board's fill counters, free slots and row
+	 * ring, making sure it's big enough.
+	 * @param iLength The number of ints about to be written.
+	 * @return The buffer.
+	 */
+	int[] getBoardInts(int iLength) {
+		if(iLength > iarrBoard.length) {
+			iarrBoard = new int[iLength << 1];
+		}
+		this.iBoardLength = iLength;
+		return iarrBoard;
+	}
+
+	/**
+	 * Gets the buffer holding the rest of the state.
+	 * @return The buffer.
+	 */
+	int[] getInts() {
+		return iarrInts;
+	}
+
+	/**
+	 * Gets the buffer holding the state of the clock.
+	 * @return The buffer.
+	 */
+	long[] getClockState() {
+		return larrClock;
+	}
+
+	/**
+	 * Checks whether the snapshot holds any state yet.
+	 * @return Whether or not a snapshot has been taken into it.
+	 */
+	public boolean isTaken() {
+		return bTaken;
+	}
+
+	/**
+	 * Marks the snapshot as holding state, or as empty.
+	 * @param bTaken Whether or not a snapshot has been taken into it.
+	 */
+	void setTaken(boolean bTaken) {
+		this.bTaken = bTaken;
+	}
+
+	/**
+	 * Stores a long as two consecutive ints.
+	 * @param iarrBuffer The buffer.
+	 * @param iOffset The position of the first int.
+	 * @param lValue The value.
+	 */
+	static void putLong(int[] iarrBuffer, int iOffset, long lValue) {
+		iarrBuffer[iOffset] = (int)(lValue >>> 32);
+		iarrBuffer[iOffset + 1] = (int)lValue;
+	}
+
+	/**
+	 * Reads a long stored with {@code putLong}.
+	 * @param iarrBuffer The buffer.
+	 * @param iOffset The position of the first int.
+	 * @return The value.
+	 */
+	static long getLong(int[] iarrBuffer, int iOffset) {
+		return ((long)iarrBuffer[iOffset] << 32)
+                        | (iarrBuffer[iOffset + 1] & 0xFFFFFFFFL);
+	}
+
+}
@@ -0,0 +1,119 @@
+
+/**
+ * The {@code HistoryPieceGenerator} class remembers the last few pieces it
+ * dealt and rerolls a limited number of times when it picks one of them,
+ * which makes repeats rare without making the sequence predictable.
+ */
+public class HistoryPieceGenerator extends AbstractPieceGenerator {
+
+	/**
+	 * The number of pieces remembered.
+	 */
+	public static final int iHISTORY_SIZE = 4;
+
+	/**
+	 * The number of times to reroll a piece found in the history.
+	 */
+	public static final int iREROLLS = 4;
+
+	/**
+	 * The last pieces dealt, stored as a ring of piece indices.
+	 */
+	private final int[] iarrHistory;
+
+	/**
+	 * The position of the oldest piece in the history.
+	 */
+	private int iOldest;
+
+	/**
+	 * Creates a new history generator that deals the built-in pieces.
+	 * @param lSeed The seed.
+	 * @param iPreviewSize The number of upcoming pieces to keep.
+	 */
+	public HistoryPieceGenerator(long lSeed, int iPreviewSize) {
+		this(PieceSet.CLASSIC, lSeed, iPreviewSize);
+	}
+
+	/**
+	 * Creates a new history generator.
+	 * @param pstPieces The set to deal pieces from.
+	 * @param lSeed The seed.
+	 * @param iPreviewSize The number of upcoming pieces to keep.
+	 */
+	public HistoryPieceGenerator(PieceSet pstPieces, long lSeed, int iPreviewSize) {
+		super(pstPieces, lSeed, iPreviewSize);
+		this.iarrHistory = new int[iHISTORY_SIZE];
+		start();
+	}
+
+	@Override
+	protected void restart() {
+		/*
+		 * Start with a history full of the S and Z pieces, so the very first
+		 * piece is unlikely to be one of them. Sets without them start with
+		 * an empty history.
+		 */
+		int iS = getTypeNumber("S");
+		int iZ = getTypeNumber("Z");
+		for(int iIndex = 0; iIndex < iarrHistory.length; iIndex++) {
+			iarrHistory[iIndex] = (iIndex % 2 == 0) ? iS : iZ;
+		}
+		this.iOldest = 0;
+	}
+
+	@Override
+	protected int getExtraStateSize() {
+		return iarrHistory.length + 1;
+	}
+
+	@Override
+	protected void saveExtraState(int[] iarrState, int iOffset) {
+		System.arraycopy(iarrHistory, 0, iarrState, iOffset,
+                        iarrHistory.length);
+		iarrState[iOffset + iarrHistory.length] = iOldest;
+	}
+
+	@Override
+	protected void loadExtraState(int[] iarrState, int iOffset) {
+		System.arraycopy(iarrState, iOffset, iarrHistory, 0,
+                        iarrHistory.length);
+		this.iOldest = iarrState[iOffset + iarrHistory.length];
+	}
+
+	@Override
+	protected int generate() {
+		int iPiece = nextInt(iTypeCount);
+		for(int iRoll = 0; iRoll < iREROLLS && inHistory(iPiece); iRoll++) {
+			iPiece = nextInt(iTypeCount);
+		}
+		iarrHistory[iOldest] = iPiece;
+		iOldest = (iOldest + 1) % iarrHistory.length;
+		return iPiece;
+	}
+
+	/**
+	 * Finds the type number of a piece of the set by name.
+	 * @param sName The name of the piece.
+	 * @return The type number, or -1 if the set doesn't have the piece.
+	 */
+	private int getTypeNumber(String sName) {
+		TileType tltType = getPieceSet().find(sName);
+		return (tltType == null) ? -1 : tltType.getType();
+	}
+
+	/**
+	 * Checks whether a piece is one of the last ones dealt.
+	 * @param iPiece The piece index.
+	 * @return Whether or not it's in the history.
+	 */
+	private boolean inHistory(int iPiece) {
+		for(int iIndex = 0; iIndex < iarrHistory.length; iIndex++) {
+			if(iarrHistory[iIndex] == iPiece) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,152 @@
+
+/**
+ * The {@code InputQueue} class hands key presses and releases from the
+ * thread that receives them over to the thread that runs the game, so the
+ * game's state is only ever changed from one thread.
+ *
+ * It is a ring of slots allocated up front, written by exactly one thread
+ * and read by exactly one other. Each side only ever writes it's own
+ * position in the ring and reads the other's, so neither needs a lock, and
+ * queueing a key never allocates. Every key carries the time it was
+ * received, so the game can judge it by when it happened rather than by when
+ * it got around to reading it.
+ */
+public class InputQueue {
+
+	/**
+	 * The number of slots in the ring, unless told otherwise.
+	 */
+	public static final int iDEFAULT_CAPACITY = 256;
+
+	/**
+	 * The key codes, shifted left by one, with the lowest bit set for a
+	 * press and clear for a release.
+	 */
+	private final int[] iarrKeys;
+
+	/**
+	 * The times the keys were received, in nanoseconds.
+	 */
+	private final long[] larrTimes;
+
+	/**
+	 * The mask that turns a position into an index in the ring.
+	 */
+	private final int iMask;
+
+	/**
+	 * The position of the next key to be read. Only written by the reader.
+	 */
+	private volatile long lHead;
+
+	/**
+	 * The position of the next key to be written. Only written by the
+	 * writer.
+	 */
+	private volatile long lTail;
+
+	/**
+	 * The key code of the last key read.
+	 */
+	private int iKeyCode;
+
+	/**
+	 * Whether the last key read was pressed rather than released.
+	 */
+	private boolean bPressed;
+
+	/**
+	 * The time the last key read was received, in nanoseconds.
+	 */
+	private long lTime;
+
+	/**
+	 * Creates an empty queue.
+	 * @param iCapacity The number of slots, a power of two.
+	 */
+	public InputQueue(int iCapacity) {
+		if(iCapacity < 2 || (iCapacity & (iCapacity - 1)) != 0) {
+			throw new IllegalArgumentException("Invalid capacity: "
+                                + iCapacity);
+		}
+		this.iarrKeys = new int[iCapacity];
+		this.larrTimes = new long[iCapacity];
+		this.iMask = iCapacity - 1;
+	}
+
+	/**
+	 * Adds a key to the queue. Only the writing thread may call this.
+	 * @param iKeyCode The key code.
+	 * @param bPressed Whether the key was pressed rather than released.
+	 * @param lTime The time the key was received, in nanoseconds.
+	 * @return Whether or not there was room for the key. If the game has
+	 * fallen that far behind, the key is dropped.
+	 */
+	public boolean offer(int iKeyCode, boolean bPressed, long lTime) {
+		long lPosition = lTail;
+		if(lPosition - lHead == iarrKeys.length) {
+			return false;
+		}
+		int iIndex = (int)lPosition & iMask;
+		iarrKeys[iIndex] = (iKeyCode << 1) | (bPressed ? 1 : 0);
+		larrTimes[iIndex] = lTime;
+
+		//Publishes the slot to the reader.
+		this.lTail = lPosition + 1;
+		return true;
+	}
+
+	/**
+	 * Takes the oldest key out of the queue, to be looked at through
+	 * {@code getKeyCode}, {@code isPressed} and {@code getTime}. Only the
+	 * reading thread may call this.
+	 * @return Whether or not there was a key to take.
+	 */
+	public boolean poll() {
+		long lPosition = lHead;
+		if(lPosition == lTail) {
+			return false;
+		}
+		int iIndex = (int)lPosition & iMask;
+		this.iKeyCode = iarrKeys[iIndex] >> 1;
+		this.bPressed = (iarrKeys[iIndex] & 1) != 0;
+		this.lTime = larrTimes[iIndex];
+
+		//Hands the slot back to the writer.
+		this.lHead = lPosition + 1;
+		return true;
+	}
+
+	/**
+	 * Checks whether there are no keys waiting to be taken.
+	 * @return Whether or not the queue is empty.
+	 */
+	public boolean isEmpty() {
+		return lHead == lTail;
+	}
+
+	/**
+	 * Gets the key code of the last key taken by {@code poll}.
+	 * @return The key code.
+	 */
+	public int getKeyCode() {
+		return iKeyCode;
+	}
+
+	/**
+	 * Checks whether the last key taken by {@code poll} was pressed.
+	 * @return Whether the key was pressed rather than released.
+	 */
+	public boolean isPressed() {
+		return bPressed;
+	}
+
+	/**
+	 * Gets the time the last key taken by {@code poll} was received.
+	 * @return The time, in nanoseconds.
+	 */
+	public long getTime() {
+		return lTime;
+	}
+
+}
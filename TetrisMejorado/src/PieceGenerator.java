@@ -0,0 +1,70 @@
+
+/**
+ * The {@code PieceGenerator} interface describes where the game gets it's
+ * pieces from. Implementations are deterministic for a given seed, so the
+ * same seed always deals the same sequence of pieces, and they keep a queue
+ * of upcoming pieces that can be previewed without being consumed.
+ */
+public interface PieceGenerator {
+
+	/**
+	 * Takes the next piece out of the queue.
+	 * @return The piece.
+	 */
+	TileType next();
+
+	/**
+	 * Looks at an upcoming piece without taking it out of the queue.
+	 * @param iIndex How far ahead to look; 0 is the piece that {@code next}
+	 * will return.
+	 * @return The piece.
+	 */
+	TileType peek(int iIndex);
+
+	/**
+	 * Gets the number of upcoming pieces that can be previewed.
+	 * @return The size of the preview queue.
+	 */
+	int getPreviewSize();
+
+	/**
+	 * Gets the set the pieces are dealt from.
+	 * @return The piece set.
+	 */
+	PieceSet getPieceSet();
+
+	/**
+	 * Restarts the sequence from a seed.
+	 * @param lSeed The seed.
+	 */
+	void reset(long lSeed);
+
+	/**
+	 * Gets the seed the current sequence was started from.
+	 * @return The seed.
+	 */
+	long getSeed();
+
+	/**
+	 * Gets the number of ints {@code saveState} writes.
+	 * @return The number of ints.
+	 */
+	int getStateSize();
+
+	/**
+	 * Copies the whole state of the generator (the random number generator,
+	 * the queue and anything the generator remembers) into a buffer.
+	 * @param iarrState The buffer.
+	 * @param iOffset Where to start writing.
+	 */
+	void saveState(int[] iarrState, int iOffset);
+
+	/**
+	 * Replaces the whole state of the generator with one copied by
+	 * {@code saveState}.
+	 * @param iarrState The buffer.
+	 * @param iOffset Where to start reading.
+	 */
+	void loadState(int[] iarrState, int iOffset);
+
+}
@@ -0,0 +1,256 @@
+
+/**
+ * The {@code PieceGeometry} class holds the precompiled geometry of a piece
+ * in each of it's rotations. Everything is computed once when the piece is
+ * created, so every lookup afterwards is a plain array read with no loops
+ * and no allocation.
+ */
+public class PieceGeometry {
+
+	/**
+	 * The number of rotations every piece has.
+	 */
+	public static final int iROTATION_COUNT = 4;
+
+	/**
+	 * The dimensions of the tile array of the piece.
+	 */
+	private final int iDimension;
+
+	/**
+	 * The tiles of the piece, indexed by rotation and then by
+	 * {@code row * dimension + column}.
+	 */
+	private final boolean[][] boolmatTiles;
+
+	/**
+	 * The row masks for each rotation. Bit {@code n} of a mask is set when
+	 * column {@code n} of that row of the piece contains a tile.
+	 */
+	private final long[][] lmatRowMasks;
+
+	/**
+	 * The number of empty columns on the left side, for each rotation.
+	 */
+	private final int[] iarrLeftInsets;
+
+	/**
+	 * The right insets for each rotation (see {@code getRightInset}).
+	 */
+	private final int[] iarrRightInsets;
+
+	/**
+	 * The number of empty rows on the top side, for each rotation.
+	 */
+	private final int[] iarrTopInsets;
+
+	/**
+	 * The bottom insets for each rotation (see {@code getBottomInset}).
+	 */
+	private final int[] iarrBottomInsets;
+
+	/**
+	 * The tiles of each rotation as a list of {@code row * dimension + column}
+	 * indices, sorted from the top left corner.
+	 */
+	private final int[][] iarrCells;
+
+	/**
+	 * The lowest row with a tile in each column of each rotation, or -1 if the
+	 * column is empty.
+	 */
+	private final int[][] iarrColumnBottoms;
+
+	/**
+	 * The highest row with a tile in each column of each rotation, or -1 if
+	 * the column is empty.
+	 */
+	private final int[][] iarrColumnTops;
+
+	/**
+	 * Compiles the geometry of a piece.
+	 * @param iDimension The dimensions of the tile array.
+	 * @param boolmatTiles The tiles, indexed by rotation and then by
+	 * {@code row * dimension + column}.
+	 */
+	public PieceGeometry(int iDimension, boolean[][] boolmatTiles) {
+		if(iDimension < 1 || iDimension > Long.SIZE) {
+			throw new IllegalArgumentException("Invalid dimension: "
+                                + iDimension);
+		}
+		this.iDimension = iDimension;
+		this.boolmatTiles = boolmatTiles;
+		this.lmatRowMasks = new long[iROTATION_COUNT][iDimension];
+		this.iarrLeftInsets = new int[iROTATION_COUNT];
+		this.iarrRightInsets = new int[iROTATION_COUNT];
+		this.iarrTopInsets = new int[iROTATION_COUNT];
+		this.iarrBottomInsets = new int[iROTATION_COUNT];
+		this.iarrCells = new int[iROTATION_COUNT][];
+		this.iarrColumnBottoms = new int[iROTATION_COUNT][iDimension];
+		this.iarrColumnTops = new int[iROTATION_COUNT][iDimension];
+
+		for(int iRotation = 0; iRotation < iROTATION_COUNT; iRotation++) {
+			compile(iRotation);
+		}
+	}
+
+	/**
+	 * Builds every table for a single rotation.
+	 * @param iRotation The rotation.
+	 */
+	private void compile(int iRotation) {
+		boolean[] boolarrTiles = boolmatTiles[iRotation];
+		int iMinCol = iDimension;
+		int iMaxCol = -1;
+		int iMinRow = iDimension;
+		int iMaxRow = -1;
+		int iCount = 0;
+
+		int[] iarrBottoms = iarrColumnBottoms[iRotation];
+		int[] iarrTops = iarrColumnTops[iRotation];
+		for(int iCol = 0; iCol < iDimension; iCol++) {
+			iarrBottoms[iCol] = -1;
+			iarrTops[iCol] = -1;
+		}
+
+		for(int iRow = 0; iRow < iDimension; iRow++) {
+			for(int iCol = 0; iCol < iDimension; iCol++) {
+				if(!boolarrTiles[iRow * iDimension + iCol]) {
+					continue;
+				}
+				lmatRowMasks[iRotation][iRow] |= 1L << iCol;
+				iMinCol = Math.min(iMinCol, iCol);
+				iMaxCol = Math.max(iMaxCol, iCol);
+				iMinRow = Math.min(iMinRow, iRow);
+				iMaxRow = Math.max(iMaxRow, iRow);
+				if(iarrTops[iCol] == -1) {
+					iarrTops[iCol] = iRow;
+				}
+				iarrBottoms[iCol] = iRow;
+				iCount++;
+			}
+		}
+
+		int[] iarrList = new int[iCount];
+		int iNext = 0;
+		for(int iIndex = 0; iIndex < boolarrTiles.length; iIndex++) {
+			if(boolarrTiles[iIndex]) {
+				iarrList[iNext++] = iIndex;
+			}
+		}
+		iarrCells[iRotation] = iarrList;
+
+		/*
+		 * The insets keep the conventions of the original scanning code: an
+		 * empty rotation reports -1, and the right and bottom insets count
+		 * the last occupied column or row as well.
+		 */
+		boolean bEmpty = (iCount == 0);
+		iarrLeftInsets[iRotation] = bEmpty ? -1 : iMinCol;
+		iarrRightInsets[iRotation] = bEmpty ? -1 : iDimension - iMaxCol;
+		iarrTopInsets[iRotation] = bEmpty ? -1 : iMinRow;
+		iarrBottomInsets[iRotation] = bEmpty ? -1 : iDimension - iMaxRow;
+	}
+
+	/**
+	 * Gets the dimension of the tile array.
+	 * @return The dimension.
+	 */
+	public int getDimension() {
+		return iDimension;
+	}
+
+	/**
+	 * Checks to see if the given coordinates and rotation contain a tile.
+	 * @param iX The x coordinate of the tile.
+	 * @param iY The y coordinate of the tile.
+	 * @param iRotation The rotation to check in.
+	 * @return Whether or not a tile resides there.
+	 */
+	public boolean isTile(int iX, int iY, int iRotation) {
+		return boolmatTiles[iRotation][iY * iDimension + iX];
+	}
+
+	/**
+	 * Gets the row masks of a rotation. The returned array is shared and
+	 * must not be modified.
+	 * @param iRotation The rotation.
+	 * @return The row masks, one per row of the tile array.
+	 */
+	public long[] getRowMasks(int iRotation) {
+		return lmatRowMasks[iRotation];
+	}
+
+	/**
+	 * The left inset is represented by the number of empty columns on the left
+	 * side of the array for the given rotation.
+	 * @param iRotation The rotation.
+	 * @return The left inset.
+	 */
+	public int getLeftInset(int iRotation) {
+		return iarrLeftInsets[iRotation];
+	}
+
+	/**
+	 * The right inset is the dimension minus the index of the last column
+	 * that contains a tile for the given rotation.
+	 * @param iRotation The rotation.
+	 * @return The right inset.
+	 */
+	public int getRightInset(int iRotation) {
+		return iarrRightInsets[iRotation];
+	}
+
+	/**
+	 * The top inset is represented by the number of empty rows on the top
+	 * side of the array for the given rotation.
+	 * @param iRotation The rotation.
+	 * @return The top inset.
+	 */
+	public int getTopInset(int iRotation) {
+		return iarrTopInsets[iRotation];
+	}
+
+	/**
+	 * The bottom inset is the dimension minus the index of the last row that
+	 * contains a tile for the given rotation.
+	 * @param iRotation The rotation.
+	 * @return The bottom inset.
+	 */
+	public int getBottomInset(int iRotation) {
+		return iarrBottomInsets[iRotation];
+	}
+
+	/**
+	 * Gets the tiles of a rotation as {@code row * dimension + column}
+	 * indices. The returned array is shared and must not be modified.
+	 * @param iRotation The rotation.
+	 * @return The cell list.
+	 */
+	public int[] getCells(int iRotation) {
+		return iarrCells[iRotation];
+	}
+
+	/**
+	 * Gets the lowest row containing a tile for each column of a rotation,
+	 * or -1 for empty columns. The returned array is shared and must not be
+	 * modified.
+	 * @param iRotation The rotation.
+	 * @return The bottom offsets, one per column of the tile array.
+	 */
+	public int[] getColumnBottoms(int iRotation) {
+		return iarrColumnBottoms[iRotation];
+	}
+
+	/**
+	 * Gets the highest row containing a tile for each column of a rotation,
+	 * or -1 for empty columns. The returned array is shared and must not be
+	 * modified.
+	 * @param iRotation The rotation.
+	 * @return The top offsets, one per column of the tile array.
+	 */
+	public int[] getColumnTops(int iRotation) {
+		return iarrColumnTops[iRotation];
+	}
+
+}
@@ -0,0 +1,393 @@
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code PieceSet} class is the registry of the pieces a game is played
+ * with. The classic set holds the seven built-in tetrominoes; any other set
+ * is loaded from a resource file and compiled once, when it's loaded, into
+ * the same mask and inset tables the built-in pieces use, so collisions cost
+ * exactly the same no matter which set is being played.
+ *
+ * A piece file holds one or more pieces. Blank lines and lines starting with
+ * {@code #} are ignored. Each piece starts with {@code piece <name>}, may
+ * set {@code color <red> <green> <blue>} and {@code spawn <column> <row>},
+ * and then lists one to four square grids, one per rotation, each one
+ * starting with {@code rotation} and using {@code X} for tiles and {@code .}
+ * for empty cells. Rotations that aren't listed are made by turning the last
+ * one listed clockwise. Pieces can be up to 5x5.
+ */
+public class PieceSet {
+
+	/**
+	 * The largest dimension a piece can have.
+	 */
+	public static final int iMAX_DIMENSION = 5;
+
+	/**
+	 * The largest number of pieces a set can have, since the board stores
+	 * the type of every tile in a byte. The number after the last one is
+	 * taken by {@code TileType.TypeGarbage}.
+	 */
+	public static final int iMAX_TYPE_COUNT = 254;
+
+	/**
+	 * The seven built-in tetrominoes.
+	 */
+	public static final PieceSet CLASSIC = new PieceSet("classic",
+                TileType.values());
+
+	/**
+	 * The name of the set.
+	 */
+	private final String sName;
+
+	/**
+	 * The pieces, in the order of their type numbers.
+	 */
+	private final TileType[] tltarrTypes;
+
+	/**
+	 * The largest dimension of any piece in the set.
+	 */
+	private final int iMaxDimension;
+
+	/**
+	 * Creates a new set.
+	 * @param sName The name of the set.
+	 * @param tltarrTypes The pieces, in the order of their type numbers.
+	 */
+	public PieceSet(String sName, TileType[] tltarrTypes) {
+		if(tltarrTypes.length == 0
+                        || tltarrTypes.length > iMAX_TYPE_COUNT) {
+			throw new IllegalArgumentException("Invalid piece count: "
+                                + tltarrTypes.length);
+		}
+		int iMax = 0;
+		for(int iIndex = 0; iIndex < tltarrTypes.length; iIndex++) {
+			if(tltarrTypes[iIndex].getType() != iIndex) {
+				throw new IllegalArgumentException("Piece "
+                                        + tltarrTypes[iIndex].getName()
+                                        + " is out of order");
+			}
+			iMax = Math.max(iMax, tltarrTypes[iIndex].getDimension());
+		}
+		this.sName = sName;
+		this.tltarrTypes = tltarrTypes;
+		this.iMaxDimension = iMax;
+	}
+
+	/**
+	 * Gets a piece set by name: "classic" for the built-in pieces, or the
+	 * name of a piece file resource.
+	 * @param sName The name of the set.
+	 * @return The set.
+	 * @throws IOException If the resource can't be read or isn't valid.
+	 */
+	public static PieceSet forName(String sName) throws IOException {
+		if(sName == null || "classic".equals(sName)) {
+			return CLASSIC;
+		}
+		return load(sName);
+	}
+
+	/**
+	 * Loads a piece set from a resource file.
+	 * @param sResource The name of the resource.
+	 * @return The set.
+	 * @throws IOException If the resource can't be read or isn't valid.
+	 */
+	public static PieceSet load(String sResource) throws IOException {
+		InputStream istInput = PieceSet.class.getResourceAsStream(sResource);
+		if(istInput == null) {
+			throw new IOException("Piece set not found: " + sResource);
+		}
+		try(BufferedReader brdReader = new BufferedReader(
+                        new InputStreamReader(istInput,
+                        StandardCharsets.UTF_8))) {
+			return parse(sResource, brdReader);
+		}
+	}
+
+	/**
+	 * Reads every piece definition and compiles it.
+	 * @param sName The name of the set.
+	 * @param brdReader Where to read the definitions from.
+	 * @return The set.
+	 * @throws IOException If the definitions can't be read or aren't valid.
+	 */
+	private static PieceSet parse(String sName, BufferedReader brdReader)
+                throws IOException {
+		List<TileType> lstTypes = new ArrayList<>();
+		List<String> lstRows = new ArrayList<>();
+		List<boolean[]> lstRotations = new ArrayList<>();
+		String sPiece = null;
+		Color colColor = Color.GRAY;
+		int[] iarrSpawn = null;
+		int iLine = 0;
+
+		String sLine;
+		while(true) {
+			sLine = brdReader.readLine();
+			iLine++;
+			String sTrimmed = (sLine == null) ? null : sLine.trim();
+			boolean bGridLine = sTrimmed != null && !sTrimmed.isEmpty()
+                                && (sTrimmed.charAt(0) == 'X'
+                                || sTrimmed.charAt(0) == '.');
+
+			//A grid ends on the first line that isn't part of it.
+			if(!bGridLine && !lstRows.isEmpty()) {
+				lstRotations.add(toGrid(lstRows, iLine));
+				lstRows.clear();
+			}
+
+			boolean bNewPiece = sTrimmed == null
+                                || sTrimmed.startsWith("piece ");
+			if(bNewPiece && sPiece != null) {
+				lstTypes.add(compile(sPiece, colColor, iarrSpawn,
+                                        lstRotations, lstTypes.size(), iLine));
+				lstRotations.clear();
+				colColor = Color.GRAY;
+				iarrSpawn = null;
+			}
+			if(sTrimmed == null) {
+				break;
+			}
+			if(sTrimmed.isEmpty() || sTrimmed.startsWith("#")) {
+				continue;
+			}
+
+			if(bNewPiece) {
+				sPiece = sTrimmed.substring(6).trim();
+			} else if(sPiece == null) {
+				throw error("Expected a piece", iLine);
+			} else if(bGridLine) {
+				lstRows.add(sTrimmed);
+			} else if(sTrimmed.startsWith("color ")) {
+				int[] iarrRgb = parseInts(sTrimmed, 3, iLine);
+				colColor = new Color(iarrRgb[0], iarrRgb[1], iarrRgb[2]);
+			} else if(sTrimmed.startsWith("spawn ")) {
+				iarrSpawn = parseInts(sTrimmed, 2, iLine);
+			} else if(!sTrimmed.equals("rotation")) {
+				throw error("Unknown line: " + sTrimmed, iLine);
+			}
+		}
+		return new PieceSet(sName,
+                        lstTypes.toArray(new TileType[lstTypes.size()]));
+	}
+
+	/**
+	 * Turns the lines of a grid into a flat tile array.
+	 * @param lstRows The lines of the grid.
+	 * @param iLine The line the grid ended on, for error messages.
+	 * @return The tiles, indexed by {@code row * dimension + column}.
+	 * @throws IOException If the grid isn't square or is too big.
+	 */
+	private static boolean[] toGrid(List<String> lstRows, int iLine)
+                throws IOException {
+		int iDimension = lstRows.size();
+		if(iDimension > iMAX_DIMENSION) {
+			throw error("Pieces can be at most " + iMAX_DIMENSION + "x"
+                                + iMAX_DIMENSION, iLine);
+		}
+		boolean[] boolarrTiles = new boolean[iDimension * iDimension];
+		for(int iRow = 0; iRow < iDimension; iRow++) {
+			String sRow = lstRows.get(iRow);
+			if(sRow.length() != iDimension) {
+				throw error("Rotations must be square", iLine);
+			}
+			for(int iCol = 0; iCol < iDimension; iCol++) {
+				boolarrTiles[iRow * iDimension + iCol]
+                                        = sRow.charAt(iCol) == 'X';
+			}
+		}
+		return boolarrTiles;
+	}
+
+	/**
+	 * Builds a piece from it's definition, filling in the missing rotations.
+	 * @param sName The name of the piece.
+	 * @param colColor The base color.
+	 * @param iarrSpawn The spawn column and row, or null for the default.
+	 * @param lstRotations The rotations that were listed.
+	 * @param iType The type number of the piece.
+	 * @param iLine The current line, for error messages.
+	 * @return The piece.
+	 * @throws IOException If the definition isn't valid.
+	 */
+	private static TileType compile(String sName, Color colColor,
+                int[] iarrSpawn, List<boolean[]> lstRotations, int iType,
+                int iLine) throws IOException {
+		int iCount = lstRotations.size();
+		if(iCount == 0 || iCount > PieceGeometry.iROTATION_COUNT) {
+			throw error("Piece " + sName + " needs 1 to "
+                                + PieceGeometry.iROTATION_COUNT + " rotations",
+                                iLine);
+		}
+		int iDimension = (int)Math.round(Math.sqrt(
+                        lstRotations.get(0).length));
+		boolean[][] boolmatTiles
+                        = new boolean[PieceGeometry.iROTATION_COUNT][];
+		boolean bEmpty = true;
+		for(int iRotation = 0; iRotation < PieceGeometry.iROTATION_COUNT;
+                        iRotation++) {
+			boolean[] boolarrTiles = (iRotation < iCount)
+                                ? lstRotations.get(iRotation)
+                                : rotate(boolmatTiles[iRotation - 1],
+                                        iDimension);
+			if(boolarrTiles.length != iDimension * iDimension) {
+				throw error("Piece " + sName
+                                        + " has rotations of different sizes",
+                                        iLine);
+			}
+			for(boolean bTile : boolarrTiles) {
+				bEmpty &= !bTile;
+			}
+			boolmatTiles[iRotation] = boolarrTiles;
+		}
+		if(bEmpty) {
+			throw error("Piece " + sName + " has no tiles", iLine);
+		}
+
+		/*
+		 * By default pieces spawn centered, with their first rotation placed
+		 * the same way the built-in pieces are.
+		 */
+		int iSpawnCol = (iarrSpawn != null) ? iarrSpawn[0]
+                        : 5 - (iDimension >> 1);
+		int iSpawnRow = (iarrSpawn != null) ? iarrSpawn[1]
+                        : getTopInset(boolmatTiles[0], iDimension);
+		return new TileType(sName, colColor, iDimension, boolmatTiles, iType,
+                        iSpawnCol, iSpawnRow);
+	}
+
+	/**
+	 * Counts the empty rows at the top of a grid.
+	 * @param boolarrTiles The tiles.
+	 * @param iDimension The dimension of the grid.
+	 * @return The number of empty rows.
+	 */
+	private static int getTopInset(boolean[] boolarrTiles, int iDimension) {
+		for(int iIndex = 0; iIndex < boolarrTiles.length; iIndex++) {
+			if(boolarrTiles[iIndex]) {
+				return iIndex / iDimension;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Turns a grid a quarter of a turn clockwise.
+	 * @param boolarrTiles The tiles.
+	 * @param iDimension The dimension of the grid.
+	 * @return The turned tiles.
+	 */
+	private static boolean[] rotate(boolean[] boolarrTiles, int iDimension) {
+		boolean[] boolarrTurned = new boolean[boolarrTiles.length];
+		for(int iRow = 0; iRow < iDimension; iRow++) {
+			for(int iCol = 0; iCol < iDimension; iCol++) {
+				boolarrTurned[iRow * iDimension + iCol] = boolarrTiles[
+                                        (iDimension - 1 - iCol) * iDimension
+                                        + iRow];
+			}
+		}
+		return boolarrTurned;
+	}
+
+	/**
+	 * Reads the numbers following the keyword of a line.
+	 * @param sLine The line.
+	 * @param iCount How many numbers there must be.
+	 * @param iLine The line number, for error messages.
+	 * @return The numbers.
+	 * @throws IOException If the numbers are missing or invalid.
+	 */
+	private static int[] parseInts(String sLine, int iCount, int iLine)
+                throws IOException {
+		String[] sarrParts = sLine.split("\\s+");
+		if(sarrParts.length != iCount + 1) {
+			throw error("Expected " + iCount + " numbers: " + sLine, iLine);
+		}
+		int[] iarrValues = new int[iCount];
+		try {
+			for(int iIndex = 0; iIndex < iCount; iIndex++) {
+				iarrValues[iIndex] = Integer.parseInt(sarrParts[iIndex + 1]);
+			}
+		} catch(NumberFormatException e) {
+			throw error("Invalid number: " + sLine, iLine);
+		}
+		return iarrValues;
+	}
+
+	/**
+	 * Creates the exception for an invalid piece file.
+	 * @param sMessage What's wrong.
+	 * @param iLine The line number.
+	 * @return The exception.
+	 */
+	private static IOException error(String sMessage, int iLine) {
+		return new IOException("Line " + iLine + ": " + sMessage);
+	}
+
+	/**
+	 * Gets the name of the set.
+	 * @return The name.
+	 */
+	public String getName() {
+		return sName;
+	}
+
+	/**
+	 * Gets the pieces of the set. The returned array is shared and must not
+	 * be modified.
+	 * @return The pieces, in the order of their type numbers.
+	 */
+	public TileType[] getTypes() {
+		return tltarrTypes;
+	}
+
+	/**
+	 * Gets the number of pieces in the set.
+	 * @return The number of pieces.
+	 */
+	public int getTypeCount() {
+		return tltarrTypes.length;
+	}
+
+	/**
+	 * Gets a piece by it's type number.
+	 * @param iType The type number.
+	 * @return The piece.
+	 */
+	public TileType getType(int iType) {
+		return tltarrTypes[iType];
+	}
+
+	/**
+	 * Finds a piece by name.
+	 * @param sName The name of the piece.
+	 * @return The piece, or null if the set doesn't have it.
+	 */
+	public TileType find(String sName) {
+		for(TileType tltType : tltarrTypes) {
+			if(tltType.getName().equals(sName)) {
+				return tltType;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the largest dimension of any piece in the set.
+	 * @return The dimension.
+	 */
+	public int getMaxDimension() {
+		return iMaxDimension;
+	}
+
+}
@@ -0,0 +1,378 @@
+
+/**
+ * The {@code RenderFrame} class is a copy of everything the panels need to
+ * draw a single frame of the game: the tiles on the board, the falling
+ * piece, the next piece, the score and the state of the game.
+ *
+ * The game's thread fills a frame in one go after every update and hands it
+ * over through a {@code FrameExchange}, and the panels only ever draw from
+ * a frame they have been handed. That way a frame always shows one moment
+ * of the game, never half of one update and half of the next. Frames are
+ * reused over and over, so filling one never allocates. A frame only holds
+ * the rows the board panel can show at once, however tall the board is.
+ */
+public class RenderFrame {
+
+	/**
+	 * The largest fraction of a row the piece is drawn below it's row.
+	 * The piece never looks like it has reached the next row before the game
+	 * has actually moved it there.
+	 */
+	private static final float fMAX_FALL_OFFSET = 0.999f;
+
+	/**
+	 * The number of the update the frame was taken after. Frames taken
+	 * later have larger numbers.
+	 */
+	private volatile long lSequence;
+
+	/**
+	 * The number of columns on the board.
+	 */
+	private final int iCols;
+
+	/**
+	 * The total number of rows on the board.
+	 */
+	private final int iRows;
+
+	/**
+	 * The types the tile ids stand for, the same ones the board uses.
+	 */
+	private final TileType[] tltarrTypes;
+
+	/**
+	 * The occupied columns of every row in view, as bit masks.
+	 */
+	private final long[] larrMasks;
+
+	/**
+	 * The tiles of every row in view, one column after the other, as ids
+	 * like the ones in the board's color plane. Only the tiles that are set
+	 * in the row's mask are meaningful.
+	 */
+	private final byte[] byarrTiles;
+
+	/**
+	 * The first row in view.
+	 */
+	private int iViewTop;
+
+	/**
+	 * Whether or not the game is paused.
+	 */
+	private boolean boolIsPaused;
+
+	/**
+	 * Whether or not no game has been played yet.
+	 */
+	private boolean boolIsNewGame;
+
+	/**
+	 * Whether or not the game is over.
+	 */
+	private boolean boolIsGameOver;
+
+	/**
+	 * The score.
+	 */
+	private int iScore;
+
+	/**
+	 * The level.
+	 */
+	private int iLevel;
+
+	/**
+	 * The type of the falling piece.
+	 */
+	private TileType tltPieceType;
+
+	/**
+	 * The type of the next piece.
+	 */
+	private TileType tltNextType;
+
+	/**
+	 * The column of the falling piece.
+	 */
+	private int iPieceCol;
+
+	/**
+	 * The row of the falling piece.
+	 */
+	private int iPieceRow;
+
+	/**
+	 * The rotation of the falling piece.
+	 */
+	private int iPieceRotation;
+
+	/**
+	 * The row the falling piece would land on if it were dropped.
+	 */
+	private int iLandingRow;
+
+	/**
+	 * The time the frame was taken, in nanoseconds.
+	 */
+	private long lCaptureTime;
+
+	/**
+	 * How far gravity had got towards moving the piece down a row when the
+	 * frame was taken, as a fraction of a row.
+	 */
+	private float fFallProgress;
+
+	/**
+	 * The number of rows per second the piece is falling at, or 0 if it
+	 * isn't falling.
+	 */
+	private float fFallSpeed;
+
+	/**
+	 * Creates an empty frame.
+	 * @param iCols The number of columns on the board.
+	 * @param iRows The total number of rows on the board.
+	 * @param iViewRows The number of rows that can be drawn at once.
+	 * @param tltarrTypes The types of the pieces the game is played with.
+	 */
+	public RenderFrame(int iCols, int iRows, int iViewRows,
+                TileType[] tltarrTypes) {
+		this.iCols = iCols;
+		this.iRows = iRows;
+		this.tltarrTypes = tltarrTypes;
+		this.larrMasks = new long[iViewRows];
+		this.byarrTiles = new byte[iViewRows * iCols];
+		this.iViewTop = GameEngine.iHIDDEN_ROW_COUNT;
+		this.boolIsNewGame = true;
+		this.lSequence = -1L;
+	}
+
+	/**
+	 * Copies the state of the game into the frame. Only the rows in view are
+	 * copied, and only their occupied tiles. The piece and it's ghost are
+	 * kept as a position rather than as tiles.
+	 * @param gmeEngine The engine, on the thread that runs it.
+	 * @param clkGravity The clock that makes the piece fall.
+	 * @param lSequence The number of the update the frame is taken after.
+	 */
+	public void capture(GameEngine gmeEngine, Clock clkGravity,
+                long lSequence) {
+		BitBoard bbBoard = gmeEngine.getBoard();
+		this.iPieceRow = gmeEngine.getPieceRow();
+		this.iViewTop = getViewTop(iPieceRow);
+
+		/*
+		 * The rows in view above the top of the stack are empty, so only the
+		 * ones below it are read from the board.
+		 */
+		int iStackTop = bbBoard.getStackTop();
+		for(int iRow = 0; iRow < larrMasks.length; iRow++) {
+			int iY = iViewTop + iRow;
+			long lMask = (iY < iStackTop) ? 0L : bbBoard.getRowMask(iY);
+			larrMasks[iRow] = lMask;
+			int iRowStart = iRow * iCols;
+			while(lMask != 0L) {
+				int iX = Long.numberOfTrailingZeros(lMask);
+				byarrTiles[iRowStart + iX] =
+                                        (byte)(bbBoard.getTile(iX, iY).getType() + 1);
+				lMask &= lMask - 1;
+			}
+		}
+
+		this.boolIsPaused = gmeEngine.isPaused();
+		this.boolIsNewGame = gmeEngine.isNewGame();
+		this.boolIsGameOver = gmeEngine.isGameOver();
+		this.iScore = gmeEngine.getScore();
+		this.iLevel = gmeEngine.getLevel();
+		this.tltPieceType = gmeEngine.getPieceType();
+		this.tltNextType = gmeEngine.getNextPieceType();
+		this.iPieceCol = gmeEngine.getPieceCol();
+		this.iPieceRotation = gmeEngine.getPieceRotation();
+		this.iLandingRow = (tltPieceType == null) ? iPieceRow
+                        : bbBoard.getLandingRow(tltPieceType, iPieceCol,
+                        iPieceRow, iPieceRotation);
+
+		/*
+		 * The piece only falls smoothly while gravity is running and there's
+		 * room for it to move down.
+		 */
+		this.lCaptureTime = Clock.getCurrentNanos();
+		this.fFallProgress = clkGravity.getCycleProgress();
+		this.fFallSpeed = (clkGravity.isPaused() || boolIsPaused
+                        || boolIsGameOver || iLandingRow <= iPieceRow) ? 0.0f
+                        : clkGravity.getCyclesPerSecond();
+
+		//Written last, so a frame that looks new is complete.
+		this.lSequence = lSequence;
+	}
+
+	/**
+	 * Works out the first row in view. When the whole board fits this is
+	 * the first visible row; otherwise the view follows the piece, keeping
+	 * it in the upper part of the view so the stack below it can be seen.
+	 * @param iPieceRow The row of the falling piece.
+	 * @return The first row in view.
+	 */
+	private int getViewTop(int iPieceRow) {
+		int iLastTop = iRows - larrMasks.length;
+		int iTop = iPieceRow - larrMasks.length / 4;
+		return Math.max(GameEngine.iHIDDEN_ROW_COUNT, Math.min(iTop, iLastTop));
+	}
+
+	/**
+	 * Gets the number of the update the frame was taken after.
+	 * @return The number, or -1 if the frame has never been filled, in which
+	 * case it shows a new game that hasn't started.
+	 */
+	public long getSequence() {
+		return lSequence;
+	}
+
+	/**
+	 * Gets the first row in view, the one the frame's rows start at.
+	 * @return The first row in view.
+	 */
+	public int getViewTop() {
+		return iViewTop;
+	}
+
+	/**
+	 * Gets the number of rows in view.
+	 * @return The number of rows.
+	 */
+	public int getViewRowCount() {
+		return larrMasks.length;
+	}
+
+	/**
+	 * Gets the occupied columns of a row.
+	 * @param iY The row on the board.
+	 * @return The bit mask of the row, which is 0 if the row isn't in view.
+	 */
+	public long getRowMask(int iY) {
+		int iRow = iY - iViewTop;
+		return (iRow < 0 || iRow >= larrMasks.length) ? 0L : larrMasks[iRow];
+	}
+
+	/**
+	 * Gets a tile by it's column and row.
+	 * @param iX The column.
+	 * @param iY The row on the board.
+	 * @return The tile, or null if the cell is empty or isn't in view.
+	 */
+	public TileType getTile(int iX, int iY) {
+		if((getRowMask(iY) & (1L << iX)) == 0L) {
+			return null;
+		}
+		byte byTile = byarrTiles[(iY - iViewTop) * iCols + iX];
+		return (byTile == BitBoard.byGARBAGE) ? TileType.TypeGarbage
+                        : tltarrTypes[(byTile & 0xFF) - 1];
+	}
+
+	/**
+	 * Checks to see whether or not the game is paused.
+	 * @return Whether or not the game is paused.
+	 */
+	public boolean isPaused() {
+		return boolIsPaused;
+	}
+
+	/**
+	 * Checks to see whether or not we're on a new game.
+	 * @return Whether or not this is a new game.
+	 */
+	public boolean isNewGame() {
+		return boolIsNewGame;
+	}
+
+	/**
+	 * Checks to see whether or not the game is over.
+	 * @return Whether or not the game is over.
+	 */
+	public boolean isGameOver() {
+		return boolIsGameOver;
+	}
+
+	/**
+	 * Gets the score.
+	 * @return The score.
+	 */
+	public int getScore() {
+		return iScore;
+	}
+
+	/**
+	 * Gets the level.
+	 * @return The level.
+	 */
+	public int getLevel() {
+		return iLevel;
+	}
+
+	/**
+	 * Gets the type of the falling piece.
+	 * @return The piece type.
+	 */
+	public TileType getPieceType() {
+		return tltPieceType;
+	}
+
+	/**
+	 * Gets the type of the next piece.
+	 * @return The next piece.
+	 */
+	public TileType getNextPieceType() {
+		return tltNextType;
+	}
+
+	/**
+	 * Gets the column of the falling piece.
+	 * @return The column.
+	 */
+	public int getPieceCol() {
+		return iPieceCol;
+	}
+
+	/**
+	 * Gets the row of the falling piece.
+	 * @return The row.
+	 */
+	public int getPieceRow() {
+		return iPieceRow;
+	}
+
+	/**
+	 * Gets the rotation of the falling piece.
+	 * @return The rotation.
+	 */
+	public int getPieceRotation() {
+		return iPieceRotation;
+	}
+
+	/**
+	 * Gets how far below it's row the falling piece should be drawn, so it
+	 * moves down smoothly between the steps of the game instead of jumping a
+	 * row at a time.
+	 * @param lNow The current time, in nanoseconds.
+	 * @return The fraction of a row, from 0 up to but not including 1.
+	 */
+	public float getFallOffset(long lNow) {
+		if(fFallSpeed == 0.0f) {
+			return 0.0f;
+		}
+		float fOffset = fFallProgress
+                        + (lNow - lCaptureTime) * fFallSpeed / 1000000000.0f;
+		return Math.min(fOffset, fMAX_FALL_OFFSET);
+	}
+
+	/**
+	 * Gets the row the falling piece would land on if it were dropped.
+	 * @return The landing row.
+	 */
+	public int getLandingRow() {
+		return iLandingRow;
+	}
+
+}
@@ -0,0 +1,160 @@
+
+/**
+ * The {@code RotationSystem} class decides where a piece may end up when it
+ * is rotated. Every rotation tries a list of kicks (offsets from the current
+ * position) in order, and the piece takes the first one that fits. The kick
+ * lists of every piece size and every transition are built once, up front, so a
+ * rotation is only a table lookup followed by a few mask collision tests.
+ */
+public class RotationSystem {
+
+	/**
+	 * The original rotation: the piece is pushed back inside the walls and
+	 * the floor, then a single position is tried.
+	 */
+	public static final RotationSystem CLASSIC = new RotationSystem(true,
+                new int[][] {{0, 0}}, new int[][] {{0, 0}});
+
+	/**
+	 * The Super Rotation System wall kicks. Offsets are written as in the
+	 * guideline, with y pointing up, in the order 0->R, R->0, R->2, 2->R,
+	 * 2->L, L->2, L->0, 0->L.
+	 */
+	public static final RotationSystem SRS = new RotationSystem(false,
+                new int[][] {
+		{0, 0,	-1, 0,	-1, 1,	0, -2,	-1, -2},
+		{0, 0,	1, 0,	1, -1,	0, 2,	1, 2},
+		{0, 0,	1, 0,	1, -1,	0, 2,	1, 2},
+		{0, 0,	-1, 0,	-1, 1,	0, -2,	-1, -2},
+		{0, 0,	1, 0,	1, 1,	0, -2,	1, -2},
+		{0, 0,	-1, 0,	-1, -1,	0, 2,	-1, 2},
+		{0, 0,	-1, 0,	-1, -1,	0, 2,	-1, 2},
+		{0, 0,	1, 0,	1, 1,	0, -2,	1, -2},
+	}, new int[][] {
+		{0, 0,	-2, 0,	1, 0,	-2, -1,	1, 2},
+		{0, 0,	2, 0,	-1, 0,	2, 1,	-1, -2},
+		{0, 0,	-1, 0,	2, 0,	-1, 2,	2, -1},
+		{0, 0,	1, 0,	-2, 0,	1, -2,	-2, 1},
+		{0, 0,	2, 0,	-1, 0,	2, 1,	-1, -2},
+		{0, 0,	-2, 0,	1, 0,	-2, -1,	1, 2},
+		{0, 0,	1, 0,	-2, 0,	1, -2,	-2, 1},
+		{0, 0,	-1, 0,	2, 0,	-1, 2,	2, -1},
+	});
+
+	/**
+	 * The number of rotation transitions (four rotations, two directions).
+	 */
+	private static final int iTRANSITION_COUNT = 8;
+
+	/**
+	 * Whether the piece is pushed back inside the board before the kicks are
+	 * tried.
+	 */
+	private final boolean bClamp;
+
+	/**
+	 * The kicks of each piece dimension and transition, as flat
+	 * {@code dx, dy} pairs with y pointing down like the board's rows.
+	 */
+	private final int[][][] imatKicks;
+
+	/**
+	 * Builds the kick lists of every piece dimension. Pieces of dimension 4
+	 * use the I table, pieces of dimension 1 and 2 can't be kicked, and the
+	 * rest (including pieces loaded from a {@code PieceSet}) use the common
+	 * table.
+	 * @param bClamp Whether to push the piece inside the board first.
+	 * @param imatCommon The kicks of the J, L, S, T and Z pieces.
+	 * @param imatI The kicks of the I piece.
+	 */
+	private RotationSystem(boolean bClamp, int[][] imatCommon,
+                int[][] imatI) {
+		this.bClamp = bClamp;
+
+		int[][] imatNone = {{0, 0}};
+		this.imatKicks = new int[PieceSet.iMAX_DIMENSION + 1][][];
+		for(int iDimension = 0; iDimension <= PieceSet.iMAX_DIMENSION;
+                        iDimension++) {
+			int[][] imatSource = (iDimension == 4) ? imatI
+                                : (iDimension <= 2) ? imatNone : imatCommon;
+			imatKicks[iDimension] = compile(imatSource);
+		}
+	}
+
+	/**
+	 * Converts a table written with y pointing up into one flat list per
+	 * transition, indexed by {@code rotation * 2 + direction}, with y
+	 * pointing down.
+	 * @param imatSource The table, or a single list used for every
+	 * transition.
+	 * @return The compiled table.
+	 */
+	private static int[][] compile(int[][] imatSource) {
+		int[][] imatTable = new int[iTRANSITION_COUNT][];
+		for(int iTransition = 0; iTransition < iTRANSITION_COUNT;
+                        iTransition++) {
+			int[] iarrSource = imatSource[iTransition % imatSource.length];
+			int[] iarrKicks = new int[iarrSource.length];
+			for(int iIndex = 0; iIndex < iarrSource.length; iIndex += 2) {
+				iarrKicks[iIndex] = iarrSource[iIndex];
+				iarrKicks[iIndex + 1] = -iarrSource[iIndex + 1];
+			}
+			imatTable[toTableIndex(iTransition)] = iarrKicks;
+		}
+		return imatTable;
+	}
+
+	/**
+	 * Maps the guideline's transition order (0->R, R->0, R->2, 2->R, 2->L,
+	 * L->2, L->0, 0->L) to {@code rotation * 2 + direction}, where direction
+	 * is 0 for clockwise and 1 for anticlockwise.
+	 * @param iTransition The transition in guideline order.
+	 * @return The table index.
+	 */
+	private static int toTableIndex(int iTransition) {
+		switch(iTransition) {
+		case 0: return 0;
+		case 1: return 3;
+		case 2: return 2;
+		case 3: return 5;
+		case 4: return 4;
+		case 5: return 7;
+		case 6: return 6;
+		default: return 1;
+		}
+	}
+
+	/**
+	 * Gets the rotation system with the given name.
+	 * @param sName "classic" or "srs".
+	 * @return The rotation system, SRS if the name isn't known.
+	 */
+	public static RotationSystem forName(String sName) {
+		return "classic".equals(sName) ? CLASSIC : SRS;
+	}
+
+	/**
+	 * Checks whether the piece is pushed back inside the board before the
+	 * kicks are tried.
+	 * @return Whether or not the piece is clamped.
+	 */
+	public boolean isClamped() {
+		return bClamp;
+	}
+
+	/**
+	 * Gets the kicks to try for a rotation, as flat {@code dx, dy} pairs
+	 * with y pointing down. The returned array is shared and must not be
+	 * modified.
+	 * @param tltType The type of the piece.
+	 * @param iRotation The rotation the piece is in before rotating.
+	 * @param bClockwise Whether the piece rotates clockwise.
+	 * @return The kicks, in the order they should be tried.
+	 */
+	public int[] getKicks(TileType tltType, int iRotation,
+                boolean bClockwise) {
+		return imatKicks[tltType.getDimension()][(iRotation << 1)
+                        | (bClockwise ? 0 : 1)];
+	}
+
+}
@@ -111,6 +111,12 @@ public class SidePanel extends JPanel {
 	public void paintComponent(Graphics graGraphics) {
 		super.paintComponent(graGraphics);
 		
+		/*
+		 * Everything is drawn from the frame of the current paint pass, the
+		 * same one the board is drawn from.
+		 */
+		RenderFrame rfrFrame = tetTetris.getFrame();
+		
 		//Set the color for drawing.
 		graGraphics.setColor(colDRAW_COLOR);
 		
@@ -127,9 +133,9 @@ public class SidePanel extends JPanel {
 		graGraphics.setFont(fonLARGE_FONT);
 		graGraphics.drawString("Stats", iSMALL_INSET, iOffset = iSTATS_INSET);
 		graGraphics.setFont(fonSMALL_FONT);
-		graGraphics.drawString("Level: " + tetTetris.getLevel()
+		graGraphics.drawString("Level: " + rfrFrame.getLevel()
                         , iLARGE_INSET, iOffset += iTEXT_STRIDE);
-		graGraphics.drawString("Score: " + tetTetris.getScore()
+		graGraphics.drawString("Score: " + rfrFrame.getScore()
                         , iLARGE_INSET, iOffset += iTEXT_STRIDE);
 		
 		/*
@@ -137,7 +143,7 @@ public class SidePanel extends JPanel {
 		 */
 		graGraphics.setFont(fonLARGE_FONT);
 		graGraphics.drawString("Controls", iSMALL_INSET
-                        , iOffset = iCONTROLS_INSET-30);
+                        , iOffset = iCONTROLS_INSET-55);
 		graGraphics.setFont(fonSMALL_FONT);
 		graGraphics.drawString("A - Move Left", iLARGE_INSET
                         , iOffset += iTEXT_STRIDE);
@@ -149,6 +155,8 @@ public class SidePanel extends JPanel {
                         , iOffset += iTEXT_STRIDE);
 		graGraphics.drawString("S - Drop", iLARGE_INSET
                         , iOffset += iTEXT_STRIDE);
+		graGraphics.drawString("W - Hard Drop", iLARGE_INSET
+                        , iOffset += iTEXT_STRIDE);
 		graGraphics.drawString("P - Pause Game", iLARGE_INSET
                         , iOffset += iTEXT_STRIDE);
 		graGraphics.drawString("G - Save Game", iLARGE_INSET
@@ -171,8 +179,8 @@ public class SidePanel extends JPanel {
 		 * identical to the drawing code on the board, just smaller and centered, rather
 		 * than constrained to a grid.
 		 */
-		TileType tltType = tetTetris.getNextPieceType();
-		if(!tetTetris.isGameOver() && tltType != null) {
+		TileType tltType = rfrFrame.getNextPieceType();
+		if(!rfrFrame.isGameOver() && tltType != null) {
 			/*
 			 * Get the size properties of the current piece.
 			 */
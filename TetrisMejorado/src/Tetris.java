@@ -4,14 +4,15 @@ import java.awt.BorderLayout;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
-import java.util.Random;
 import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 import javax.swing.JFrame;
-import java.awt.Color;
+import javax.swing.SwingUtilities;
 
 /**
- * The {@code Tetris} class is responsible for handling much of the game logic and
- * reading user input.
+ * The {@code Tetris} class is responsible for running the {@code GameEngine} in
+ * real time, rendering it, and reading user input.
  * @author José Humberto Guevara
  * @author Juan José López 
  * 
@@ -24,15 +25,35 @@ public class Tetris extends JFrame {
 	private static final long iSerialVersionUID = -4722429764792514382L;
 
 	/**
-	 * The number of milliseconds per frame.
+	 * The number of nanoseconds per frame, or 0 to render as fast as
+	 * possible. Set with the {@code tetris.fps} system property (50 frames
+	 * per second by default, 0 for unlimited). Gameplay does not depend on
+	 * it.
 	 */
-	private static final long iFRAME_TIME = 1000L / 50L;
+	private static final long lFRAME_TIME = cycleTime(
+                Integer.getInteger("tetris.fps", 50));
 	
 	/**
-	 * The number of pieces that exist.
+	 * The number of nanoseconds per logic step. Set with the
+	 * {@code tetris.tickRate} system property (200 steps per second by
+	 * default). This is how often input is handled and the timers are
+	 * polled; the speed of the game itself doesn't depend on it.
 	 */
-	private static final int iTYPE_COUNT = TileType.values().length;
-		
+	private static final long lTICK_TIME = cycleTime(
+                Integer.getInteger("tetris.tickRate", 200));
+	
+	/**
+	 * The longest time, in nanoseconds, the game loop stays parked while
+	 * idle before checking on the game anyway.
+	 */
+	private static final long lIDLE_TIMEOUT = 1000000000L;
+	
+	/**
+	 * The number of nanoseconds after a piece spawns before it can be
+	 * dropped.
+	 */
+	private static final long lDROP_COOLDOWN = 500000000L;
+	
 	/**
 	 * The BoardPanel instance.
 	 */
@@ -44,87 +65,111 @@ public class Tetris extends JFrame {
 	private SidePanel spnSide;
 	
 	/**
-	 * Whether or not the game is paused.
+	 * The engine that holds the game's state and rules.
 	 */
-	private boolean boolIsPaused;
+	private GameEngine gmeEngine;
 	
 	/**
-	 * Whether or not we've played a game yet. This is set to true
-	 * initially and then set to false when the game starts.
+	 * The clock that handles the update logic.
 	 */
-	private boolean boolIsNewGame;
+	private Clock clkLogicTimer;
 	
 	/**
-	 * Whether or not the game is over.
+	 * The clock that pushes garbage rows in from the bottom in survival
+	 * mode, one row per cycle, or null when there's no rising garbage.
 	 */
-	private boolean boolIsGameOver;
+	private Clock clkGarbageTimer;
 	
 	/**
-	 * The current level we're on.
+	 * The last few placements, which can be undone and redone in training
+	 * mode, or null when rewinding is off.
 	 */
-	private int iLevel;
+	private GameHistory ghsHistory;
 	
 	/**
-	 * The current score.
+	 * The bus the engine publishes it's events to. The sounds are played by
+	 * a listener on it's own thread, so they never hold up the game.
 	 */
-	private int iScore;
+	private GameEventBus gebEvents;
 	
 	/**
-	 * The random number generator. This is used to
-	 * spit out pieces randomly.
+	 * The keys pressed and released on the event dispatch thread, waiting
+	 * to be handled by the game loop.
 	 */
-	private Random ranRandom;
+	private InputQueue iqeInput;
 	
 	/**
-	 * The clock that handles the update logic.
+	 * Moves the piece sideways while a direction key is held down.
 	 */
-	private Clock clkLogicTimer;
-				
+	private AutoShift ashShift;
+	
 	/**
-	 * The current type of tile.
+	 * The frames the game loop hands over to the panels, which draw only
+	 * from them and never from the engine itself.
 	 */
-	private TileType tltCurrentType;
+	private FrameExchange fexFrames;
 	
 	/**
-	 * The next type of tile.
+	 * The frame both panels draw during the current paint pass. It's only
+	 * replaced at the start of a pass, on the event dispatch thread, so the
+	 * board and the side panel always show the same moment of the game.
 	 */
-	private TileType tltNextType;
+	private RenderFrame rfrPainting;
 	
 	/**
-	 * The current column of our tile.
+	 * Whether or not a paint pass has been queued on the event dispatch
+	 * thread and hasn't started yet.
 	 */
-	private int iCurrentCol;
+	private final AtomicBoolean atbPaintQueued = new AtomicBoolean();
 	
 	/**
-	 * The current row of our tile.
+	 * The paint pass run on the event dispatch thread: it takes the latest
+	 * frame once, then paints both panels from it.
 	 */
-	private int iCurrentRow;
+	private final Runnable runPaint = new Runnable() {
+		
+		@Override
+		public void run() {
+			atbPaintQueued.set(false);
+			rfrPainting = fexFrames.acquire();
+			bpnBoard.paintImmediately(0, 0, bpnBoard.getWidth(),
+                                bpnBoard.getHeight());
+			spnSide.paintImmediately(0, 0, spnSide.getWidth(),
+                                spnSide.getHeight());
+		}
+		
+	};
 	
 	/**
-	 * The current rotation of our tile.
+	 * The thread that runs the game logic.
 	 */
-	private int iCurrentRotation;
-		
+	private Thread thrLogic;
+	
 	/**
-	 * Ensures that a certain amount of time passes after a piece is
-	 * spawned before we can drop it.
+	 * The thread that repaints the window.
 	 */
-	private int iDropCooldown;
+	private Thread thrRender;
 	
 	/**
-	 * The speed of the game.
+	 * Whether or not the game is paused, over or waiting to start, so
+	 * nothing can change until a key is pressed. The logic and render
+	 * threads park instead of spinning while this is set.
 	 */
-	private float fGameSpeed;
-        
+	private volatile boolean bIdle;
+				
+	/**
+	 * Ensures that a certain amount of time passes after a piece is
+	 * spawned before we can drop it. Holds the time, in nanoseconds, at
+	 * which dropping is allowed again.
+	 */
+	private long lDropCooldownEnd;
+	
         private SoundClip SClipFondo;  // Objeto SoundClip de fondo
         private SoundClip SClipPieza;  // Objeto SoundClip de las piezas
-        
-        private Color colColorReal;   //Guardo el color real de la pieza;
+        private SoundClip SClipSuccess; // Objeto SoundClip de lineas completas
         
         private boolean bIluminar;    //Decido si la pieza se debe iluminar o no
         
-        private boolean bPausado;      //Boleano para saber si el juego esta pausado.
-        
         private boolean bMuteado;       //Boleano para saber si la musica esta muteada.
 		
 	/**
@@ -140,9 +185,52 @@ public class Tetris extends JFrame {
 		setDefaultCloseOperation(EXIT_ON_CLOSE);
 		setResizable(false);
 		
-                //inicializo la variable de pausado
-                bPausado = false;
+		//Keys are queued from the moment the window can receive them.
+		this.iqeInput = new InputQueue(InputQueue.iDEFAULT_CAPACITY);
                 
+		//No piece has spawned yet, so there's nothing to cool down from.
+		this.lDropCooldownEnd = Clock.getCurrentNanos();
+                
+		/*
+		 * Create the engine before the panels, since the board panel draws
+		 * the engine's board. The board is 10x20 unless tetris.cols and
+		 * tetris.rows say otherwise.
+		 */
+		this.gmeEngine = new GameEngine(createGenerator(),
+                        RotationSystem.forName(System.getProperty(
+                        "tetris.rotation", "srs")),
+                        Integer.getInteger("tetris.cols", GameEngine.iCOL_COUNT),
+                        Integer.getInteger("tetris.rows",
+                        GameEngine.iVISIBLE_ROW_COUNT));
+                
+		/*
+		 * Holding a direction key moves the piece again after tetris.das
+		 * milliseconds, then every tetris.arr milliseconds (0 goes straight
+		 * to the wall).
+		 */
+		this.ashShift = new AutoShift(gmeEngine,
+                        Integer.getInteger("tetris.das", 167),
+                        Integer.getInteger("tetris.arr", 33));
+                
+		/*
+		 * Training mode keeps the last tetris.undo placements in memory so
+		 * they can be rewound (off by default).
+		 */
+		int iUndoLimit = Integer.getInteger("tetris.undo", 0);
+		if(iUndoLimit > 0) {
+			this.ghsHistory = new GameHistory(gmeEngine, iUndoLimit);
+		}
+                
+                
+		/*
+		 * The panels draw from frames of the game rather than the engine,
+		 * so they need the exchange before they're created.
+		 */
+		int iRows = gmeEngine.getBoard().getRowCount();
+		this.fexFrames = new FrameExchange(gmeEngine.getColumnCount(), iRows,
+                        BoardPanel.getViewRowCount(iRows),
+                        gmeEngine.getPieceSet().getTypes());
+		this.rfrPainting = fexFrames.current();
                 
 		/*
 		 * Initialize the BoardPanel and SidePanel instances.
@@ -168,120 +256,176 @@ public class Tetris extends JFrame {
 		 */
                 SClipPieza = new SoundClip("Pieza.wav");
                 
+		/*
+		 * Add the sound for completed lines.
+		 */
+                SClipSuccess = new SoundClip("success.wav");
+                
+		/*
+		 * Publish the engine's events on a bus, and play the sounds from
+		 * a listener that drains it on it's own thread.
+		 */
+		this.gebEvents = new GameEventBus(GameEventBus.iDEFAULT_CAPACITY);
+		gmeEngine.setEventBus(gebEvents);
+		gebEvents.subscribe("Tetris audio", new GameEventListener() {
+			
+			@Override
+			public void onEvent(int iType, int iValue) {
+				playSounds(iType, iValue);
+			}
+			
+		});
+                
                 /*
                  * Inicializo el booleano que determina el brillo
                 */
                 bIluminar = false;
 		/*
-		 * Adds a custom anonymous KeyListener to the frame.
+		 * Adds a custom anonymous KeyListener to the frame. It only queues
+		 * the keys, which are handled by the game loop.
 		 */
 		addKeyListener(new KeyAdapter() {
 			
 			@Override
 			public void keyPressed(KeyEvent keyE) {
-								
-				switch(keyE.getKeyCode()) {
-				
-				/*
-				 * Drop - When pressed, we check to see that the game is not
-				 * paused and that there is no drop cooldown, then set the
-				 * logic timer to run at a speed of 25 cycles per second.
-				 */
-				case KeyEvent.VK_S:
-					if(!boolIsPaused && iDropCooldown == 0) {
-						clkLogicTimer.setCyclesPerSecond(25.0f);
-					}
-					break;
-					
-				/*
-				 * Move Left - When pressed, we check to see that the game is
-				 * not paused and that the position to the left of the current
-				 * position is valid. If so, we decrement the current column by 1.
-				 */
-				case KeyEvent.VK_A:
-					if(!boolIsPaused && 
-                                                bpnBoard.isValidAndEmpty(tltCurrentType, iCurrentCol - 1, iCurrentRow, iCurrentRotation)) {
-						iCurrentCol--;
-					}
-					break;
-					
-				/*
-				 * Move Right - When pressed, we check to see that the game is
-				 * not paused and that the position to the right of the current
-				 * position is valid. If so, we increment the current column by 1.
-				 */
-				case KeyEvent.VK_D:
-					if(!boolIsPaused 
-                                                && bpnBoard.isValidAndEmpty(
-                                                        tltCurrentType, 
-                                                        iCurrentCol + 1, 
-                                                        iCurrentRow, 
-                                                        iCurrentRotation)) {
-						iCurrentCol++;
-					}
-					break;
-					
-				/*
-				 * Rotate Anticlockwise - When pressed, check to see that the game is not paused
-				 * and then attempt to rotate the piece anticlockwise. Because of the size and
-				 * complexity of the rotation code, as well as it's similarity to clockwise
-				 * rotation, the code for rotating the piece is handled in another method.
-				 */
-				case KeyEvent.VK_Q:
-					if(!boolIsPaused) {
-						rotatePiece(
-                                                        (iCurrentRotation == 0) 
-                                                                ? 3 :
-                                                                iCurrentRotation 
-                                                                        - 1);
-					}
-					break;
-				
-				/*
-			     * Rotate Clockwise - When pressed, check to see that the game is not paused
-				 * and then attempt to rotate the piece clockwise. Because of the size and
-				 * complexity of the rotation code, as well as it's similarity to anticlockwise
-				 * rotation, the code for rotating the piece is handled in another method.
-				 */
-				case KeyEvent.VK_E:
-					if(!boolIsPaused) {
-						rotatePiece((iCurrentRotation == 3) ? 0 : iCurrentRotation + 1);
-					}
-					break;
-					
-				/*
-				 * Pause Game - When pressed, check to see that we're currently playing a game.
-				 * If so, toggle the pause variable and update the logic timer to reflect this
-				 * change, otherwise the game will execute a huge number of updates and essentially
-				 * cause an instant game over when we unpause if we stay paused for more than a
-				 * minute or so.
-				 */
-				case KeyEvent.VK_P:
-					if(!boolIsGameOver && !boolIsNewGame) {
-						boolIsPaused = !boolIsPaused;
-						clkLogicTimer.setPaused(boolIsPaused);
-                                                if(bPausado)
-                                                {
-                                                    SClipFondo.unpause();
-                                                    bPausado = !bPausado;
-                                                }
-                                                else
-                                                {
-                                                    SClipFondo.pause();
-                                                    bPausado = !bPausado;
-                                                }
-					}
-					break;
-				
-				/*
-				 * Start Game - When pressed, check to see that we're in either a game over or new
-				 * game state. If so, reset the game.
-				 */
-				case KeyEvent.VK_ENTER:
-					if(boolIsGameOver || boolIsNewGame) {
-						resetGame();
-					}
-					break;
+				iqeInput.offer(keyE.getKeyCode(), true,
+                                        Clock.getCurrentNanos());
+				wakeLogic();
+			}
+			
+			@Override
+			public void keyReleased(KeyEvent keyE) {
+				iqeInput.offer(keyE.getKeyCode(), false,
+                                        Clock.getCurrentNanos());
+				wakeLogic();
+			}
+			
+		});
+		
+		/*
+		 * Here we resize the frame to hold the BoardPanel and SidePanel instances,
+		 * center the window on the screen, and show it to the user.
+		 */
+		pack();
+		setLocationRelativeTo(null);
+		setVisible(true);
+	}
+	
+	/**
+	 * Handles a key that was pressed. This runs on the game's thread, like
+	 * everything else that changes the state of the game.
+	 * @param iKeyCode The key code.
+	 * @param lTime The time the key was pressed, in nanoseconds.
+	 */
+	private void handleKeyPressed(int iKeyCode, long lTime) {
+		switch(iKeyCode) {
+		
+		/*
+		 * Drop - When pressed, we check to see that the game is not
+		 * paused and that there is no drop cooldown, then set the
+		 * logic timer to run at a speed of 25 cycles per second.
+		 */
+		case KeyEvent.VK_S:
+			if(!gmeEngine.isPaused() && isDropReady(lTime)) {
+				clkLogicTimer.setCyclesPerSecond(25.0f);
+			}
+			break;
+			
+		/*
+		 * Hard Drop - When pressed, we check to see that the game is
+		 * being played and that there is no drop cooldown, then drop
+		 * the piece straight onto the stack and lock it right away.
+		 */
+		case KeyEvent.VK_W:
+			if(isDropReady(lTime) && gmeEngine.hardDrop()) {
+				onPieceLocked();
+			}
+			break;
+			
+		/*
+		 * Move Left - When pressed, the piece moves one column to the left
+		 * if there's room, and keeps moving while the key is held.
+		 */
+		case KeyEvent.VK_A:
+			ashShift.press(-1, lTime);
+			break;
+			
+		/*
+		 * Move Right - When pressed, the piece moves one column to the right
+		 * if there's room, and keeps moving while the key is held.
+		 */
+		case KeyEvent.VK_D:
+			ashShift.press(1, lTime);
+			break;
+			
+		/*
+		 * Rotate Anticlockwise - When pressed, check to see that the game is not paused
+		 * and then attempt to rotate the piece anticlockwise. Because of the size and
+		 * complexity of the rotation code, as well as it's similarity to clockwise
+		 * rotation, the code for rotating the piece is handled in another method.
+		 */
+		case KeyEvent.VK_Q:
+			gmeEngine.rotateAnticlockwise();
+			break;
+		
+		/*
+	     * Rotate Clockwise - When pressed, check to see that the game is not paused
+		 * and then attempt to rotate the piece clockwise. Because of the size and
+		 * complexity of the rotation code, as well as it's similarity to anticlockwise
+		 * rotation, the code for rotating the piece is handled in another method.
+		 */
+		case KeyEvent.VK_E:
+			gmeEngine.rotateClockwise();
+			break;
+			
+		/*
+		 * Pause Game - When pressed, check to see that we're currently playing a game.
+		 * If so, toggle the pause variable and update the logic timer to reflect this
+		 * change, otherwise the game will execute a huge number of updates and essentially
+		 * cause an instant game over when we unpause if we stay paused for more than a
+		 * minute or so.
+		 */
+		case KeyEvent.VK_P:
+			if(!gmeEngine.isGameOver() && !gmeEngine.isNewGame()) {
+				gmeEngine.setPaused(!gmeEngine.isPaused());
+				clkLogicTimer.setPaused(gmeEngine.isPaused());
+				if(clkGarbageTimer != null) {
+					clkGarbageTimer.setPaused(gmeEngine.isPaused());
+				}
+			}
+			break;
+		
+		/*
+		 * Start Game - When pressed, check to see that we're in either a game over or new
+		 * game state. If so, reset the game.
+		 */
+		case KeyEvent.VK_ENTER:
+			if(gmeEngine.isGameOver() || gmeEngine.isNewGame()) {
+				resetGame();
+			}
+			break;
+		/*
+		 * Undo - When pressed in training mode, rewinds the game to
+		 * the moment the previous piece was locked.
+		 */
+		case KeyEvent.VK_Z:
+			if(ghsHistory != null && !gmeEngine.isPaused()
+                                                && ghsHistory.undo()) {
+				onRewind();
+			}
+			break;
+			
+		/*
+		 * Redo - When pressed in training mode, replays the last
+		 * placement that was undone.
+		 */
+		case KeyEvent.VK_X:
+			if(ghsHistory != null && !gmeEngine.isPaused()
+                                                && ghsHistory.redo()) {
+				onRewind();
+			}
+			break;
+			
                                 case KeyEvent.VK_C:
                                     try{
                                     Cargar();//cargar el juego
@@ -289,7 +433,7 @@ public class Tetris extends JFrame {
                                         System.out.println(e);
                                     }
                                     break;
-				case KeyEvent.VK_G:
+		case KeyEvent.VK_G:
                                 try{
                                     Guardar();//guardar el juego actual
                                     }catch(Exception e){
@@ -309,39 +453,37 @@ public class Tetris extends JFrame {
                                     bMuteado = !bMuteado;
                                     }
                                 }
-                                
-                                
-                                
-                                    
-			}
-			
-			@Override
-			public void keyReleased(KeyEvent keyE) {
-				
-				switch(keyE.getKeyCode()) {
-				
-				/*
-				 * Drop - When released, we set the speed of the logic timer
-				 * back to whatever the current game speed is and clear out
-				 * any cycles that might still be elapsed.
-				 */
-				case KeyEvent.VK_S:
-					clkLogicTimer.setCyclesPerSecond(fGameSpeed);
-					clkLogicTimer.reset();
-					break;
-				}
-				
-			}
+	}
+	
+	/**
+	 * Handles a key that was released, on the game's thread.
+	 * @param iKeyCode The key code.
+	 * @param lTime The time the key was released, in nanoseconds.
+	 */
+	private void handleKeyReleased(int iKeyCode, long lTime) {
+		switch(iKeyCode) {
+		
+		/*
+		 * Move Left or Right - When released, the piece stops moving.
+		 */
+		case KeyEvent.VK_A:
+			ashShift.release(-1, lTime);
+			break;
 			
-		});
+		case KeyEvent.VK_D:
+			ashShift.release(1, lTime);
+			break;
 		
 		/*
-		 * Here we resize the frame to hold the BoardPanel and SidePanel instances,
-		 * center the window on the screen, and show it to the user.
+		 * Drop - When released, we set the speed of the logic timer
+		 * back to whatever the current game speed is and clear out
+		 * any cycles that might still be elapsed.
 		 */
-		pack();
-		setLocationRelativeTo(null);
-		setVisible(true);
+		case KeyEvent.VK_S:
+			clkLogicTimer.setCyclesPerSecond(gmeEngine.getGameSpeed());
+			clkLogicTimer.reset();
+			break;
+		}
 	}
 	
 	/**
@@ -349,235 +491,425 @@ public class Tetris extends JFrame {
 	 */
 	private void startGame() {
 		/*
-		 * Initialize our random number generator, logic timer, and new game variables.
+		 * Setup the timer to keep the game from running before the user presses enter
+		 * to start it. It keeps time in fixed-point nanoseconds so it doesn't
+		 * drift over long sessions, and can optionally cap how many cycles it
+		 * catches up on at once (tetris.maxCatchUp, unlimited by default).
 		 */
-		this.ranRandom = new Random();
-		this.boolIsNewGame = true;
-		this.fGameSpeed = 1.0f;
+		this.clkLogicTimer = new Clock(gmeEngine.getGameSpeed(), true);
+		clkLogicTimer.setMaxCatchUp(Integer.getInteger("tetris.maxCatchUp", 0));
+		clkLogicTimer.setPaused(true);
 		
 		/*
-		 * Setup the timer to keep the game from running before the user presses enter
-		 * to start it.
+		 * Survival mode pushes a garbage row in from the bottom every
+		 * tetris.garbage milliseconds (never, by default).
 		 */
-		this.clkLogicTimer = new Clock(fGameSpeed);
-		clkLogicTimer.setPaused(true);
+		int iGarbageMillis = Integer.getInteger("tetris.garbage", 0);
+		if(iGarbageMillis > 0) {
+			this.clkGarbageTimer = new Clock(1000.0f / iGarbageMillis, true);
+			clkGarbageTimer.setPaused(true);
+		}
 		
+		/*
+		 * Drawing runs on a thread of it's own, so a slow frame never holds
+		 * up the logic, and the logic never holds up drawing.
+		 */
+		this.thrLogic = Thread.currentThread();
+		this.thrRender = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				renderLoop();
+			}
+			
+		}, "Tetris render");
+		thrRender.setDaemon(true);
+		thrRender.start();
+		
+		/*
+		 * The logic runs in fixed steps on this thread. A step that is
+		 * late doesn't make the next ones run early to catch up, since the
+		 * timers already account for all the time that has gone by.
+		 */
+		long lnNextStep = Clock.getCurrentNanos();
 		while(true) {
-			//Get the time that the frame started.
-			long lnStart = System.nanoTime();
+			//Handle the keys that have come in since the last frame.
+			processInput();
+			
+			//Move the piece again if a direction key has been held long enough.
+			ashShift.update(Clock.getCurrentNanos());
 			
 			//Update the logic timer.
 			clkLogicTimer.update();
 			
 			/*
-			 * If a cycle has elapsed on the timer, we can update the game and
-			 * move our current piece down.
+			 * If any cycles have elapsed on the timer, we can update the game and
+			 * move our current piece down. All of them are resolved at once, so
+			 * the game keeps up with real time even when the speed is higher than
+			 * the frame rate.
 			 */
-			if(clkLogicTimer.hasElapsedCycle()) {
-				updateGame();
+			int iCycles = clkLogicTimer.pollElapsedCycles();
+			int iGarbageRows = 0;
+			if(clkGarbageTimer != null) {
+				clkGarbageTimer.update();
+				iGarbageRows = clkGarbageTimer.pollElapsedCycles();
 			}
-		
-			//Decrement the drop cool down if necessary.
-			if(iDropCooldown > 0) {
-				iDropCooldown--;
+			if(iCycles > 0 || iGarbageRows > 0) {
+				updateGame(iCycles, iGarbageRows);
 			}
 			
-			//Display the window to the user.
-			renderGame();
+			//Hand the state after this step over to the panels.
+			fexFrames.publish(gmeEngine, clkLogicTimer);
 			
 			/*
-			 * Sleep to cap the framerate.
+			 * When nothing can change without a key being pressed, park until
+			 * one is, after letting the render thread draw this last frame.
 			 */
-			long lnDelta = (System.nanoTime() - lnStart) / 1000000L;
-			if(lnDelta < iFRAME_TIME) {
-				try {
-					Thread.sleep(iFRAME_TIME - lnDelta);
-				} catch(Exception e) {
-					e.printStackTrace();
-				}
+			if(gmeEngine.isPaused() || gmeEngine.isNewGame()
+                                || gmeEngine.isGameOver()) {
+				idle();
+				lnNextStep = Clock.getCurrentNanos();
+				continue;
 			}
+			if(bIdle) {
+				bIdle = false;
+				LockSupport.unpark(thrRender);
+			}
+			
+			lnNextStep += lTICK_TIME;
+			long lnNow = Clock.getCurrentNanos();
+			if(lnNextStep - lnNow < 0) {
+				lnNextStep = lnNow;
+			}
+			sleepUntil(lnNextStep);
 		}
 	}
 	
 	/**
-	 * Updates the game and handles the bulk of it's logic.
+	 * Repaints the window over and over at the frame rate, on the render
+	 * thread.
 	 */
-	private void updateGame() {
-		/*
-		 * Check to see if the piece's position can move down to the next row.
-		 */
-		if(bpnBoard.isValidAndEmpty(tltCurrentType, iCurrentCol, iCurrentRow + 1, iCurrentRotation)) {
-			//Increment the current row if it's safe to do so.
-			iCurrentRow++;
-
-		} else {
-			/*
-			 * We've either reached the bottom of the board, or landed on another piece, so
-			 * we need to add the piece to the board.
-			 */
-			bpnBoard.addPiece(tltCurrentType, iCurrentCol, iCurrentRow, iCurrentRotation);
-			
-			/*
-			 * Check to see if adding the new piece resulted in any cleared lines. If so,
-			 * increase the player's score. (Up to 4 lines can be cleared in a single go;
-			 * [1 = 100pts, 2 = 200pts, 3 = 400pts, 4 = 800pts]).
-			 */
-			int iCleared = bpnBoard.checkLines();
-			if(iCleared > 0) {
-				iScore += 50 << iCleared;
-			}
-                        
-			/*
-			 * Increase the speed slightly for the next piece and update the game's timer
-			 * to reflect the increase.
-			 */
-			fGameSpeed += 0.035f;
-			clkLogicTimer.setCyclesPerSecond(fGameSpeed);
-			clkLogicTimer.reset();
-			
-			/*
-			 * Set the drop cooldown so the next piece doesn't automatically come flying
-			 * in from the heavens immediately after this piece hits if we've not reacted
-			 * yet. (~0.5 second buffer).
-			 */
-			iDropCooldown = 25;
+	private void renderLoop() {
+		while(true) {
+			//Get the time that the frame started.
+			long lnStart = Clock.getCurrentNanos();
 			
-			/*
-			 * Update the difficulty level. This has no effect on the game, and is only
-			 * used in the "Level" string in the SidePanel.
-			 */
-			iLevel = (int)(fGameSpeed * 1.70f);
+			//Display the window to the user.
+			renderGame();
 			
 			/*
-			 * Spawn a new piece to control.
+			 * While the game is idle there's nothing new to draw, so wait for
+			 * the logic thread to publish a frame. Otherwise, sleep to cap the
+			 * framerate.
 			 */
-			spawnPiece();
-                        
-			/*
-			 * Plays the sound when it hits anothe piece or the bottom.
-			 */
-                        SClipPieza.play();
-		}		
+			if(bIdle) {
+				LockSupport.park(this);
+			} else {
+				sleepUntil(lnStart + lFRAME_TIME);
+			}
+		}
 	}
 	
 	/**
-	 * Forces the BoardPanel and SidePanel to repaint.
+	 * Parks the logic thread while the game is idle, until a key comes in
+	 * or the idle timeout runs out. The render thread is woken first so it
+	 * draws the frame that was just published, and then parks as well.
 	 */
-	private void renderGame() {
-		bpnBoard.repaint();
-		spnSide.repaint();
+	private void idle() {
+		bIdle = true;
+		LockSupport.unpark(thrRender);
+		
+		/*
+		 * A key queued just before the flag was set wouldn't have woken us,
+		 * so only park if the queue is still empty.
+		 */
+		if(iqeInput.isEmpty()) {
+			LockSupport.parkNanos(this, lIDLE_TIMEOUT);
+		}
+		
+		/*
+		 * The paused timers still need to know that the time spent parked
+		 * has passed, or they would count it once they are unpaused.
+		 */
+		clkLogicTimer.update();
+		if(clkGarbageTimer != null) {
+			clkGarbageTimer.update();
+		}
 	}
 	
 	/**
-	 * Resets the game variables to their default values at the start
-	 * of a new game.
+	 * Wakes the logic thread up if it's parked, after a key has been queued.
+	 * This runs on the event dispatch thread.
 	 */
-	private void resetGame() {
-		this.iLevel = 1;
-		this.iScore = 0;
-		this.fGameSpeed = 1.0f;
-		this.tltNextType = TileType.values()
-                        [ranRandom.nextInt(iTYPE_COUNT)];
-		this.boolIsNewGame = false;
-		this.boolIsGameOver = false;		
-		bpnBoard.clear();
-		clkLogicTimer.reset();
-		clkLogicTimer.setCyclesPerSecond(fGameSpeed);
-		spawnPiece();
+	private void wakeLogic() {
+		if(bIdle) {
+			LockSupport.unpark(thrLogic);
+		}
 	}
-		
+	
+	/**
+	 * Sleeps until a given time, or just gives other threads a chance to
+	 * run if it has already passed.
+	 * @param lnDeadline The time to wake up at, in nanoseconds.
+	 */
+	private static void sleepUntil(long lnDeadline) {
+		long lnRemaining = lnDeadline - Clock.getCurrentNanos();
+		if(lnRemaining > 0) {
+			try {
+				Thread.sleep(lnRemaining / 1000000L,
+                                        (int)(lnRemaining % 1000000L));
+			} catch(Exception e) {
+				e.printStackTrace();
+			}
+		} else {
+			Thread.yield();
+		}
+	}
+	
+	/**
+	 * Handles every key waiting in the input queue, in the order they came
+	 * in.
+	 */
+	private void processInput() {
+		while(iqeInput.poll()) {
+			if(iqeInput.isPressed()) {
+				handleKeyPressed(iqeInput.getKeyCode(), iqeInput.getTime());
+			} else {
+				handleKeyReleased(iqeInput.getKeyCode(),
+                                        iqeInput.getTime());
+			}
+		}
+	}
+	
 	/**
-	 * Spawns a new piece and resets our piece's variables to their default
-	 * values.
+	 * Updates the game and handles the bulk of it's logic.
+	 * @param iCycles The number of logic cycles that have elapsed.
+	 * @param iGarbageRows The number of garbage rows that have come due.
 	 */
-	private void spawnPiece() {
+	private void updateGame(int iCycles, int iGarbageRows) {
 		/*
-		 * Poll the last piece and reset our position and rotation to
-		 * their default variables, then pick the next piece to use.
+		 * Push the garbage in first, since it can push the piece up or end
+		 * the game before gravity gets to it.
 		 */
-		this.tltCurrentType = tltNextType;
-		this.iCurrentCol = tltCurrentType.getSpawnColumn();
-		this.iCurrentRow = tltCurrentType.getSpawnRow();
-		this.iCurrentRotation = 0;
-		this.tltNextType = TileType.values()
-                        [ranRandom.nextInt(iTYPE_COUNT)];
-                
-                //guardo el color real de la pieza.
-                colColorReal = tltCurrentType.getBaseColor();
+		if(iGarbageRows > 0 && gmeEngine.receiveGarbage(iGarbageRows)) {
+			pauseTimers();
+			return;
+		}
 		
 		/*
-		 * If the spawn point is invalid, we need to pause the game and flag that we've lost
-		 * because it means that the pieces on the bpnBoard have gotten too high.
+		 * Let the engine apply the elapsed cycles of gravity. If that locked
+		 * the piece, react to it.
 		 */
-		if(!bpnBoard.isValidAndEmpty(tltCurrentType, iCurrentCol
-                        , iCurrentRow, iCurrentRotation)) {
-			this.boolIsGameOver = true;
-			clkLogicTimer.setPaused(true);
-		}		
+		if(gmeEngine.applyGravity(iCycles)) {
+			onPieceLocked();
+		}
 	}
-
+	
 	/**
-	 * Attempts to set the rotation of the current piece to newRotation.
-	 * @param newRotation The rotation of the new peice.
+	 * Handles everything outside of the engine that has to happen once a
+	 * piece has been locked onto the board.
 	 */
-	private void rotatePiece(int iNewRotation) {
+	private void onPieceLocked() {
 		/*
-		 * Sometimes pieces will need to be moved when rotated to avoid clipping
-		 * out of the board (the I piece is a good example of this). Here we store
-		 * a temporary row and column in case we need to move the tile as well.
+		 * Update the game's timer to reflect the speed increase.
 		 */
-		int iNewColumn = iCurrentCol;
-		int iNewRow = iCurrentRow;
+		clkLogicTimer.setCyclesPerSecond(gmeEngine.getGameSpeed());
+		clkLogicTimer.reset();
 		
 		/*
-		 * Get the insets for each of the sides. These are used to determine how
-		 * many empty rows or columns there are on a given side.
+		 * Set the drop cooldown so the next piece doesn't automatically come flying
+		 * in from the heavens immediately after this piece hits if we've not reacted
+		 * yet. (0.5 second buffer).
 		 */
-		int iLeft = tltCurrentType.getLeftInset(iNewRotation);
-		int iRight = tltCurrentType.getRightInset(iNewRotation);
-		int iTop = tltCurrentType.getTopInset(iNewRotation);
-		int iBottom = tltCurrentType.getBottomInset(iNewRotation);
+		lDropCooldownEnd = Clock.getCurrentNanos() + lDROP_COOLDOWN;
 		
 		/*
-		 * If the current piece is too far to the left or right, move the piece away from the edges
-		 * so that the piece doesn't clip out of the map and automatically become invalid.
+		 * If the new piece couldn't spawn, the game is over and the timer is
+		 * paused.
 		 */
-		if(iCurrentCol < -iLeft) {
-			iNewColumn -= iCurrentCol - iLeft;
-		} else if(iCurrentCol + tltCurrentType.getDimension() 
-                        - iRight >= BoardPanel.iCOL_COUNT) {
-			iNewColumn -= (iCurrentCol + 
-                                tltCurrentType.getDimension() - iRight) 
-                                - BoardPanel.iCOL_COUNT + 1;
+		if(gmeEngine.isGameOver()) {
+			pauseTimers();
 		}
 		
 		/*
-		 * If the current piece is too far to the top or bottom, move the piece away from the edges
-		 * so that the piece doesn't clip out of the map and automatically become invalid.
+		 * Remember the new state so the placement can be undone.
 		 */
-		if(iCurrentRow < -iTop) {
-			iNewRow -= iCurrentRow - iTop;
-		} else if(iCurrentRow + tltCurrentType.getDimension() - iBottom >= BoardPanel.iROW_COUNT) {
-			iNewRow -= (iCurrentRow + tltCurrentType.getDimension() - iBottom) - BoardPanel.iROW_COUNT + 1;
+		if(ghsHistory != null) {
+			ghsHistory.record();
 		}
+	}
+	
+	/**
+	 * Plays the sounds that go with an event. This runs on the audio
+	 * listener's thread, not the game's.
+	 * @param iType The type of the event.
+	 * @param iValue The value of the event.
+	 */
+	private void playSounds(int iType, int iValue) {
+		switch(iType) {
 		
 		/*
-		 * Check to see if the new position is acceptable. If it is, update the rotation and
-		 * position of the piece.
+		 * Plays the sound when the piece hits another piece or the bottom.
+		 */
+		case GameEventBus.iEVENT_LOCK:
+			SClipPieza.play();
+			break;
+			
+		/*
+		 * Plays the sound once for every line that was completed.
+		 */
+		case GameEventBus.iEVENT_LINES_CLEARED:
+			for(int iLine = 0; iLine < iValue; iLine++) {
+				SClipSuccess.play();
+			}
+			break;
+			
+		/*
+		 * Pauses the background music along with the game.
 		 */
-		if(bpnBoard.isValidAndEmpty(tltCurrentType, iNewColumn, iNewRow, iNewRotation)) {
-			iCurrentRotation = iNewRotation;
-			iCurrentRow = iNewRow;
-			iCurrentCol = iNewColumn;
+		case GameEventBus.iEVENT_PAUSE:
+			if(iValue != 0) {
+				SClipFondo.pause();
+			} else {
+				SClipFondo.unpause();
+			}
+			break;
+		}
+	}
+	
+	/**
+	 * Resumes the game from a state brought back by the history. The timers
+	 * start over at the restored speed, unless the restored game is over.
+	 */
+	private void onRewind() {
+		clkLogicTimer.setCyclesPerSecond(gmeEngine.getGameSpeed());
+		clkLogicTimer.reset();
+		if(clkGarbageTimer != null) {
+			clkGarbageTimer.reset();
+		}
+		lDropCooldownEnd = Clock.getCurrentNanos() + lDROP_COOLDOWN;
+		if(gmeEngine.isGameOver()) {
+			pauseTimers();
+		}
+	}
+	
+	/**
+	 * Stops the logic and garbage timers once the game is over.
+	 */
+	private void pauseTimers() {
+		clkLogicTimer.setPaused(true);
+		if(clkGarbageTimer != null) {
+			clkGarbageTimer.setPaused(true);
+		}
+	}
+	
+	/**
+	 * Checks whether the drop cooldown of the current piece had run out at
+	 * a given time.
+	 * @param lTime The time, in nanoseconds.
+	 * @return Whether or not the piece could be dropped.
+	 */
+	private boolean isDropReady(long lTime) {
+		return lTime - lDropCooldownEnd >= 0;
+	}
+	
+	/**
+	 * Converts a rate into the time each cycle of it takes.
+	 * @param iPerSecond The number of cycles per second, or 0 for unlimited.
+	 * @return The number of nanoseconds per cycle.
+	 */
+	private static long cycleTime(int iPerSecond) {
+		return (iPerSecond > 0) ? 1000000000L / iPerSecond : 0L;
+	}
+	
+	/**
+	 * Forces the BoardPanel and SidePanel to repaint, together and from the
+	 * same frame. A pass that is still waiting to run isn't queued twice.
+	 */
+	private void renderGame() {
+		if(atbPaintQueued.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(runPaint);
+		}
+	}
+	
+	/**
+	 * Resets the game variables to their default values at the start
+	 * of a new game.
+	 */
+	private void resetGame() {
+		gmeEngine.resetGame();
+		clkLogicTimer.reset();
+		clkLogicTimer.setCyclesPerSecond(gmeEngine.getGameSpeed());
+		if(clkGarbageTimer != null) {
+			clkGarbageTimer.reset();
+		}
+		if(ghsHistory != null) {
+			ghsHistory.clear();
+			ghsHistory.record();
+		}
+	}
+	
+	/**
+	 * Creates the piece generator selected by the {@code tetris.randomizer}
+	 * system property ({@code uniform}, {@code bag} or {@code history}),
+	 * seeded from {@code tetris.seed} and keeping {@code tetris.preview}
+	 * upcoming pieces, dealing from the piece set named by
+	 * {@code tetris.pieces}. Without any properties, the built-in pieces are
+	 * dealt uniformly from an arbitrary seed, as they always have been.
+	 * @return The generator.
+	 */
+	private static PieceGenerator createGenerator() {
+		String sRandomizer = System.getProperty("tetris.randomizer", "uniform");
+		long lSeed = Long.getLong("tetris.seed", System.nanoTime());
+		int iPreview = Integer.getInteger("tetris.preview", 1);
+		PieceSet pstPieces = loadPieceSet(System.getProperty("tetris.pieces"));
+		
+		if("bag".equals(sRandomizer)) {
+			return new BagPieceGenerator(pstPieces, lSeed, iPreview);
+		} else if("history".equals(sRandomizer)) {
+			return new HistoryPieceGenerator(pstPieces, lSeed, iPreview);
+		}
+		return new UniformPieceGenerator(pstPieces, lSeed, iPreview);
+	}
+	
+	/**
+	 * Loads a piece set, falling back to the built-in pieces if it can't be
+	 * loaded.
+	 * @param sName The name of the set, or null for the built-in pieces.
+	 * @return The piece set.
+	 */
+	private static PieceSet loadPieceSet(String sName) {
+		try {
+			return PieceSet.forName(sName);
+		} catch(IOException e) {
+			System.out.println("Error en " + e.toString());
+			return PieceSet.CLASSIC;
 		}
 	}
 	
+	/**
+	 * Gets the frame of the game being drawn by the current paint pass. Only
+	 * the event dispatch thread may call this.
+	 * @return The frame.
+	 */
+	public RenderFrame getFrame() {
+		return rfrPainting;
+	}
+	
+	/**
+	 * Gets the engine that holds the game's state.
+	 * @return The engine.
+	 */
+	public GameEngine getEngine() {
+		return gmeEngine;
+	}
+	
 	/**
 	 * Checks to see whether or not the game is paused.
 	 * @return Whether or not the game is paused.
 	 */
 	public boolean isPaused() {
-		return boolIsPaused;
+		return gmeEngine.isPaused();
 	}
 	
 	/**
@@ -585,7 +917,7 @@ public class Tetris extends JFrame {
 	 * @return Whether or not the game is over.
 	 */
 	public boolean isGameOver() {
-		return boolIsGameOver;
+		return gmeEngine.isGameOver();
 	}
 	
 	/**
@@ -593,7 +925,7 @@ public class Tetris extends JFrame {
 	 * @return Whether or not this is a new game.
 	 */
 	public boolean isNewGame() {
-		return boolIsNewGame;
+		return gmeEngine.isNewGame();
 	}
 	
 	/**
@@ -601,7 +933,7 @@ public class Tetris extends JFrame {
 	 * @return The score.
 	 */
 	public int getScore() {
-		return iScore;
+		return gmeEngine.getScore();
 	}
 	
 	/**
@@ -609,7 +941,7 @@ public class Tetris extends JFrame {
 	 * @return The level.
 	 */
 	public int getLevel() {
-		return iLevel;
+		return gmeEngine.getLevel();
 	}
 	
 	/**
@@ -617,7 +949,7 @@ public class Tetris extends JFrame {
 	 * @return The piece type.
 	 */
 	public TileType getPieceType() {
-		return tltCurrentType;
+		return gmeEngine.getPieceType();
 	}
 	
 	/**
@@ -625,7 +957,7 @@ public class Tetris extends JFrame {
 	 * @return The next piece.
 	 */
 	public TileType getNextPieceType() {
-		return tltNextType;
+		return gmeEngine.getNextPieceType();
 	}
 	
 	/**
@@ -633,7 +965,7 @@ public class Tetris extends JFrame {
 	 * @return The column.
 	 */
 	public int getPieceCol() {
-		return iCurrentCol;
+		return gmeEngine.getPieceCol();
 	}
 	
 	/**
@@ -641,7 +973,7 @@ public class Tetris extends JFrame {
 	 * @return The row.
 	 */
 	public int getPieceRow() {
-		return iCurrentRow;
+		return gmeEngine.getPieceRow();
 	}
 	
 	/**
@@ -649,7 +981,7 @@ public class Tetris extends JFrame {
 	 * @return The rotation.
 	 */
 	public int getPieceRotation() {
-		return iCurrentRotation;
+		return gmeEngine.getPieceRotation();
 	}
         /**
          * funcion de guardar, toma el estado actual del juego
@@ -659,13 +991,13 @@ public class Tetris extends JFrame {
         public void Guardar()throws IOException{
             RandomAccessFile rafSalida;
             rafSalida = new RandomAccessFile("guardado.dat","rw");
-            rafSalida.writeInt(this.iLevel);
-            rafSalida.writeInt(this.iScore);
-            rafSalida.writeFloat(this.fGameSpeed);
-            rafSalida.writeInt(this.tltNextType.getType());
-            rafSalida.writeInt(this.tltCurrentType.getType());
-            rafSalida.writeBoolean(this.boolIsNewGame);
-            rafSalida.writeBoolean(this.boolIsGameOver);
+            rafSalida.writeInt(gmeEngine.getLevel());
+            rafSalida.writeInt(gmeEngine.getScore());
+            rafSalida.writeFloat(gmeEngine.getGameSpeed());
+            rafSalida.writeInt(gmeEngine.getNextPieceType().getType());
+            rafSalida.writeInt(gmeEngine.getPieceType().getType());
+            rafSalida.writeBoolean(gmeEngine.isNewGame());
+            rafSalida.writeBoolean(gmeEngine.isGameOver());
             int matDatos[][] = bpnBoard.getTablero();
             
             rafSalida.writeInt(matDatos.length);
@@ -684,13 +1016,16 @@ public class Tetris extends JFrame {
         public void Cargar()throws IOException{
             RandomAccessFile rafEntrada;
             rafEntrada = new RandomAccessFile("guardado.dat","rw");
-            this.iLevel = rafEntrada.readInt();
-            this.iScore = rafEntrada.readInt();
-            this.fGameSpeed = rafEntrada.readFloat();
-            this.tltNextType = TileType.values()[rafEntrada.readInt()];
-            this.tltCurrentType = TileType.values()[rafEntrada.readInt()];
-            this.boolIsNewGame = rafEntrada.readBoolean();
-            this.boolIsGameOver = rafEntrada.readBoolean();
+            int iLevel = rafEntrada.readInt();
+            int iScore = rafEntrada.readInt();
+            float fGameSpeed = rafEntrada.readFloat();
+            PieceSet pstPieces = gmeEngine.getPieceSet();
+            TileType tltNextType = pstPieces.getType(rafEntrada.readInt());
+            TileType tltCurrentType = pstPieces.getType(rafEntrada.readInt());
+            boolean boolIsNewGame = rafEntrada.readBoolean();
+            boolean boolIsGameOver = rafEntrada.readBoolean();
+            gmeEngine.restore(iLevel, iScore, fGameSpeed, tltNextType,
+                    tltCurrentType, boolIsNewGame, boolIsGameOver);
             
             clkLogicTimer.reset();
 	    clkLogicTimer.setCyclesPerSecond(fGameSpeed);
@@ -704,6 +1039,10 @@ public class Tetris extends JFrame {
             }
             bpnBoard.clear();
             bpnBoard.setTablero(matTablero);
+            if(ghsHistory != null) {
+                ghsHistory.clear();
+                ghsHistory.record();
+            }
         }
         
 	/**
@@ -2,16 +2,19 @@
 import java.awt.Color;
 
 /**
- * The {@code PieceType} enum describes the properties of the various pieces that can be used in the game.
+ * The {@code PieceType} class describes the properties of the various pieces that can be used in the game.
+ * The seven tetrominoes are built in; any other piece is created by a {@code PieceSet} from it's
+ * definition.
  * @author Brendan Jones
  *
  */
-public enum TileType {
+public final class TileType {
 
 	/**
 	 * Piece TypeI.
 	 */
-	TypeI(new Color(BoardPanel.iCOLOR_MIN, 
+	public static final TileType TypeI = new TileType("I",
+                new Color(BoardPanel.iCOLOR_MIN, 
                 BoardPanel.iCOLOR_MAX, BoardPanel.iCOLOR_MAX), 4, 4, 1, 
                 new boolean[][] {
 		{
@@ -38,12 +41,13 @@ public enum TileType {
 			false,	true,	false,	false,
 			false,	true,	false,	false,
 		}
-	},0),
+	},0);
 	
 	/**
 	 * Piece TypeJ.
 	 */
-	TypeJ(new Color(BoardPanel.iCOLOR_MIN, 
+	public static final TileType TypeJ = new TileType("J",
+                new Color(BoardPanel.iCOLOR_MIN, 
                 BoardPanel.iCOLOR_MIN, BoardPanel.iCOLOR_MAX), 3, 3, 2, 
                 new boolean[][] {
 		{
@@ -66,12 +70,13 @@ public enum TileType {
 			false,	true,	false,
 			true,	true,	false,
 		}
-	},1),
+	},1);
 	
 	/**
 	 * Piece TypeL.
 	 */
-	TypeL(new Color(BoardPanel.iCOLOR_MAX, 127, BoardPanel.iCOLOR_MIN), 3, 3,
+	public static final TileType TypeL = new TileType("L",
+                new Color(BoardPanel.iCOLOR_MAX, 127, BoardPanel.iCOLOR_MIN), 3, 3,
                 2, new boolean[][] {
 		{
 			false,	false,	true,
@@ -93,12 +98,13 @@ public enum TileType {
 			false,	true,	false,
 			false,	true,	false,
 		}
-	},2),
+	},2);
 	
 	/**
 	 * Piece TypeO.
 	 */
-	TypeO(new Color(BoardPanel.iCOLOR_MAX, BoardPanel.iCOLOR_MAX, 
+	public static final TileType TypeO = new TileType("O",
+                new Color(BoardPanel.iCOLOR_MAX, BoardPanel.iCOLOR_MAX, 
                 BoardPanel.iCOLOR_MIN), 2, 2, 2, new boolean[][] {
 		{
 			true,	true,
@@ -116,12 +122,13 @@ public enum TileType {
 			true,	true,
 			true,	true,
 		}
-	},3),
+	},3);
 	
 	/**
 	 * Piece TypeS.
 	 */
-	TypeS(new Color(BoardPanel.iCOLOR_MIN, BoardPanel.iCOLOR_MAX, 
+	public static final TileType TypeS = new TileType("S",
+                new Color(BoardPanel.iCOLOR_MIN, BoardPanel.iCOLOR_MAX, 
                 BoardPanel.iCOLOR_MIN), 3, 3, 2, new boolean[][] {
 		{
 			false,	true,	true,
@@ -143,12 +150,13 @@ public enum TileType {
 			true,	true,	false,
 			false,	true,	false,
 		}
-	},4),
+	},4);
 	
 	/**
 	 * Piece TypeT.
 	 */
-	TypeT(new Color(128, BoardPanel.iCOLOR_MIN, 128), 3, 3, 2, 
+	public static final TileType TypeT = new TileType("T",
+                new Color(128, BoardPanel.iCOLOR_MIN, 128), 3, 3, 2, 
                 new boolean[][] {
 		{
 			false,	true,	false,
@@ -170,12 +178,13 @@ public enum TileType {
 			true,	true,	false,
 			false,	true,	false,
 		}
-	},5),
+	},5);
 	
 	/**
 	 * Piece TypeZ.
 	 */
-	TypeZ(new Color(BoardPanel.iCOLOR_MAX, BoardPanel.iCOLOR_MIN, 
+	public static final TileType TypeZ = new TileType("Z",
+                new Color(BoardPanel.iCOLOR_MAX, BoardPanel.iCOLOR_MIN, 
                 BoardPanel.iCOLOR_MIN), 3, 3, 2, new boolean[][] {
 		{
 			true,	true,	false,
@@ -199,6 +208,28 @@ public enum TileType {
 		}
 	},6);
 		
+	/**
+	 * The tiles of the garbage rows that rise from the bottom of the board.
+	 * It isn't part of any piece set and never falls, so it's type number is
+	 * the one right after the largest set.
+	 */
+	public static final TileType TypeGarbage = new TileType("Garbage",
+                Color.GRAY, 1, 1, 1, new boolean[][] {
+		{true}, {true}, {true}, {true}
+	}, PieceSet.iMAX_TYPE_COUNT);
+
+	/**
+	 * The built-in pieces, in the order of their type numbers.
+	 */
+	private static final TileType[] tltarrBUILT_IN = {
+		TypeI, TypeJ, TypeL, TypeO, TypeS, TypeT, TypeZ
+	};
+
+	/**
+	 * The name of this type.
+	 */
+	private final String sName;
+	
 	/**
 	 * The base color of tiles of this type.
 	 */
@@ -247,6 +278,11 @@ public enum TileType {
 	 * The tiles for this piece. Each piece has an array of tiles for each rotation.
 	 */
 	private boolean[][] boolmatTiles;
+	
+	/**
+	 * The precompiled masks, insets and cell lists of every rotation.
+	 */
+	private PieceGeometry pgeGeometry;
         //tipo de tyle
 	private int iType;
         
@@ -255,19 +291,22 @@ public enum TileType {
         
 	/**
 	 * Creates a new TileType.
+	 * @param sName The name of the type.
 	 * @param color The base color of the tile.
 	 * @param dimension The dimensions of the tiles array.
 	 * @param iCols The number of columns.
 	 * @param rows The number of rows.
 	 * @param tiles The tiles.
 	 */
-	private TileType(Color color, int iDimension, int iCols, int iRows
-                , boolean[][] boolmatTiles,int iT) {
+	private TileType(String sName, Color color, int iDimension, int iCols,
+                int iRows, boolean[][] boolmatTiles,int iT) {
+		this.sName = sName;
 		this.colBaseColor = color;
 		this.colLightColor = color.brighter();
 		this.colDarkColor = color.darker();
 		this.iDimension = iDimension;
 		this.boolmatTiles = boolmatTiles;
+		this.pgeGeometry = new PieceGeometry(iDimension, boolmatTiles);
 		this.iCols = iCols;
 		this.iRows = iRows;
 		this.iType = iT;
@@ -276,6 +315,48 @@ public enum TileType {
                 this.bVivo = true;
 	}
 	
+	/**
+	 * Creates a new TileType from a definition. The preview size and the
+	 * spawn position are worked out from the first rotation.
+	 * @param sName The name of the type.
+	 * @param color The base color of the tile.
+	 * @param iDimension The dimensions of the tiles array.
+	 * @param boolmatTiles The tiles of each rotation.
+	 * @param iT The number of the type within it's piece set.
+	 * @param iSpawnCol The column the piece spawns in.
+	 * @param iSpawnRow The row the piece spawns in.
+	 */
+	public TileType(String sName, Color color, int iDimension,
+                boolean[][] boolmatTiles, int iT, int iSpawnCol,
+                int iSpawnRow) {
+		this(sName, color, iDimension, 0, 0, boolmatTiles, iT);
+		this.iCols = iDimension - getLeftInset(0) - getRightInset(0) + 1;
+		this.iRows = iDimension - getTopInset(0) - getBottomInset(0) + 1;
+		this.iSpawnCol = iSpawnCol;
+		this.iSpawnRow = iSpawnRow;
+	}
+	
+	/**
+	 * Gets the built-in pieces, the seven tetrominoes.
+	 * @return A new array holding the built-in pieces.
+	 */
+	public static TileType[] values() {
+		return tltarrBUILT_IN.clone();
+	}
+	
+	/**
+	 * Gets the name of this type.
+	 * @return The name.
+	 */
+	public String getName() {
+		return sName;
+	}
+	
+	@Override
+	public String toString() {
+		return sName;
+	}
+	
 	/**
 	 * Gets the base color of this type.
 	 * @return The base color.
@@ -342,6 +423,14 @@ public enum TileType {
 		return iCols;
 	}
 	
+	/**
+	 * Gets the precompiled geometry of this type.
+	 * @return The geometry.
+	 */
+	public PieceGeometry getGeometry() {
+		return pgeGeometry;
+	}
+	
 	/**
 	 * Checks to see if the given coordinates and rotation contain a tile.
 	 * @param x The x coordinate of the tile.
@@ -360,18 +449,7 @@ public enum TileType {
 	 * @return The left inset.
 	 */
 	public int getLeftInset(int iRotation) {
-		/*
-		 * Loop through from left to right until we find a tile then return
-		 * the column.
-		 */
-		for(int iX = 0; iX < iDimension; iX++) {
-			for(int iY = 0; iY < iDimension; iY++) {
-				if(isTile(iX, iY, iRotation)) {
-					return iX;
-				}
-			}
-		}
-		return -1;
+		return pgeGeometry.getLeftInset(iRotation);
 	}
 	
 	/**
@@ -381,18 +459,7 @@ public enum TileType {
 	 * @return The right inset.
 	 */
 	public int getRightInset(int iRotation) {
-		/*
-		 * Loop through from right to left until we find a tile then return
-		 * the column.
-		 */
-		for(int iX = iDimension - 1; iX >= 0; iX--) {
-			for(int iY = 0; iY < iDimension; iY++) {
-				if(isTile(iX, iY, iRotation)) {
-					return iDimension - iX;
-				}
-			}
-		}
-		return -1;
+		return pgeGeometry.getRightInset(iRotation);
 	}
 	
 	/**
@@ -402,18 +469,7 @@ public enum TileType {
 	 * @return The top inset.
 	 */
 	public int getTopInset(int iRotation) {
-		/*
-		 * Loop through from top to bottom until we find a tile then return
-		 * the row.
-		 */
-		for(int iY = 0; iY < iDimension; iY++) {
-			for(int iX = 0; iX < iDimension; iX++) {
-				if(isTile(iX, iY, iRotation)) {
-					return iY;
-				}
-			}
-		}
-		return -1;
+		return pgeGeometry.getTopInset(iRotation);
 	}
 	
 	/**
@@ -423,18 +479,7 @@ public enum TileType {
 	 * @return The bottom inset.
 	 */
 	public int getBottomInset(int iRotation) {
-		/*
-		 * Loop through from bottom to top until we find a tile then return
-		 * the row.
-		 */
-		for(int iY = iDimension - 1; iY >= 0; iY--) {
-			for(int iX = 0; iX < iDimension; iX++) {
-				if(isTile(iX, iY, iRotation)) {
-					return iDimension - iY;
-				}
-			}
-		}
-		return -1;
+		return pgeGeometry.getBottomInset(iRotation);
 	}
         //regresa el tipo de tyle actual
         public int getType(){
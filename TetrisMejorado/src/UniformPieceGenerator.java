@@ -0,0 +1,38 @@
+
+/**
+ * The {@code UniformPieceGenerator} class picks every piece independently
+ * and with the same probability, which is how the game has always dealt
+ * pieces.
+ */
+public class UniformPieceGenerator extends AbstractPieceGenerator {
+
+	/**
+	 * Creates a new uniform generator that deals the built-in pieces.
+	 * @param lSeed The seed.
+	 * @param iPreviewSize The number of upcoming pieces to keep.
+	 */
+	public UniformPieceGenerator(long lSeed, int iPreviewSize) {
+		this(PieceSet.CLASSIC, lSeed, iPreviewSize);
+	}
+
+	/**
+	 * Creates a new uniform generator.
+	 * @param pstPieces The set to deal pieces from.
+	 * @param lSeed The seed.
+	 * @param iPreviewSize The number of upcoming pieces to keep.
+	 */
+	public UniformPieceGenerator(PieceSet pstPieces, long lSeed, int iPreviewSize) {
+		super(pstPieces, lSeed, iPreviewSize);
+		start();
+	}
+
+	@Override
+	protected void restart() {
+	}
+
+	@Override
+	protected int generate() {
+		return nextInt(iTypeCount);
+	}
+
+}
@@ -0,0 +1,129 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that every board of a {@code BatchEngine} plays exactly the same
+ * game as a {@code GameEngine} dealt pieces with the same seed and given the
+ * same inputs, with both piece sets and both rotation systems.
+ */
+public class BatchEngineTest {
+
+	/**
+	 * The number of boards in each batch.
+	 */
+	private static final int iBOARD_COUNT = 64;
+
+	/**
+	 * The number of steps played.
+	 */
+	private static final int iSTEP_COUNT = 3000;
+
+	/**
+	 * The seed of the first board.
+	 */
+	private static final long lSEED = 100L;
+
+	/**
+	 * Checks the built-in pieces on a standard board.
+	 */
+	@Test
+	public void testClassicPiecesMatchGameEngine() {
+		assertMatchesGameEngine(PieceSet.CLASSIC, RotationSystem.CLASSIC, 10);
+		assertMatchesGameEngine(PieceSet.CLASSIC, RotationSystem.SRS, 10);
+	}
+
+	/**
+	 * Checks a set of larger pieces loaded from a file, on a wider board.
+	 * @throws Exception If the piece set can't be loaded.
+	 */
+	@Test
+	public void testLoadedPiecesMatchGameEngine() throws Exception {
+		PieceSet pstPieces = PieceSet.forName("pentominoes.pieces");
+		assertMatchesGameEngine(pstPieces, RotationSystem.CLASSIC, 12);
+		assertMatchesGameEngine(pstPieces, RotationSystem.SRS, 12);
+	}
+
+	/**
+	 * Plays a batch and one engine per board with the same random inputs,
+	 * and compares them after every step.
+	 * @param pstPieces The piece set.
+	 * @param rtsRotation The rotation system.
+	 * @param iCols The number of columns.
+	 */
+	private static void assertMatchesGameEngine(PieceSet pstPieces,
+                RotationSystem rtsRotation, int iCols) {
+		BatchEngine bteBatch = new BatchEngine(iBOARD_COUNT, pstPieces,
+                        rtsRotation, iCols, GameEngine.iVISIBLE_ROW_COUNT);
+		bteBatch.resetAll(lSEED);
+		GameEngine[] gmearrEngines = new GameEngine[iBOARD_COUNT];
+		for(int iBoard = 0; iBoard < iBOARD_COUNT; iBoard++) {
+			gmearrEngines[iBoard] = new GameEngine(new UniformPieceGenerator(
+                                pstPieces, 0L, 1), rtsRotation, iCols,
+                                GameEngine.iVISIBLE_ROW_COUNT);
+			gmearrEngines[iBoard].resetGame(lSEED + iBoard);
+		}
+
+		Random rndRandom = new Random(7);
+		int[] iarrInputs = new int[iBOARD_COUNT];
+		for(int iStep = 0; iStep < iSTEP_COUNT; iStep++) {
+			/*
+			 * Mostly moves and rotations, with the odd hard drop, so the
+			 * stacks grow slowly enough to clear lines.
+			 */
+			for(int iBoard = 0; iBoard < iBOARD_COUNT; iBoard++) {
+				int iRoll = rndRandom.nextInt(64);
+				iarrInputs[iBoard] = (iRoll < 40) ? (iRoll & 15)
+                                        : (iRoll < 44) ? GameEngine.iINPUT_HARD_DROP : 0;
+			}
+
+			int iLocked = bteBatch.step(iarrInputs);
+			int iExpectedLocked = 0;
+			for(int iBoard = 0; iBoard < iBOARD_COUNT; iBoard++) {
+				GameEngine gmeEngine = gmearrEngines[iBoard];
+				if(!gmeEngine.isGameOver() && gmeEngine.step(
+                                        iarrInputs[iBoard])) {
+					iExpectedLocked++;
+				}
+				assertSameBoard(rtsRotation + " board " + iBoard + " step "
+                                        + iStep, gmeEngine, bteBatch, iBoard);
+			}
+			assertEquals(iExpectedLocked, iLocked);
+		}
+	}
+
+	/**
+	 * Checks that a board of a batch is in the same state as an engine.
+	 * @param sContext Where in the game they are, for the failure message.
+	 * @param gmeEngine The engine.
+	 * @param bteBatch The batch.
+	 * @param iBoard The board of the batch.
+	 */
+	private static void assertSameBoard(String sContext, GameEngine gmeEngine,
+                BatchEngine bteBatch, int iBoard) {
+		assertEquals(sContext, gmeEngine.isGameOver(),
+                        bteBatch.isGameOver(iBoard));
+		if(gmeEngine.isGameOver()) {
+			return;
+		}
+		assertEquals(sContext, gmeEngine.getScore(), bteBatch.getScore(iBoard));
+		assertSame(sContext, gmeEngine.getPieceType(),
+                        bteBatch.getPieceType(iBoard));
+		assertSame(sContext, gmeEngine.getNextPieceType(),
+                        bteBatch.getNextPieceType(iBoard));
+		assertEquals(sContext, gmeEngine.getPieceCol(),
+                        bteBatch.getPieceCol(iBoard));
+		assertEquals(sContext, gmeEngine.getPieceRow(),
+                        bteBatch.getPieceRow(iBoard));
+		assertEquals(sContext, gmeEngine.getPieceRotation(),
+                        bteBatch.getPieceRotation(iBoard));
+		BitBoard bbBoard = gmeEngine.getBoard();
+		for(int iY = 0; iY < bteBatch.getRowCount(); iY++) {
+			assertEquals(sContext + " row " + iY, bbBoard.getRowMask(iY),
+                                bteBatch.getRowMask(iBoard, iY));
+		}
+	}
+
+}
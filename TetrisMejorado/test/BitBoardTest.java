@@ -0,0 +1,421 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks everything {@code BitBoard} keeps up to date as it goes (the row
+ * masks and fills, the skyline, the hash and the features) against a plain
+ * grid of tiles that works all of it out from scratch, over long runs of
+ * random placements, edits, line clears and garbage rows.
+ */
+public class BitBoardTest {
+
+	/**
+	 * The sizes of the boards tried, as columns and rows. They include a
+	 * single column, a single row, the widest board and a tall one.
+	 */
+	private static final int[][] iarrSIZES = {{10, 22}, {4, 8}, {1, 6},
+                {7, 3}, {10, 1}, {64, 40}, {10, 600}};
+
+	/**
+	 * The number of games played on each size of board.
+	 */
+	private static final int iGAME_COUNT = 60;
+
+	/**
+	 * The number of operations made in each game.
+	 */
+	private static final int iOPERATION_COUNT = 250;
+
+	/**
+	 * The pieces the boards are played with.
+	 */
+	private static final TileType[] tltarrTYPES = TileType.values();
+
+	/**
+	 * Makes random operations on boards of every size, and compares the
+	 * whole board with the grid after each one.
+	 */
+	@Test
+	public void testRandomOperationsMatchGrid() {
+		Random rndRandom = new Random(11);
+		for(int[] iarrSize : iarrSIZES) {
+			int iCols = iarrSize[0];
+			int iRows = iarrSize[1];
+			for(int iGame = 0; iGame < iGAME_COUNT; iGame++) {
+				BitBoard bbBoard = new BitBoard(iCols, iRows);
+				TileType[][] tltarrGrid = new TileType[iRows][iCols];
+				for(int iOp = 0; iOp < iOPERATION_COUNT; iOp++) {
+					String sOperation = operate(bbBoard, tltarrGrid,
+                                                rndRandom);
+					assertMatches(iCols + "x" + iRows + " " + sOperation,
+                                                bbBoard, tltarrGrid);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares every placement the board evaluates with the features of a
+	 * grid that actually has the piece placed and it's lines cleared, and
+	 * checks the board itself is left alone.
+	 */
+	@Test
+	public void testEvaluatePlacementMatchesPlacing() {
+		Random rndRandom = new Random(17);
+		int[] iarrEvaluated = new int[BitBoard.iFEATURE_COUNT];
+		int[] iarrBefore = new int[BitBoard.iFEATURE_COUNT];
+		int[] iarrAfter = new int[BitBoard.iFEATURE_COUNT];
+		for(int[] iarrSize : iarrSIZES) {
+			int iCols = iarrSize[0];
+			int iRows = iarrSize[1];
+			for(int iGame = 0; iGame < iGAME_COUNT; iGame++) {
+				BitBoard bbBoard = new BitBoard(iCols, iRows);
+				TileType[][] tltarrGrid = new TileType[iRows][iCols];
+				for(int iOp = 0; iOp < iOPERATION_COUNT; iOp++) {
+					TileType tltType = tltarrTYPES[rndRandom.nextInt(
+                                                tltarrTYPES.length)];
+					int iRotation = rndRandom.nextInt(4);
+					int iX = rndRandom.nextInt(iCols + 4) - 2;
+					if(isValid(tltarrGrid, tltType, iX, 0, iRotation)) {
+						int iY = landingRow(tltarrGrid, tltType, iX, 0,
+                                                        iRotation);
+						bbBoard.getFeatures(iarrBefore);
+						bbBoard.evaluatePlacement(tltType, iX, iY,
+                                                        iRotation, iarrEvaluated);
+						bbBoard.getFeatures(iarrAfter);
+						assertArrayEquals(iarrBefore, iarrAfter);
+
+						TileType[][] tltarrPlaced = copy(tltarrGrid);
+						place(tltarrPlaced, tltType, iX, iY, iRotation);
+						int iLines = clearLines(tltarrPlaced);
+						int[] iarrExpected = features(tltarrPlaced);
+						iarrExpected[BitBoard.iFEATURE_LINES] = iLines;
+						assertArrayEquals(tltType + " at " + iX + ","
+                                                        + iY + "," + iRotation,
+                                                        iarrExpected, iarrEvaluated);
+					}
+
+					/*
+					 * Move the game along so later placements are made on
+					 * fuller boards.
+					 */
+					operate(bbBoard, tltarrGrid, rndRandom);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes one random operation on both the board and the grid.
+	 * @param bbBoard The board.
+	 * @param tltarrGrid The grid.
+	 * @param rndRandom The source of random numbers.
+	 * @return A description of the operation.
+	 */
+	private static String operate(BitBoard bbBoard, TileType[][] tltarrGrid,
+                Random rndRandom) {
+		int iCols = tltarrGrid[0].length;
+		int iRows = tltarrGrid.length;
+		int iOp = rndRandom.nextInt(10);
+		if(iOp < 6) {
+			TileType tltType = tltarrTYPES[rndRandom.nextInt(
+                                tltarrTYPES.length)];
+			int iRotation = rndRandom.nextInt(4);
+			int iX = rndRandom.nextInt(iCols + 4) - 2;
+			int iY = rndRandom.nextInt(iRows + 4) - 2;
+			String sOperation = "place " + tltType + " at " + iX + ","
+                                + iY + "," + iRotation;
+			boolean bValid = isValid(tltarrGrid, tltType, iX, iY, iRotation);
+			assertEquals(sOperation, bValid,
+                                bbBoard.isValidAndEmpty(tltType, iX, iY, iRotation));
+			if(!bValid) {
+				return sOperation;
+			}
+			int iLanding = landingRow(tltarrGrid, tltType, iX, iY, iRotation);
+			assertEquals(sOperation, iLanding,
+                                bbBoard.getLandingRow(tltType, iX, iY, iRotation));
+
+			//Usually drop the piece, but sometimes leave it in mid air.
+			if(rndRandom.nextInt(4) != 0) {
+				iY = iLanding;
+			}
+			bbBoard.addPiece(tltType, iX, iY, iRotation);
+			place(tltarrGrid, tltType, iX, iY, iRotation);
+			assertEquals(sOperation, clearLines(tltarrGrid),
+                                bbBoard.clearLines());
+			return sOperation;
+		} else if(iOp < 8) {
+			int iX = rndRandom.nextInt(iCols);
+			int iY = rndRandom.nextInt(iRows);
+			TileType tltType = rndRandom.nextBoolean() ? null
+                                : tltarrTYPES[rndRandom.nextInt(tltarrTYPES.length)];
+			bbBoard.setTile(iX, iY, tltType);
+			tltarrGrid[iY][iX] = tltType;
+			assertEquals(clearLines(tltarrGrid), bbBoard.clearLines());
+			return "set " + iX + "," + iY + " to " + tltType;
+		} else if(iOp < 9) {
+			int iHole = rndRandom.nextInt(iCols);
+			assertEquals(insertGarbage(tltarrGrid, iHole),
+                                bbBoard.insertGarbage(iHole));
+			return "garbage with a hole at " + iHole;
+		}
+		assertEquals(clearLines(tltarrGrid), bbBoard.clearLines());
+		return "clear";
+	}
+
+	/**
+	 * Checks that a board holds the same tiles as a grid, and that
+	 * everything it keeps up to date agrees with the grid.
+	 * @param sContext What was done last, for the failure message.
+	 * @param bbBoard The board.
+	 * @param tltarrGrid The grid.
+	 */
+	private static void assertMatches(String sContext, BitBoard bbBoard,
+                TileType[][] tltarrGrid) {
+		int iCols = tltarrGrid[0].length;
+		int iRows = tltarrGrid.length;
+		BitBoard bbRebuilt = new BitBoard(iCols, iRows);
+		int iCellCount = 0;
+		int iStackTop = iRows;
+		for(int iY = 0; iY < iRows; iY++) {
+			long lMask = 0L;
+			int iFill = 0;
+			for(int iX = 0; iX < iCols; iX++) {
+				TileType tltType = tltarrGrid[iY][iX];
+				assertSame(sContext, tltType, bbBoard.getTile(iX, iY));
+				assertEquals(sContext, tltType != null,
+                                        bbBoard.isOccupied(iX, iY));
+				if(tltType != null) {
+					lMask |= 1L << iX;
+					iFill++;
+					bbRebuilt.setTile(iX, iY, tltType);
+				}
+			}
+			assertEquals(sContext, lMask, bbBoard.getRowMask(iY));
+			assertEquals(sContext, iFill, bbBoard.getRowFill(iY));
+			iCellCount += iFill;
+			if(iFill > 0 && iStackTop == iRows) {
+				iStackTop = iY;
+			}
+		}
+		for(int iX = 0; iX < iCols; iX++) {
+			assertEquals(sContext, columnTop(tltarrGrid, iX),
+                                bbBoard.getColumnTop(iX));
+		}
+		assertEquals(sContext, iStackTop, bbBoard.getStackTop());
+		assertEquals(sContext, iCellCount, bbBoard.getCellCount());
+
+		int[] iarrFeatures = new int[BitBoard.iFEATURE_COUNT];
+		bbBoard.getFeatures(iarrFeatures);
+		assertArrayEquals(sContext, features(tltarrGrid), iarrFeatures);
+
+		//The hash only depends on the tiles, not on how they got there.
+		assertEquals(sContext, bbRebuilt.getHash(), bbBoard.getHash());
+	}
+
+	/**
+	 * Checks whether a piece fits on a grid.
+	 * @param tltarrGrid The grid.
+	 * @param tltType The type of piece.
+	 * @param iX The x coordinate of the piece.
+	 * @param iY The y coordinate of the piece.
+	 * @param iRotation The rotation of the piece.
+	 * @return Whether or not every tile of the piece is on the grid and
+	 * empty.
+	 */
+	private static boolean isValid(TileType[][] tltarrGrid, TileType tltType,
+                int iX, int iY, int iRotation) {
+		for(int iCol = 0; iCol < tltType.getDimension(); iCol++) {
+			for(int iRow = 0; iRow < tltType.getDimension(); iRow++) {
+				if(!tltType.isTile(iCol, iRow, iRotation)) {
+					continue;
+				}
+				int iTileX = iX + iCol;
+				int iTileY = iY + iRow;
+				if(iTileX < 0 || iTileX >= tltarrGrid[0].length
+                                        || iTileY < 0 || iTileY >= tltarrGrid.length
+                                        || tltarrGrid[iTileY][iTileX] != null) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds where a piece lands on a grid by moving it down a row at a time.
+	 * @param tltarrGrid The grid.
+	 * @param tltType The type of piece.
+	 * @param iX The x coordinate of the piece.
+	 * @param iY The y coordinate of the piece.
+	 * @param iRotation The rotation of the piece.
+	 * @return The landing row.
+	 */
+	private static int landingRow(TileType[][] tltarrGrid, TileType tltType,
+                int iX, int iY, int iRotation) {
+		while(isValid(tltarrGrid, tltType, iX, iY + 1, iRotation)) {
+			iY++;
+		}
+		return iY;
+	}
+
+	/**
+	 * Places a piece on a grid.
+	 * @param tltarrGrid The grid.
+	 * @param tltType The type of piece.
+	 * @param iX The x coordinate of the piece.
+	 * @param iY The y coordinate of the piece.
+	 * @param iRotation The rotation of the piece.
+	 */
+	private static void place(TileType[][] tltarrGrid, TileType tltType,
+                int iX, int iY, int iRotation) {
+		for(int iCol = 0; iCol < tltType.getDimension(); iCol++) {
+			for(int iRow = 0; iRow < tltType.getDimension(); iRow++) {
+				if(tltType.isTile(iCol, iRow, iRotation)) {
+					tltarrGrid[iY + iRow][iX + iCol] = tltType;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the full rows of a grid, moving the rows above them down.
+	 * @param tltarrGrid The grid.
+	 * @return The number of rows removed.
+	 */
+	private static int clearLines(TileType[][] tltarrGrid) {
+		int iCols = tltarrGrid[0].length;
+		int iCleared = 0;
+		for(int iY = tltarrGrid.length - 1; iY >= 0; iY--) {
+			boolean bFull = true;
+			for(int iX = 0; iX < iCols; iX++) {
+				bFull &= tltarrGrid[iY][iX] != null;
+			}
+			if(bFull) {
+				System.arraycopy(tltarrGrid, 0, tltarrGrid, 1, iY);
+				tltarrGrid[0] = new TileType[iCols];
+				iCleared++;
+				iY++;
+			}
+		}
+		return iCleared;
+	}
+
+	/**
+	 * Pushes a garbage row in from the bottom of a grid.
+	 * @param tltarrGrid The grid.
+	 * @param iHole The column of the hole.
+	 * @return Whether or not any tiles were pushed off the top.
+	 */
+	private static boolean insertGarbage(TileType[][] tltarrGrid, int iHole) {
+		int iCols = tltarrGrid[0].length;
+		int iRows = tltarrGrid.length;
+		boolean bOverflow = false;
+		for(int iX = 0; iX < iCols; iX++) {
+			bOverflow |= tltarrGrid[0][iX] != null;
+		}
+		System.arraycopy(tltarrGrid, 1, tltarrGrid, 0, iRows - 1);
+		tltarrGrid[iRows - 1] = new TileType[iCols];
+		for(int iX = 0; iX < iCols; iX++) {
+			if(iX != iHole) {
+				tltarrGrid[iRows - 1][iX] = TileType.TypeGarbage;
+			}
+		}
+		return bOverflow;
+	}
+
+	/**
+	 * Finds the highest occupied row of a column of a grid.
+	 * @param tltarrGrid The grid.
+	 * @param iX The column.
+	 * @return The row, or the row count if the column is empty.
+	 */
+	private static int columnTop(TileType[][] tltarrGrid, int iX) {
+		for(int iY = 0; iY < tltarrGrid.length; iY++) {
+			if(tltarrGrid[iY][iX] != null) {
+				return iY;
+			}
+		}
+		return tltarrGrid.length;
+	}
+
+	/**
+	 * Works out every feature of a grid from scratch. The walls and the
+	 * floor count as occupied.
+	 * @param tltarrGrid The grid.
+	 * @return The features, indexed by the {@code iFEATURE_} constants, with
+	 * no lines.
+	 */
+	private static int[] features(TileType[][] tltarrGrid) {
+		int iCols = tltarrGrid[0].length;
+		int iRows = tltarrGrid.length;
+		int[] iarrFeatures = new int[BitBoard.iFEATURE_COUNT];
+		int[] iarrHeights = new int[iCols];
+		for(int iX = 0; iX < iCols; iX++) {
+			int iTop = columnTop(tltarrGrid, iX);
+			iarrHeights[iX] = iRows - iTop;
+			iarrFeatures[BitBoard.iFEATURE_AGGREGATE_HEIGHT] += iarrHeights[iX];
+			for(int iY = iTop; iY < iRows; iY++) {
+				if(tltarrGrid[iY][iX] == null) {
+					iarrFeatures[BitBoard.iFEATURE_HOLES]++;
+				}
+			}
+		}
+		for(int iX = 0; iX + 1 < iCols; iX++) {
+			iarrFeatures[BitBoard.iFEATURE_BUMPINESS] += Math.abs(
+                                iarrHeights[iX] - iarrHeights[iX + 1]);
+		}
+		for(int iX = 0; iX < iCols; iX++) {
+			int iLeft = (iX > 0) ? iarrHeights[iX - 1] : Integer.MAX_VALUE;
+			int iRight = (iX + 1 < iCols) ? iarrHeights[iX + 1]
+                                : Integer.MAX_VALUE;
+			int iEdge = Math.min(iLeft, iRight);
+			if(iEdge != Integer.MAX_VALUE) {
+				iarrFeatures[BitBoard.iFEATURE_WELLS] += Math.max(0,
+                                        iEdge - iarrHeights[iX]);
+			}
+		}
+		for(int iY = 0; iY < iRows; iY++) {
+			boolean bPrevious = true;
+			for(int iX = 0; iX < iCols; iX++) {
+				boolean bOccupied = tltarrGrid[iY][iX] != null;
+				if(bOccupied != bPrevious) {
+					iarrFeatures[BitBoard.iFEATURE_ROW_TRANSITIONS]++;
+				}
+				bPrevious = bOccupied;
+			}
+			if(!bPrevious) {
+				iarrFeatures[BitBoard.iFEATURE_ROW_TRANSITIONS]++;
+			}
+		}
+		for(int iX = 0; iX < iCols; iX++) {
+			for(int iY = 0; iY < iRows; iY++) {
+				boolean bOccupied = tltarrGrid[iY][iX] != null;
+				boolean bBelow = (iY + 1 >= iRows)
+                                        || tltarrGrid[iY + 1][iX] != null;
+				if(bOccupied != bBelow) {
+					iarrFeatures[BitBoard.iFEATURE_COLUMN_TRANSITIONS]++;
+				}
+			}
+		}
+		return iarrFeatures;
+	}
+
+	/**
+	 * Copies a grid.
+	 * @param tltarrGrid The grid.
+	 * @return The copy.
+	 */
+	private static TileType[][] copy(TileType[][] tltarrGrid) {
+		TileType[][] tltarrCopy = new TileType[tltarrGrid.length][];
+		for(int iY = 0; iY < tltarrGrid.length; iY++) {
+			tltarrCopy[iY] = tltarrGrid[iY].clone();
+		}
+		return tltarrCopy;
+	}
+
+}
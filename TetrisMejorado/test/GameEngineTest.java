@@ -0,0 +1,170 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that {@code GameEngine.applyGravity} gives exactly the same game as
+ * letting gravity act one cycle at a time, each cycle moving the piece down
+ * a row if there's room and locking it otherwise.
+ */
+public class GameEngineTest {
+
+	/**
+	 * The number of games played.
+	 */
+	private static final int iGAME_COUNT = 400;
+
+	/**
+	 * The most steps played in each game.
+	 */
+	private static final int iSTEP_COUNT = 300;
+
+	/**
+	 * The most cycles of gravity applied at once.
+	 */
+	private static final int iMAX_CYCLES = 30;
+
+	/**
+	 * Plays two engines dealt the same pieces side by side. One applies
+	 * every batch of gravity in a single call, the other cycle by cycle,
+	 * checking each cycle against the board. They must never differ.
+	 */
+	@Test
+	public void testApplyGravityMatchesSingleCycles() {
+		Random rndRandom = new Random(3);
+		for(int iGame = 0; iGame < iGAME_COUNT; iGame++) {
+			RotationSystem rtsRotation = (iGame % 2 == 0)
+                                ? RotationSystem.CLASSIC : RotationSystem.SRS;
+			GameEngine gmeBatched = new GameEngine(
+                                new BagPieceGenerator(iGame, 1), rtsRotation, 10, 20);
+			GameEngine gmeSingle = new GameEngine(
+                                new BagPieceGenerator(iGame, 1), rtsRotation, 10, 20);
+			gmeBatched.resetGame();
+			gmeSingle.resetGame();
+			for(int iStep = 0; iStep < iSTEP_COUNT
+                                && !gmeBatched.isGameOver(); iStep++) {
+				//Move and rotate the piece, but leave the drops to gravity.
+				int iInputs = rndRandom.nextInt(GameEngine.iINPUT_HARD_DROP);
+				applyInputs(gmeBatched, iInputs);
+				applyInputs(gmeSingle, iInputs);
+
+				int iCycles = 1 + rndRandom.nextInt(iMAX_CYCLES);
+				boolean bLocked = gmeBatched.applyGravity(iCycles);
+				assertEquals(bLocked, applySingleCycles(gmeSingle, iCycles));
+				assertSameGame("game " + iGame + " step " + iStep,
+                                        gmeSingle, gmeBatched);
+			}
+		}
+	}
+
+	/**
+	 * Checks that a hard drop gives the same game as letting gravity act
+	 * for longer than the piece can fall.
+	 */
+	@Test
+	public void testHardDropMatchesGravity() {
+		Random rndRandom = new Random(5);
+		for(int iGame = 0; iGame < iGAME_COUNT; iGame++) {
+			GameEngine gmeDropped = new GameEngine(
+                                new UniformPieceGenerator(iGame, 1));
+			GameEngine gmeFallen = new GameEngine(
+                                new UniformPieceGenerator(iGame, 1));
+			gmeDropped.resetGame();
+			gmeFallen.resetGame();
+			for(int iStep = 0; iStep < iSTEP_COUNT
+                                && !gmeDropped.isGameOver(); iStep++) {
+				int iInputs = rndRandom.nextInt(GameEngine.iINPUT_HARD_DROP);
+				applyInputs(gmeDropped, iInputs);
+				applyInputs(gmeFallen, iInputs);
+				assertTrue(gmeDropped.hardDrop());
+				assertTrue(gmeFallen.applyGravity(
+                                        gmeFallen.getBoard().getRowCount() + 1));
+				assertSameGame("game " + iGame + " step " + iStep,
+                                        gmeFallen, gmeDropped);
+			}
+		}
+	}
+
+	/**
+	 * Moves and rotates the piece of an engine.
+	 * @param gmeEngine The engine.
+	 * @param iInputs The {@code GameEngine.iINPUT_} flags.
+	 */
+	private static void applyInputs(GameEngine gmeEngine, int iInputs) {
+		if((iInputs & GameEngine.iINPUT_LEFT) != 0) {
+			gmeEngine.moveLeft();
+		}
+		if((iInputs & GameEngine.iINPUT_RIGHT) != 0) {
+			gmeEngine.moveRight();
+		}
+		if((iInputs & GameEngine.iINPUT_ROTATE_CW) != 0) {
+			gmeEngine.rotateClockwise();
+		}
+		if((iInputs & GameEngine.iINPUT_ROTATE_CCW) != 0) {
+			gmeEngine.rotateAnticlockwise();
+		}
+	}
+
+	/**
+	 * Lets gravity act one cycle at a time, checking that each cycle moves
+	 * the piece down a row when there's room below it and locks it when
+	 * there isn't.
+	 * @param gmeEngine The engine.
+	 * @param iCycles The number of cycles.
+	 * @return Whether or not the piece was locked.
+	 */
+	private static boolean applySingleCycles(GameEngine gmeEngine,
+                int iCycles) {
+		for(int iCycle = 0; iCycle < iCycles; iCycle++) {
+			TileType tltType = gmeEngine.getPieceType();
+			int iCol = gmeEngine.getPieceCol();
+			int iRow = gmeEngine.getPieceRow();
+			int iRotation = gmeEngine.getPieceRotation();
+			boolean bRoom = gmeEngine.getBoard().isValidAndEmpty(tltType, iCol,
+                                iRow + 1, iRotation);
+			boolean bLocked = gmeEngine.tick();
+			assertEquals(!bRoom, bLocked);
+			if(bLocked) {
+				return true;
+			}
+			assertEquals(iRow + 1, gmeEngine.getPieceRow());
+			assertEquals(iCol, gmeEngine.getPieceCol());
+		}
+		return false;
+	}
+
+	/**
+	 * Checks that two engines are in the same state.
+	 * @param sContext Where in the game they are, for the failure message.
+	 * @param gmeExpected The engine that is known to be right.
+	 * @param gmeActual The engine being checked.
+	 */
+	private static void assertSameGame(String sContext,
+                GameEngine gmeExpected, GameEngine gmeActual) {
+		assertEquals(sContext, gmeExpected.isGameOver(),
+                        gmeActual.isGameOver());
+		assertEquals(sContext, gmeExpected.getScore(), gmeActual.getScore());
+		assertEquals(sContext, gmeExpected.getLevel(), gmeActual.getLevel());
+		assertEquals(sContext, gmeExpected.getLinesCleared(),
+                        gmeActual.getLinesCleared());
+		assertSame(sContext, gmeExpected.getPieceType(),
+                        gmeActual.getPieceType());
+		assertEquals(sContext, gmeExpected.getPieceCol(),
+                        gmeActual.getPieceCol());
+		assertEquals(sContext, gmeExpected.getPieceRow(),
+                        gmeActual.getPieceRow());
+		assertEquals(sContext, gmeExpected.getPieceRotation(),
+                        gmeActual.getPieceRotation());
+		BitBoard bbExpected = gmeExpected.getBoard();
+		BitBoard bbActual = gmeActual.getBoard();
+		for(int iY = 0; iY < bbExpected.getRowCount(); iY++) {
+			assertEquals(sContext, bbExpected.getRowMask(iY),
+                                bbActual.getRowMask(iY));
+		}
+		assertEquals(sContext, bbExpected.getHash(), bbActual.getHash());
+	}
+
+}
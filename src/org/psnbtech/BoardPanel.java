@@ -160,11 +160,10 @@ public class BoardPanel extends JPanel {
 		 * Note: It's fine to do this even though it allows for wrapping because we've already
 		 * checked to make sure the piece is in a valid location.
 		 */
-		for(int col = 0; col < type.getDimension(); col++) {
-			for(int row = 0; row < type.getDimension(); row++) {
-				if(type.isTile(col, row, rotation) && isOccupied(x + col, y + row)) {
-					return false;
-				}
+		int dimension = type.getDimension();
+		for(int cell : type.getCells(rotation)) {
+			if(isOccupied(x + cell % dimension, y + cell / dimension)) {
+				return false;
 			}
 		}
 		return true;
@@ -181,15 +180,11 @@ public class BoardPanel extends JPanel {
 	public void addPiece(TileType type, int x, int y, int rotation) {
 		/*
 		 * Loop through every tile within the piece and add it
-		 * to the board only if the boolean that represents that
-		 * tile is set to true.
+		 * to the board.
 		 */
-		for(int col = 0; col < type.getDimension(); col++) {
-			for(int row = 0; row < type.getDimension(); row++) {
-				if(type.isTile(col, row, rotation)) {
-					setTile(col + x, row + y, type);
-				}
-			}
+		int dimension = type.getDimension();
+		for(int cell : type.getCells(rotation)) {
+			setTile(x + cell % dimension, y + cell / dimension, type);
 		}
 	}
 	
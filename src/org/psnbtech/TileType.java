@@ -1,6 +1,7 @@
 package org.psnbtech;
 
 import java.awt.Color;
+import java.util.Arrays;
 
 /**
  * The {@code PieceType} enum describes the properties of the various pieces that can be used in the game.
@@ -240,6 +241,29 @@ public enum TileType {
 	 */
 	private boolean[][] tiles;
 	
+	/**
+	 * The row masks for each rotation. Bit n of a mask is set when column n
+	 * of that row of the piece contains a tile.
+	 */
+	private long[][] rowMasks;
+	
+	/**
+	 * The left, right, top and bottom insets for each rotation.
+	 */
+	private int[][] insets;
+	
+	/**
+	 * The tiles of each rotation as a list of {@code row * dimension + column}
+	 * indices.
+	 */
+	private int[][] cells;
+	
+	/**
+	 * The lowest row with a tile in each column of each rotation, or -1 if the
+	 * column is empty.
+	 */
+	private int[][] columnBottoms;
+	
 	/**
 	 * Creates a new TileType.
 	 * @param color The base color of the tile.
@@ -257,6 +281,8 @@ public enum TileType {
 		this.cols = cols;
 		this.rows = rows;
 		
+		compileGeometry();
+		
 		this.spawnCol = 5 - (dimension >> 1);
 		this.spawnRow = getTopInset(0);
 	}
@@ -338,6 +364,37 @@ public enum TileType {
 		return tiles[rotation][y * dimension + x];
 	}
 	
+	/**
+	 * Gets the row masks of a rotation. The returned array is shared and
+	 * must not be modified.
+	 * @param rotation The rotation.
+	 * @return The row masks, one per row of the tile array.
+	 */
+	public long[] getRowMasks(int rotation) {
+		return rowMasks[rotation];
+	}
+	
+	/**
+	 * Gets the tiles of a rotation as {@code row * dimension + column}
+	 * indices. The returned array is shared and must not be modified.
+	 * @param rotation The rotation.
+	 * @return The cell list.
+	 */
+	public int[] getCells(int rotation) {
+		return cells[rotation];
+	}
+	
+	/**
+	 * Gets the lowest row containing a tile for each column of a rotation,
+	 * or -1 for empty columns. The returned array is shared and must not be
+	 * modified.
+	 * @param rotation The rotation.
+	 * @return The bottom offsets, one per column of the tile array.
+	 */
+	public int[] getColumnBottoms(int rotation) {
+		return columnBottoms[rotation];
+	}
+	
 	/**
 	 * The left inset is represented by the number of empty columns on the left
 	 * side of the array for the given rotation.
@@ -345,18 +402,7 @@ public enum TileType {
 	 * @return The left inset.
 	 */
 	public int getLeftInset(int rotation) {
-		/*
-		 * Loop through from left to right until we find a tile then return
-		 * the column.
-		 */
-		for(int x = 0; x < dimension; x++) {
-			for(int y = 0; y < dimension; y++) {
-				if(isTile(x, y, rotation)) {
-					return x;
-				}
-			}
-		}
-		return -1;
+		return insets[rotation][0];
 	}
 	
 	/**
@@ -366,18 +412,7 @@ public enum TileType {
 	 * @return The right inset.
 	 */
 	public int getRightInset(int rotation) {
-		/*
-		 * Loop through from right to left until we find a tile then return
-		 * the column.
-		 */
-		for(int x = dimension - 1; x >= 0; x--) {
-			for(int y = 0; y < dimension; y++) {
-				if(isTile(x, y, rotation)) {
-					return dimension - x;
-				}
-			}
-		}
-		return -1;
+		return insets[rotation][1];
 	}
 	
 	/**
@@ -387,18 +422,7 @@ public enum TileType {
 	 * @return The top inset.
 	 */
 	public int getTopInset(int rotation) {
-		/*
-		 * Loop through from top to bottom until we find a tile then return
-		 * the row.
-		 */
-		for(int y = 0; y < dimension; y++) {
-			for(int x = 0; x < dimension; x++) {
-				if(isTile(x, y, rotation)) {
-					return y;
-				}
-			}
-		}
-		return -1;
+		return insets[rotation][2];
 	}
 	
 	/**
@@ -408,18 +432,58 @@ public enum TileType {
 	 * @return The bottom inset.
 	 */
 	public int getBottomInset(int rotation) {
-		/*
-		 * Loop through from bottom to top until we find a tile then return
-		 * the row.
-		 */
-		for(int y = dimension - 1; y >= 0; y--) {
-			for(int x = 0; x < dimension; x++) {
-				if(isTile(x, y, rotation)) {
-					return dimension - y;
+		return insets[rotation][3];
+	}
+	
+	/**
+	 * Builds the masks, insets, cell lists and column offsets of every
+	 * rotation once, so that none of the getters above have to scan the
+	 * tile array.
+	 */
+	private void compileGeometry() {
+		this.rowMasks = new long[4][dimension];
+		this.insets = new int[4][4];
+		this.cells = new int[4][];
+		this.columnBottoms = new int[4][dimension];
+		
+		for(int rotation = 0; rotation < 4; rotation++) {
+			int minCol = dimension, maxCol = -1;
+			int minRow = dimension, maxRow = -1;
+			int count = 0;
+			Arrays.fill(columnBottoms[rotation], -1);
+			
+			for(int y = 0; y < dimension; y++) {
+				for(int x = 0; x < dimension; x++) {
+					if(isTile(x, y, rotation)) {
+						rowMasks[rotation][y] |= 1L << x;
+						columnBottoms[rotation][x] = y;
+						minCol = Math.min(minCol, x);
+						maxCol = Math.max(maxCol, x);
+						minRow = Math.min(minRow, y);
+						maxRow = Math.max(maxRow, y);
+						count++;
+					}
+				}
+			}
+			
+			cells[rotation] = new int[count];
+			for(int i = 0, next = 0; i < tiles[rotation].length; i++) {
+				if(tiles[rotation][i]) {
+					cells[rotation][next++] = i;
 				}
 			}
+			
+			/*
+			 * Keep the conventions of the old scanning code: an empty rotation
+			 * reports -1, and the right and bottom insets are measured from the
+			 * last occupied column or row.
+			 */
+			boolean empty = (count == 0);
+			insets[rotation][0] = empty ? -1 : minCol;
+			insets[rotation][1] = empty ? -1 : dimension - maxCol;
+			insets[rotation][2] = empty ? -1 : minRow;
+			insets[rotation][3] = empty ? -1 : dimension - maxRow;
 		}
-		return -1;
 	}
 	
 }